@@ -4,7 +4,16 @@
   }
 
   compileOnly("org.jetbrains:annotations:24.0.1")
+
+  testImplementation("org.junit.jupiter:junit-jupiter:5.10.1")
+  testRuntimeOnly("org.junit.platform:junit-platform-launcher")
+  testRuntimeOnly("com.h2database:h2:2.2.224")
+  testCompileOnly("org.jetbrains:annotations:24.0.1")
 }
 
 java.sourceCompatibility = JavaVersion.VERSION_1_8
 java.targetCompatibility = JavaVersion.VERSION_1_8
+
+tasks.test {
+  useJUnitPlatform()
+}
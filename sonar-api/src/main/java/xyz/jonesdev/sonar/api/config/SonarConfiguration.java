@@ -25,6 +25,7 @@
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.command.SonarCommand;
 import xyz.jonesdev.sonar.api.dependencies.Dependency;
+import xyz.jonesdev.sonar.api.fallback.FailureType;
 import xyz.jonesdev.sonar.api.webhook.DiscordWebhook;
 
 import java.awt.*;
@@ -53,6 +54,12 @@ public final class SonarConfiguration {
   private final Database database = new Database();
   @Getter
   private final Webhook webhook = new Webhook();
+  @Getter
+  private final BlacklistExport blacklistExport = new BlacklistExport();
+  @Getter
+  private final ConnectionLimit connectionLimit = new ConnectionLimit();
+  @Getter
+  private final Overload overload = new Overload();
 
   public SonarConfiguration(final @NotNull File pluginFolder) {
     this.pluginFolder = pluginFolder;
@@ -90,6 +97,25 @@ public static final class Verbose {
   @NoArgsConstructor(access = AccessLevel.PRIVATE)
   public static final class Queue {
     private int maxQueuePolls;
+    private int maxSize;
+    private int priorityWeight;
+    private OverflowPolicy overflowPolicy;
+    private final Adaptive adaptive = new Adaptive();
+
+    public enum OverflowPolicy {
+      REJECT_NEWEST, EVICT_OLDEST
+    }
+
+    @Getter
+    public static final class Adaptive {
+      private boolean enabled;
+      private int minPolls;
+      private int increase;
+      private double decreaseFactor;
+      private int maxCpuUsage;
+      private int maxEventLoopLag;
+      private int maxVerifying;
+    }
   }
 
   @Getter
@@ -104,6 +130,8 @@ public enum Timing {
 
     private final Map map = new Map();
     private final Gravity gravity = new Gravity();
+    private final SubnetLimits subnetLimits = new SubnetLimits();
+    private final FailureScore failureScore = new FailureScore();
 
     @Getter
     public static final class Map {
@@ -114,7 +142,10 @@ public static final class Map {
       private double distortionsFactorY;
       private int randomLinesAmount;
       private int randomOvalsAmount;
+      private int backgroundNoise;
+      private boolean dithering;
       private int precomputeAmount;
+      private boolean offHeap;
       private int maxDuration;
       private int maxTries;
       private String dictionary;
@@ -124,6 +155,30 @@ public static final class Map {
       private List<String> fonts;
     }
 
+    @Getter
+    public static final class SubnetLimits {
+      private boolean enabled;
+      private int joinsPerSecond;
+      private int wideJoinsPerSecond;
+      private boolean blacklist;
+      private int blacklistThreshold;
+      private long blacklistTime;
+    }
+
+    @Getter
+    public static final class FailureScore {
+      private long halfLife;
+      private int ratelimitThreshold;
+      private long ratelimitTime;
+      private int blacklistThreshold;
+      @Getter(AccessLevel.NONE)
+      private final int[] weights = new int[FailureType.values().length];
+
+      public int getWeight(final @NotNull FailureType type) {
+        return weights[type.ordinal()];
+      }
+    }
+
     @Getter
     public static final class Gravity {
       private boolean enabled;
@@ -161,6 +216,7 @@ public enum Gamemode {
     private int maxPing;
     private int readTimeout;
     private int reconnectDelay;
+    private int rejoinBurst;
     private final Collection<Integer> whitelistedProtocols = new HashSet<>(0);
     private final Collection<Integer> blacklistedProtocols = new HashSet<>(0);
 
@@ -231,6 +287,7 @@ public static final class Database {
     @RequiredArgsConstructor
     public enum Type {
       MYSQL(Dependency.MYSQL, "com.mysql.cj.jdbc.NonRegisteringDriver"),
+      LOCAL(null, null),
       NONE(null, null);
 
       private final Dependency dependency;
@@ -244,6 +301,43 @@ public enum Type {
     private String username;
     private String password;
     private int maximumAge;
+    private int writeBatchSize;
+    private int writeInterval;
+    private int maxSpoolSize;
+    private int cacheSize;
+    private int lookupTimeout;
+    private int syncInterval;
+  }
+
+  @Getter
+  @NoArgsConstructor(access = AccessLevel.PRIVATE)
+  public static final class Overload {
+    private boolean enabled;
+    private int maxEventLoopLag;
+    private int maxPendingTasks;
+    private Action action;
+    private Component serverBusy;
+
+    public enum Action {
+      DISCONNECT, CLOSE
+    }
+  }
+
+  @Getter
+  @NoArgsConstructor(access = AccessLevel.PRIVATE)
+  public static final class ConnectionLimit {
+    private boolean enabled;
+    private int connectionsPerSecond;
+    private int attackConnectionsPerSecond;
+    private int perIpConnectionsPerSecond;
+  }
+
+  @Getter
+  @NoArgsConstructor(access = AccessLevel.PRIVATE)
+  public static final class BlacklistExport {
+    private boolean enabled;
+    private int interval;
+    private String setName;
   }
 
   @Getter
@@ -349,7 +443,8 @@ public void load() {
     // Database
     generalConfig.getYaml().setComment("database.type",
       "Type of database Sonar uses to store verified players"
-        + LINE_SEPARATOR + "Possible types: NONE, MYSQL");
+        + LINE_SEPARATOR + "Possible types: NONE, LOCAL, MYSQL"
+        + LINE_SEPARATOR + "LOCAL stores verified players in files inside the plugin folder");
     database.type = Database.Type.valueOf(
       generalConfig.getString("database.type", Database.Type.NONE.name()).toUpperCase());
 
@@ -383,14 +478,100 @@ public void load() {
       "How many days should Sonar keep verified players in the database?");
     database.maximumAge = clamp(generalConfig.getInt("database.maximum-age", 5), 1, 365);
 
+    generalConfig.getYaml().setComment("database.write-batch-size",
+      "How many changes should Sonar collect before writing them to the database at once?");
+    database.writeBatchSize = clamp(generalConfig.getInt("database.write-batch-size", 500), 1, 10000);
+
+    generalConfig.getYaml().setComment("database.write-interval",
+      "How often (in milliseconds) should Sonar write pending changes to the database?");
+    database.writeInterval = clamp(generalConfig.getInt("database.write-interval", 1000), 50, 60000);
+
+    generalConfig.getYaml().setComment("database.max-spool-size",
+      "How many megabytes of changes should Sonar keep on the disk while the database is unreachable?"
+        + LINE_SEPARATOR + "The changes are written to the database once it is reachable again (0 to disable)");
+    database.maxSpoolSize = clamp(generalConfig.getInt("database.max-spool-size", 64), 0, 4096);
+
+    generalConfig.getYaml().setComment("database.cache-size",
+      "How many verified players should Sonar keep in memory at most? (0 to keep all of them)"
+        + LINE_SEPARATOR + "Players that are not in memory are looked up in the database when they join"
+        + LINE_SEPARATOR + "This is only used for external databases and should only be set for very large tables");
+    database.cacheSize = clamp(generalConfig.getInt("database.cache-size", 0), 0, 100000000);
+
+    generalConfig.getYaml().setComment("database.lookup-timeout",
+      "How long (in milliseconds) should Sonar wait for the database when looking up a joining player?"
+        + LINE_SEPARATOR + "The player has to be verified again if the database does not respond in time");
+    database.lookupTimeout = clamp(generalConfig.getInt("database.lookup-timeout", 250), 10, 5000);
+
+    generalConfig.getYaml().setComment("database.sync-interval",
+      "How often (in seconds) should Sonar fetch players verified or removed by other proxies? (0 to disable)"
+        + LINE_SEPARATOR + "Only enable this if several proxies share the same database"
+        + LINE_SEPARATOR + "Removals are only shared while this is enabled, so enable it on all of these proxies");
+    database.syncInterval = clamp(generalConfig.getInt("database.sync-interval", 0), 0, 600);
+
     // Queue
     generalConfig.getYaml().setComment("queue",
       "Every new login request will be queued to avoid spam join attacks"
-        + LINE_SEPARATOR + "The queue is updated every 500 milliseconds (10 ticks)");
+        + LINE_SEPARATOR + "The queue is drained continuously by every network thread");
     generalConfig.getYaml().setComment("queue.max-polls",
-      "Maximum number of concurrent queue polls per 500 milliseconds");
+      "Maximum number of concurrent queue polls per 500 milliseconds"
+        + LINE_SEPARATOR + "This budget is split between all network threads that have queued players"
+        + LINE_SEPARATOR + "If the adaptive queue is enabled, this is the upper limit of the budget");
     queue.maxQueuePolls = clamp(generalConfig.getInt("queue.max-polls", 30), 1, 1000);
 
+    generalConfig.getYaml().setComment("queue.max-size",
+      "Maximum number of players that can be queued at the same time"
+        + LINE_SEPARATOR + "The highest allowed value is 16384, as every network thread buffers up to 32768"
+        + LINE_SEPARATOR + "new players and the EVICT_OLDEST overflow policy can queue twice the maximum size");
+    queue.maxSize = clamp(generalConfig.getInt("queue.max-size", 8192), 1, 16384);
+
+    generalConfig.getYaml().setComment("queue.priority-weight",
+      "Queued players are grouped by their subnet (/24 for IPv4, /48 for IPv6), and every"
+        + LINE_SEPARATOR + "subnet takes turns, so a single range cannot fill the queue for everyone else."
+        + LINE_SEPARATOR + "Players whose IP address has already been verified are put in a priority lane."
+        + LINE_SEPARATOR + "How many players should the priority lane admit per turn?");
+    queue.priorityWeight = clamp(generalConfig.getInt("queue.priority-weight", 4), 1, 100);
+
+    generalConfig.getYaml().setComment("queue.overflow-policy",
+      "What should Sonar do if the queue is full?"
+        + LINE_SEPARATOR + "Possible types: REJECT_NEWEST, EVICT_OLDEST"
+        + LINE_SEPARATOR + "- REJECT_NEWEST: New players are disconnected (too-many-players message)"
+        + LINE_SEPARATOR + "- EVICT_OLDEST: The oldest queued players of the most crowded subnet are disconnected"
+        + LINE_SEPARATOR + "  (new players are still disconnected if twice the maximum size is queued)");
+    queue.overflowPolicy = Queue.OverflowPolicy.valueOf(
+      generalConfig.getString("queue.overflow-policy", Queue.OverflowPolicy.REJECT_NEWEST.name()).toUpperCase());
+
+    generalConfig.getYaml().setComment("queue.adaptive",
+      "Sonar can adjust the number of queue polls to the current load of the server"
+        + LINE_SEPARATOR + "The number of polls quickly grows while the server is healthy (up to max-polls)"
+        + LINE_SEPARATOR + "and is cut down as soon as one of the following limits is reached");
+    generalConfig.getYaml().setComment("queue.adaptive.enabled",
+      "Should Sonar adjust the number of queue polls automatically?");
+    queue.adaptive.enabled = generalConfig.getBoolean("queue.adaptive.enabled", true);
+
+    generalConfig.getYaml().setComment("queue.adaptive.min-polls",
+      "Minimum number of queue polls per 500 milliseconds");
+    queue.adaptive.minPolls = clamp(generalConfig.getInt("queue.adaptive.min-polls", 5), 1, 1000);
+
+    generalConfig.getYaml().setComment("queue.adaptive.increase",
+      "By how many polls should the number of polls grow every 500 milliseconds?");
+    queue.adaptive.increase = clamp(generalConfig.getInt("queue.adaptive.increase", 2), 1, 1000);
+
+    generalConfig.getYaml().setComment("queue.adaptive.decrease",
+      "By how much (in percent) should the number of polls be cut down if the server is saturated?");
+    queue.adaptive.decreaseFactor = 1D - clamp(generalConfig.getInt("queue.adaptive.decrease", 50), 1, 99) / 100D;
+
+    generalConfig.getYaml().setComment("queue.adaptive.max-cpu-usage",
+      "Process CPU usage (in percent) at which the server is considered saturated");
+    queue.adaptive.maxCpuUsage = clamp(generalConfig.getInt("queue.adaptive.max-cpu-usage", 90), 1, 100);
+
+    generalConfig.getYaml().setComment("queue.adaptive.max-event-loop-lag",
+      "Delay of the network threads (in milliseconds) at which the server is considered saturated");
+    queue.adaptive.maxEventLoopLag = clamp(generalConfig.getInt("queue.adaptive.max-event-loop-lag", 100), 1, 10000);
+
+    generalConfig.getYaml().setComment("queue.adaptive.max-verifying",
+      "Number of players being verified at which the server is considered saturated");
+    queue.adaptive.maxVerifying = clamp(generalConfig.getInt("queue.adaptive.max-verifying", 1000), 1, 100000);
+
     // Verification
     generalConfig.getYaml().setComment("verification",
       "Every new player that joins for the first time will be sent to"
@@ -466,6 +647,16 @@ public void load() {
       "How many random ovals behind the captcha should Sonar draw?");
     verification.map.randomOvalsAmount = generalConfig.getInt("verification.checks.map-captcha.random-ovals", 1);
 
+    generalConfig.getYaml().setComment("verification.checks.map-captcha.background-noise",
+      "How much random noise (in percent) should Sonar draw on the background of the captcha?");
+    verification.map.backgroundNoise = clamp(generalConfig.getInt(
+      "verification.checks.map-captcha.background-noise", 10), 0, 100);
+
+    generalConfig.getYaml().setComment("verification.checks.map-captcha.dithering",
+      "Should Sonar dither the colors of the captcha?"
+        + LINE_SEPARATOR + "This makes gradients look smoother on the limited map color palette");
+    verification.map.dithering = generalConfig.getBoolean("verification.checks.map-captcha.dithering", true);
+
     generalConfig.getYaml().setComment("verification.checks.map-captcha.random-font-size",
       "Should Sonar randomize the size of the font used for rendering the captcha?");
     verification.map.randomizeFontSize = generalConfig.getBoolean("verification.checks.map-captcha.random-font-size",
@@ -475,7 +666,13 @@ public void load() {
       "How many answers should Sonar precompute (prepare)?"
         + LINE_SEPARATOR + "This task happens asynchronously in the background;"
         + LINE_SEPARATOR + "Players are able to join once one captcha has been prepared");
-    verification.map.precomputeAmount = generalConfig.getInt("verification.checks.map-captcha.precompute", 1000);
+    verification.map.precomputeAmount = clamp(generalConfig.getInt(
+      "verification.checks.map-captcha.precompute", 1000), 1, 100000);
+
+    generalConfig.getYaml().setComment("verification.checks.map-captcha.off-heap",
+      "Should Sonar store the precomputed captchas outside of the Java heap?"
+        + LINE_SEPARATOR + "All captchas are stored in one buffer (16 KiB per captcha)");
+    verification.map.offHeap = generalConfig.getBoolean("verification.checks.map-captcha.off-heap", false);
 
     generalConfig.getYaml().setComment("verification.checks.map-captcha.max-duration",
       "How long should Sonar wait until the player fails the captcha?");
@@ -539,9 +736,80 @@ public void load() {
     verification.readTimeout = clamp(generalConfig.getInt("verification.read-timeout", 3500), 500, 30000);
 
     generalConfig.getYaml().setComment("verification.rejoin-delay",
-      "Minimum number of rejoin delay during verification");
+      "Minimum number of rejoin delay during verification"
+        + LINE_SEPARATOR + "(Time it takes for an IP address to regain one verification attempt)");
     verification.reconnectDelay = clamp(generalConfig.getInt("verification.rejoin-delay", 8000), 0, 100000);
 
+    generalConfig.getYaml().setComment("verification.rejoin-burst",
+      "How many verification attempts can an IP address make in a row before being rate-limited?");
+    verification.rejoinBurst = clamp(generalConfig.getInt("verification.rejoin-burst", 1), 1, 100);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits",
+      "Attacks often rotate through thousands of IP addresses of only a few ranges."
+        + LINE_SEPARATOR + "Sonar can limit how many players of the same subnet can join per second");
+    generalConfig.getYaml().setComment("verification.subnet-limits.enabled",
+      "Should Sonar limit the joins per subnet?");
+    verification.subnetLimits.enabled = generalConfig.getBoolean("verification.subnet-limits.enabled", true);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits.joins-per-second",
+      "How many players of the same /24 (IPv4) or /48 (IPv6) subnet can join per second?");
+    verification.subnetLimits.joinsPerSecond = clamp(generalConfig.getInt(
+      "verification.subnet-limits.joins-per-second", 10), 1, 1000);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits.wide-joins-per-second",
+      "How many players of the same /16 (IPv4) or /32 (IPv6) subnet can join per second?");
+    verification.subnetLimits.wideJoinsPerSecond = clamp(generalConfig.getInt(
+      "verification.subnet-limits.wide-joins-per-second", 40), 1, 1000);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits.blacklist",
+      "Should Sonar blacklist subnets that keep exceeding the limit?"
+        + LINE_SEPARATOR + "If disabled, joins of these subnets are only rate-limited"
+        + LINE_SEPARATOR + "Blacklisted subnets never affect players that are already verified");
+    verification.subnetLimits.blacklist = generalConfig.getBoolean("verification.subnet-limits.blacklist", false);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits.blacklist-threshold",
+      "How many joins of a subnet can be rejected before the whole subnet is blacklisted?"
+        + LINE_SEPARATOR + "(One rejected join is forgiven every second)");
+    verification.subnetLimits.blacklistThreshold = clamp(generalConfig.getInt(
+      "verification.subnet-limits.blacklist-threshold", 50), 1, 1000);
+
+    generalConfig.getYaml().setComment("verification.subnet-limits.blacklist-time",
+      "For how long (in seconds) should a subnet be blacklisted?");
+    verification.subnetLimits.blacklistTime = clamp(generalConfig.getInt(
+      "verification.subnet-limits.blacklist-time", 600), 1, 86400) * 1000L;
+
+    generalConfig.getYaml().setComment("verification.failure-score",
+      "Every failed verification adds to the failure score of the IP address, which decays over time."
+        + LINE_SEPARATOR + "Depending on the score, the IP address is rate-limited or blacklisted."
+        + LINE_SEPARATOR + "All scores and weights are in percent (100 = one failure)");
+    generalConfig.getYaml().setComment("verification.failure-score.half-life",
+      "Time (in seconds) it takes for a failure score to decay to half its value");
+    verification.failureScore.halfLife = clamp(generalConfig.getInt(
+      "verification.failure-score.half-life", 180), 1, 86400) * 1000L;
+
+    generalConfig.getYaml().setComment("verification.failure-score.ratelimit-threshold",
+      "Above which score should the IP address be denied from verifying for a while?");
+    verification.failureScore.ratelimitThreshold = clamp(generalConfig.getInt(
+      "verification.failure-score.ratelimit-threshold", 100), 1, 100000);
+
+    generalConfig.getYaml().setComment("verification.failure-score.ratelimit-time",
+      "For how long (in seconds) should the IP address be denied from verifying?");
+    verification.failureScore.ratelimitTime = clamp(generalConfig.getInt(
+      "verification.failure-score.ratelimit-time", 10), 0, 3600) * 1000L;
+
+    generalConfig.getYaml().setComment("verification.failure-score.blacklist-threshold",
+      "Above which score should the IP address be blacklisted?");
+    verification.failureScore.blacklistThreshold = clamp(generalConfig.getInt(
+      "verification.failure-score.blacklist-threshold", 150), 1, 100000);
+
+    generalConfig.getYaml().setComment("verification.failure-score.weights",
+      "How much should every type of failure add to the score?");
+    for (final FailureType type : FailureType.values()) {
+      final int def = type == FailureType.TIMEOUT ? 50 : 100;
+      verification.failureScore.weights[type.ordinal()] = clamp(generalConfig.getInt(
+        "verification.failure-score.weights." + type.name().toLowerCase(Locale.ROOT), def), 0, 100000);
+    }
+
     generalConfig.getYaml().setComment("verification.whitelisted-protocols",
       "List of protocol IDs which are not checked by Sonar (verification bypass)"
         + LINE_SEPARATOR + "You can find the full list of all protocol IDs here:"
@@ -557,6 +825,69 @@ public void load() {
     verification.blacklistedProtocols.addAll(generalConfig.getIntList("verification.blacklisted-protocols",
       new ArrayList<>(0)));
 
+    generalConfig.getYaml().setComment("overload",
+      "Sonar can stop verifying new players while the network threads of the server fall behind."
+        + LINE_SEPARATOR + "Players who have already been verified can still join");
+    generalConfig.getYaml().setComment("overload.enabled",
+      "Should Sonar shed new connections while the server is overloaded?");
+    overload.enabled = generalConfig.getBoolean("overload.enabled", true);
+
+    generalConfig.getYaml().setComment("overload.max-event-loop-lag",
+      "Maximum delay (in milliseconds) of the network threads before new connections are shed");
+    overload.maxEventLoopLag = clamp(generalConfig.getInt("overload.max-event-loop-lag", 250), 10, 10000);
+
+    generalConfig.getYaml().setComment("overload.max-pending-tasks",
+      "Maximum number of pending tasks (of all network threads) before new connections are shed");
+    overload.maxPendingTasks = clamp(generalConfig.getInt("overload.max-pending-tasks", 20000), 100, 10000000);
+
+    generalConfig.getYaml().setComment("overload.action",
+      "What should Sonar do with new connections while the server is overloaded?"
+        + LINE_SEPARATOR + "- DISCONNECT: Disconnect the player with the server-busy message"
+        + LINE_SEPARATOR + "- CLOSE: Close the connection without sending anything (cheapest)");
+    overload.action = Overload.Action.valueOf(generalConfig.getString("overload.action",
+      Overload.Action.DISCONNECT.name()).toUpperCase(Locale.ROOT));
+
+    generalConfig.getYaml().setComment("connection-limit",
+      "Sonar can limit new connections as soon as they are accepted (before any packet is read)."
+        + LINE_SEPARATOR + "Note: Server list pings are connections too, so don't set these limits too low");
+    generalConfig.getYaml().setComment("connection-limit.enabled",
+      "Should Sonar limit new connections?");
+    connectionLimit.enabled = generalConfig.getBoolean("connection-limit.enabled", true);
+
+    generalConfig.getYaml().setComment("connection-limit.connections-per-second",
+      "How many new connections (of all IP addresses together) are allowed per second?"
+        + LINE_SEPARATOR + "IP addresses of verified players are not counted towards this limit");
+    connectionLimit.connectionsPerSecond = clamp(generalConfig.getInt(
+      "connection-limit.connections-per-second", 1000), 1, 1000000);
+
+    generalConfig.getYaml().setComment("connection-limit.attack-connections-per-second",
+      "How many new connections (of all IP addresses together) are allowed per second during an attack?");
+    connectionLimit.attackConnectionsPerSecond = clamp(generalConfig.getInt(
+      "connection-limit.attack-connections-per-second", 250), 1, 1000000);
+
+    generalConfig.getYaml().setComment("connection-limit.per-ip-connections-per-second",
+      "How many new connections of a single IP address are allowed per second?");
+    connectionLimit.perIpConnectionsPerSecond = clamp(generalConfig.getInt(
+      "connection-limit.per-ip-connections-per-second", 10), 1, 1000);
+
+    generalConfig.getYaml().setComment("blacklist-export",
+      "Sonar can export all blacklisted IP addresses and subnets to the 'export' folder,"
+        + LINE_SEPARATOR + "so they can be dropped by the firewall (e.g. ipset or nftables) before reaching the server."
+        + LINE_SEPARATOR + "blacklist.ipset can be loaded using 'ipset restore -f', blacklist.nft using 'nft -f'"
+        + LINE_SEPARATOR + "and blacklist.txt contains one subnet (CIDR notation) per line."
+        + LINE_SEPARATOR + "blacklist.delta contains all changes (in ipset syntax) since the last full export");
+    generalConfig.getYaml().setComment("blacklist-export.enabled",
+      "Should Sonar export the blacklist?");
+    blacklistExport.enabled = generalConfig.getBoolean("blacklist-export.enabled", false);
+
+    generalConfig.getYaml().setComment("blacklist-export.interval",
+      "How often (in seconds) should the full export be written if the blacklist changed?");
+    blacklistExport.interval = clamp(generalConfig.getInt("blacklist-export.interval", 60), 5, 3600);
+
+    generalConfig.getYaml().setComment("blacklist-export.set-name",
+      "Name of the ipset/nftables sets ('-v4' and '-v6' are appended)");
+    blacklistExport.setName = generalConfig.getString("blacklist-export.set-name", "sonar-blacklist");
+
     generalConfig.getYaml().setComment("webhook",
       "Bot attack notifications can also be sent to your Discord server using webhooks");
     generalConfig.getYaml().setComment("webhook.url",
@@ -872,7 +1203,8 @@ public void load() {
         " <gray>▪ <green>Total free memory: <white>%free_memory%",
         " <gray>▪ <green>Total used memory: <white>%used_memory%",
         " <gray>▪ <green>Total maximum memory: <white>%max_memory%",
-        " <gray>▪ <green>Total allocated memory: <white>%total_memory%"
+        " <gray>▪ <green>Total allocated memory: <white>%total_memory%",
+        " <gray>▪ <green>Captcha storage: <white>%captcha_memory%"
       ))));
 
     messagesConfig.getYaml().setComment("commands.statistics.network",
@@ -949,6 +1281,16 @@ public void load() {
         "%footer%"
       ))));
 
+    messagesConfig.getYaml().setComment("verification.server-busy",
+      "Disconnect message that is shown when the server is too busy to verify new players");
+    overload.serverBusy = deserialize(fromList(messagesConfig.getStringList("verification.server-busy",
+      Arrays.asList(
+        "%header%",
+        "<gold>The server is currently too busy to verify new players.",
+        "<gray>Please wait a few seconds before trying to join again.",
+        "%footer%"
+      ))));
+
     messagesConfig.getYaml().setComment("verification.too-fast-reconnect",
       "Disconnect message that is shown when someone rejoins too fast during verification");
     verification.tooFastReconnect = deserialize(fromList(messagesConfig.getStringList("verification.too-fast-reconnect",
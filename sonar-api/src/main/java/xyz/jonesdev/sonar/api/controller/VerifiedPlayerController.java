@@ -19,7 +19,10 @@
 
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.DeleteBuilder;
 import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.stmt.SelectArg;
 import com.j256.ormlite.support.ConnectionSource;
 import com.j256.ormlite.table.TableUtils;
 import lombok.Getter;
@@ -30,30 +33,104 @@
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.dependencies.DependencyLoader;
 import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayerTombstone;
+import xyz.jonesdev.sonar.api.timer.SystemTimer;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 public final class VerifiedPlayerController {
-  private static final Map<String, Collection<UUID>> MAP = new ConcurrentHashMap<>();
-  private static final ExecutorService DB_UPDATE_SERVICE = Executors.newSingleThreadExecutor();
+  private static final VerifiedPlayerIndex INDEX = new VerifiedPlayerIndex();
+  private static final ScheduledExecutorService DB_UPDATE_SERVICE = Executors.newSingleThreadScheduledExecutor();
+  // Number of rows that are fetched at once while warming up the cache
+  private static final int WARM_UP_PAGE_SIZE = 10000;
+  // Interval (in minutes) in which outdated entries are removed
+  private static final long EXPIRY_INTERVAL = 10L;
+  // Time (in milliseconds) until rows with a lower id can no longer be committed after rows with a higher id;
+  // write statements time out after 60 seconds (socketTimeout)
+  private static final long SYNC_SETTLE_TIME = TimeUnit.MINUTES.toMillis(1L);
+  // Tombstones only have to be kept until every proxy has synced them
+  private static final long TOMBSTONE_MAXIMUM_AGE = TimeUnit.HOURS.toMillis(1L);
+  // Delay (in seconds) between connection attempts if the database is unreachable at startup
+  private static final long INITIALIZE_RETRY_DELAY = 5L;
+  // Database lookups of joining players that are not cached
+  private static final ExecutorService LOOKUP_SERVICE = new ThreadPoolExecutor(4, 4,
+    0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1024));
+  private static final CompletableFuture<Boolean> VERIFIED = CompletableFuture.completedFuture(true);
+  private static final CompletableFuture<Boolean> NOT_VERIFIED = CompletableFuture.completedFuture(false);
+  private static long savedModifications = -1L;
 
   private @Nullable ConnectionSource connectionSource;
   private Dao<VerifiedPlayer, Integer> dao;
-  private QueryBuilder<VerifiedPlayer, Integer> queryBuilder;
+  private Dao<VerifiedPlayerTombstone, Long> tombstoneDao;
+  private @Nullable VerifiedPlayerWriteBuffer writeBuffer;
+  // Changes that could not be written to the database
+  private @Nullable VerifiedPlayerSpool spool;
+  private @Nullable ScheduledFuture<?> flushTask;
+  // Changes made by other proxies that share the database
+  private @Nullable VerifiedPlayerDeltaPoller deltaPoller;
+  private @Nullable ScheduledFuture<?> syncTask;
+  private final ScheduledFuture<?> expiryTask;
+  private @Nullable ScheduledFuture<?> initializeTask;
+  private int initializeAttempts;
+  // Whether the tables have been created; nothing is written to the database before
+  private volatile boolean initialized;
+  private final int writeBatchSize;
+  // Maximum number of cached verified players (0 if all of them are cached)
+  private final int cacheSize;
+  private final int lookupTimeout;
+  private final int syncInterval;
+  // Filter of all verified players if not all of them are cached
+  private volatile @Nullable VerifiedPlayerFilter filter;
+  // Index or filter that is filled by the warm-up; changes made in the meantime are mirrored into it
+  private @Nullable VerifiedPlayerIndex warmUpIndex;
+  private @Nullable VerifiedPlayerFilter warmUpFilter;
+  // Migration from the old table, which is running before the warm-up
+  private volatile @Nullable VerifiedPlayerMigration migration;
+  private final List<byte[]> removedDuringWarmUp = new ArrayList<>();
+  private volatile boolean closed;
+  // Whether an eviction sweep has been queued and hasn't started yet
+  private final AtomicBoolean evictionPending = new AtomicBoolean();
+  // Storage of verified players if the database type is LOCAL
+  private @Nullable VerifiedPlayerLog localLog;
   @Getter
   private final @NotNull SonarConfiguration.Database.Type cachedDatabaseType;
 
   public VerifiedPlayerController() {
     // Cache selected database type, so we don't need to call Sonar.get() every time
     cachedDatabaseType = Sonar.get().getConfig().getDatabase().getType();
+    writeBatchSize = Sonar.get().getConfig().getDatabase().getWriteBatchSize();
+    // Only external databases can be queried for players that are not cached
+    cacheSize = cachedDatabaseType.getDependency() != null ? Sonar.get().getConfig().getDatabase().getCacheSize() : 0;
+    lookupTimeout = Sonar.get().getConfig().getDatabase().getLookupTimeout();
+    syncInterval = Sonar.get().getConfig().getDatabase().getSyncInterval();
+    // Continuously remove outdated entries, not only when the controller is created
+    expiryTask = DB_UPDATE_SERVICE.scheduleWithFixedDelay(this::expire,
+      EXPIRY_INTERVAL, EXPIRY_INTERVAL, TimeUnit.MINUTES);
 
     // Don't establish a database connection if the type is NONE
     if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
@@ -61,75 +138,508 @@ public VerifiedPlayerController() {
       return;
     }
 
-    try (final ConnectionSource connectionSource = DependencyLoader.setUpDriverAndConnect()) {
-      this.connectionSource = connectionSource;
+    // Keep verified players in local files instead of an external database
+    if (cachedDatabaseType == SonarConfiguration.Database.Type.LOCAL) {
+      openLocalStorage();
+      return;
+    }
 
-      // Create table
-      try {
-        TableUtils.createTableIfNotExists(connectionSource, VerifiedPlayer.class);
-      } catch (SQLException exception) {
-        // Duplicate index
-        // I know this isn't the best method of handling it,
-        // but I don't know how else I could address this issue.
-      }
+    // Make the verified players of the last snapshot available right away;
+    // the cache is still filled after a reload, so there is no need to load it again.
+    if (INDEX.size() == 0) {
+      loadSnapshot();
+    }
+    if (cacheSize > 0) {
+      INDEX.evict(cacheSize);
+    }
 
+    try {
+      // The connection has to stay open, since the DAO is used asynchronously.
+      // No connection is established yet, so an unreachable database doesn't stop the setup.
+      connectionSource = DependencyLoader.setUpDriverAndConnect();
       dao = DaoManager.createDao(connectionSource, VerifiedPlayer.class);
-      queryBuilder = dao.queryBuilder();
+      tombstoneDao = DaoManager.createDao(connectionSource, VerifiedPlayerTombstone.class);
 
-      // Make sure to clear all outdated entries first
-      clearOld(Sonar.get().getConfig().getDatabase().getMaximumAge());
-      // Add all entries from the database to the cache
-      dao.queryForAll().forEach(this::_add);
+      // Periodically write all pending changes to the database
+      spool = openSpool();
+      // Tombstones are only read by proxies that sync the database
+      writeBuffer = new VerifiedPlayerWriteBuffer(dao, syncInterval > 0 ? tombstoneDao : null, spool);
+      final long writeInterval = Sonar.get().getConfig().getDatabase().getWriteInterval();
+      flushTask = DB_UPDATE_SERVICE.scheduleWithFixedDelay(this::flush,
+        writeInterval, writeInterval, TimeUnit.MILLISECONDS);
+
+      DB_UPDATE_SERVICE.execute(this::initialize);
     } catch (Throwable throwable) {
       Sonar.get().getLogger().error("Error setting up database connection: {}", throwable);
       throwable.printStackTrace(System.err);
     }
   }
 
+  private static @Nullable VerifiedPlayerSpool openSpool() {
+    final int maximumSize = Sonar.get().getConfig().getDatabase().getMaxSpoolSize();
+    if (maximumSize == 0) return null;
+
+    try {
+      return new VerifiedPlayerSpool(new File(Sonar.get().getDataDirectory(), "verified-spool.log").toPath(),
+        maximumSize * 1024L * 1024L);
+    } catch (IOException exception) {
+      Sonar.get().getLogger().error("Error opening the database spool: {}", exception);
+      return null;
+    }
+  }
+
   /**
-   * First, remove the player from the local cache and then,
-   * secondly, asynchronously add the player to the database.
-   *
-   * @param inetAddress InetAddress of the VerifiedPlayer model
+   * Reconciles the cache with the database in the background
    */
-  public void remove(final @NotNull String inetAddress) {
-    _remove(inetAddress);
+  private void startWarmUp() {
+    if (closed) return;
+    // Wait until all spooled changes have been written, so the warm-up doesn't remove these players
+    if (spool != null && !spool.isEmpty()) {
+      DB_UPDATE_SERVICE.schedule(this::startWarmUp, INITIALIZE_RETRY_DELAY, TimeUnit.SECONDS);
+      return;
+    }
+    if (cacheSize > 0) {
+      DB_UPDATE_SERVICE.execute(this::buildFilter);
+    } else {
+      synchronized (this) {
+        warmUpIndex = new VerifiedPlayerIndex();
+      }
+      DB_UPDATE_SERVICE.execute(this::warmUp);
+    }
+  }
 
-    // Don't try to update the column if the database type is NONE
-    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
+  private void startSync() {
+    if (syncInterval == 0 || connectionSource == null || deltaPoller != null) return;
+
+    try {
+      final VerifiedPlayerDeltaPoller poller = new VerifiedPlayerDeltaPoller(connectionSource,
+        System::currentTimeMillis, SYNC_SETTLE_TIME, new VerifiedPlayerDeltaPoller.Listener() {
+        @Override
+        public void added(final @NotNull VerifiedPlayer player) {
+          _add(player);
+        }
+
+        @Override
+        public void removed(final byte @NotNull [] address) {
+          _remove(address);
+        }
+
+        @Override
+        public void cleared() {
+          _clear();
+        }
+      });
+      poller.start();
+      deltaPoller = poller;
+      syncTask = DB_UPDATE_SERVICE.scheduleWithFixedDelay(this::sync,
+        syncInterval, syncInterval, TimeUnit.SECONDS);
+    } catch (SQLException exception) {
+      Sonar.get().getLogger().error("Error trying to sync verified players: {}", exception);
+    }
+  }
+
+  /**
+   * Applies the players that have been verified or removed by other proxies to the cache
+   */
+  private void sync() {
+    final VerifiedPlayerDeltaPoller poller = deltaPoller;
+    if (poller == null || closed) return;
+
+    try {
+      poller.poll();
+    } catch (SQLException exception) {
+      Sonar.get().getLogger().warn("Could not fetch changes of other proxies: {}", exception.getMessage());
+    }
+  }
+
+  /**
+   * Copies one page of the old table and then queues the next one,
+   * so pending writes and other tasks don't have to wait for the whole migration
+   */
+  private void migrate() {
+    final VerifiedPlayerMigration migration = this.migration;
+    if (migration == null || closed) return;
+
+    try {
+      if (!migration.migratePage()) {
+        DB_UPDATE_SERVICE.execute(this::migrate);
+        return;
+      }
+      Sonar.get().getLogger().info("Migrated {} verified players to the new database table.",
+        Sonar.DECIMAL_FORMAT.format(migration.getMigrated()));
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Error trying to migrate verified players: {}", exception);
+    }
+    this.migration = null;
+    startWarmUp();
+  }
+
+  private void openLocalStorage() {
+    final SystemTimer timer = new SystemTimer();
+    final VerifiedPlayerLog log = new VerifiedPlayerLog(Sonar.get().getDataDirectory());
+    try {
+      log.open(INDEX);
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Error opening local storage of verified players: {}", exception);
+      try {
+        log.close();
+      } catch (IOException ignored) {
+      }
       return;
     }
+    localLog = log;
+    Sonar.get().getLogger().info("Loaded {} verified players from local storage in {}s",
+      Sonar.DECIMAL_FORMAT.format(INDEX.size()), timer);
+    // Remove entries that have expired while the server was offline
+    DB_UPDATE_SERVICE.execute(this::expire);
+
+    // Periodically write the log to the disk and compact it
+    final long writeInterval = Sonar.get().getConfig().getDatabase().getWriteInterval();
+    flushTask = DB_UPDATE_SERVICE.scheduleWithFixedDelay(this::flush,
+      writeInterval, writeInterval, TimeUnit.MILLISECONDS);
+  }
 
+  /**
+   * Appends a record to the local log on the database thread, so I/O never blocks the caller
+   */
+  private void appendToLog(final byte type, final byte @Nullable [] address,
+                           final @Nullable UUID uuid, final long timestamp) {
+    final VerifiedPlayerLog log = localLog;
+    if (log == null) return;
     DB_UPDATE_SERVICE.execute(() -> {
-      // We cannot throw a NullPointerException within the executor service
-      // because we want to handle the error instead of simply throwing an exception
-      if (connectionSource == null) {
+      try {
+        log.append(type, address,
+          uuid == null ? 0L : uuid.getMostSignificantBits(),
+          uuid == null ? 0L : uuid.getLeastSignificantBits(), timestamp);
+      } catch (IOException exception) {
+        Sonar.get().getLogger().error("Error trying to write to local storage: {}", exception);
+      }
+    });
+  }
+
+  /**
+   * Creates the tables and reconciles the cache with the database once the database is reachable.
+   * While the database is unreachable, this is retried in the background.
+   */
+  private void initialize() {
+    if (closed || connectionSource == null) return;
+
+    try {
+      // Fails right away if the database is (still) unreachable
+      connectionSource.releaseConnection(connectionSource.getReadWriteConnection(dao.getTableName()));
+      createTable(VerifiedPlayer.class);
+      createTable(VerifiedPlayerTombstone.class);
+      initialized = true;
+      // Changes that have been spooled during an outage have to be written before the cache is
+      // reconciled with the database; otherwise, the warm-up would remove these players from the cache.
+      writeBuffer.flush();
+
+      // Make sure to clear all outdated entries first
+      clearOld(Sonar.get().getConfig().getDatabase().getMaximumAge());
+      // The changes of other proxies are tracked from now on, so none are missed during the warm-up
+      startSync();
+      // Copy the players of the old table before the cache is reconciled with the database
+      if (VerifiedPlayerMigration.isRequired(connectionSource)) {
+        migration = new VerifiedPlayerMigration(dao);
+        Sonar.get().getLogger().info("Migrating verified players to the new database table...");
+        DB_UPDATE_SERVICE.execute(this::migrate);
+      } else {
+        startWarmUp();
+      }
+    } catch (SQLException exception) {
+      if (!VerifiedPlayerWriteBuffer.isConnectionFailure(exception)) {
+        Sonar.get().getLogger().error("Error setting up the database: {}", exception);
         return;
       }
+      // Only log the first failure, since the connection is retried quite often
+      if (initializeAttempts++ == 0) {
+        Sonar.get().getLogger().warn("Could not connect to the database; retrying in the background: {}",
+          exception.getMessage());
+      }
+      initializeTask = DB_UPDATE_SERVICE.schedule(this::initialize, INITIALIZE_RETRY_DELAY, TimeUnit.SECONDS);
+      return;
+    }
+    if (initializeAttempts > 0) {
+      Sonar.get().getLogger().info("Connected to the database.");
+    }
+  }
 
-      try {
-        final List<VerifiedPlayer> verifiedPlayer = queryBuilder.where()
-          .eq("ip_address", inetAddress)
-          .query();
+  private void createTable(final @NotNull Class<?> table) throws SQLException {
+    try {
+      TableUtils.createTableIfNotExists(connectionSource, table);
+    } catch (SQLException exception) {
+      if (VerifiedPlayerWriteBuffer.isConnectionFailure(exception)) {
+        throw exception;
+      }
+      // Duplicate index
+      // I know this isn't the best method of handling it,
+      // but I don't know how else I could address this issue.
+    }
+  }
 
-        if (verifiedPlayer != null) {
-          for (final VerifiedPlayer player : verifiedPlayer) {
-            dao.delete(player);
+  /**
+   * Streams all entries of the database page by page into a new index
+   * and then replaces the cache with it, so entries that have been removed
+   * from the database in the meantime are also removed from the cache.
+   */
+  private void warmUp() {
+    final VerifiedPlayerIndex loaded;
+    synchronized (this) {
+      loaded = warmUpIndex;
+    }
+    if (loaded == null || closed) return;
+
+    final SystemTimer timer = new SystemTimer();
+    try {
+      forEachRow(player -> loaded.add(player.getAddress(), player.getPlayerUUID(), player.getTimestamp().getTime()));
+
+      synchronized (this) {
+        // The cache has been cleared or the controller has been replaced in the meantime
+        if (warmUpIndex != loaded || closed) return;
+        // Changes have been spooled in the meantime, so the database is missing these players
+        if (spool != null && !spool.isEmpty()) {
+          DB_UPDATE_SERVICE.execute(this::startWarmUp);
+          return;
+        }
+        // The database might still have contained entries that have been removed during the warm-up
+        for (final byte[] address : removedDuringWarmUp) {
+          loaded.remove(address);
+          // These entries have been verified again during the warm-up
+          final long now = System.currentTimeMillis();
+          for (final UUID uuid : INDEX.getUUIDs(address)) {
+            loaded.add(address, uuid, now);
           }
         }
-      } catch (SQLException exception) {
-        Sonar.get().getLogger().error("Error trying to remove entry: {}", exception);
+        INDEX.replaceWith(loaded);
       }
-    });
+      Sonar.get().getLogger().info("Loaded {} verified players from the database in {}s",
+        Sonar.DECIMAL_FORMAT.format(INDEX.size()), timer);
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Error trying to load verified players: {}", exception);
+    } finally {
+      synchronized (this) {
+        if (warmUpIndex == loaded) {
+          warmUpIndex = null;
+        }
+        removedDuringWarmUp.clear();
+      }
+    }
+  }
+
+  /**
+   * Streams all entries of the database into a new filter, so only players
+   * that might be verified have to be looked up in the database when they join.
+   */
+  private void buildFilter() {
+    if (closed) return;
+
+    final SystemTimer timer = new SystemTimer();
+    VerifiedPlayerFilter built = null;
+    try {
+      // Leave some room for players that are verified later on
+      final long count = dao.countOf();
+      built = new VerifiedPlayerFilter(count + (count >> 1));
+      synchronized (this) {
+        warmUpFilter = built;
+      }
+
+      final VerifiedPlayerFilter target = built;
+      forEachRow(player -> addToFilter(target, player.getAddress(), player.getPlayerUUID()));
+
+      synchronized (this) {
+        // The cache has been cleared or the controller has been replaced in the meantime
+        if (warmUpFilter != built || closed) return;
+        // Changes have been spooled in the meantime, so the database is missing these players
+        if (spool != null && !spool.isEmpty()) {
+          DB_UPDATE_SERVICE.execute(this::startWarmUp);
+          return;
+        }
+        filter = built;
+      }
+      Sonar.get().getLogger().info("Indexed {} verified players from the database in {}s",
+        Sonar.DECIMAL_FORMAT.format(built.size()), timer);
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Error trying to index verified players: {}", exception);
+    } finally {
+      synchronized (this) {
+        if (warmUpFilter == built) {
+          warmUpFilter = null;
+        }
+      }
+    }
   }
 
   /**
-   * Locally remove the object from the cache
+   * Streams all entries of the database page by page
+   */
+  private void forEachRow(final @NotNull Consumer<VerifiedPlayer> consumer) throws SQLException {
+    long lastId = 0L;
+    int rows;
+    do {
+      // Keyset pagination, so every page is an index range scan
+      final QueryBuilder<VerifiedPlayer, Integer> page = dao.queryBuilder()
+        .selectColumns("id", "ip_address", "player_uuid", "timestamp")
+        .orderBy("id", true)
+        .limit((long) WARM_UP_PAGE_SIZE);
+      page.where().gt("id", lastId);
+      final List<VerifiedPlayer> players = page.query();
+      for (final VerifiedPlayer player : players) {
+        consumer.accept(player);
+      }
+      rows = players.size();
+      if (rows > 0) {
+        lastId = players.get(rows - 1).getId();
+      }
+    } while (rows == WARM_UP_PAGE_SIZE && !closed);
+  }
+
+  private static @NotNull File getSnapshotFile() {
+    return new File(Sonar.get().getDataDirectory(), "verified.dat");
+  }
+
+  private static void loadSnapshot() {
+    final SystemTimer timer = new SystemTimer();
+    try {
+      if (INDEX.load(getSnapshotFile().toPath())) {
+        savedModifications = INDEX.getModifications();
+        Sonar.get().getLogger().info("Loaded {} verified players from the snapshot in {}s",
+          Sonar.DECIMAL_FORMAT.format(INDEX.size()), timer);
+      }
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Could not load verified players snapshot: {}", exception);
+    }
+  }
+
+  /**
+   * Writes the cache to a local snapshot, so it can be used right away after a restart
+   */
+  public void saveSnapshot() {
+    // Without a database, there is nothing to reconcile the snapshot with;
+    // local storage has its own snapshot.
+    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE
+      || cachedDatabaseType == SonarConfiguration.Database.Type.LOCAL) return;
+
+    synchronized (VerifiedPlayerController.class) {
+      // Don't write the snapshot again if nothing has changed
+      final long modifications = INDEX.getModifications();
+      if (modifications == savedModifications) return;
+
+      try {
+        INDEX.save(getSnapshotFile().toPath());
+        savedModifications = modifications;
+      } catch (Exception exception) {
+        Sonar.get().getLogger().error("Could not save verified players snapshot: {}", exception);
+      }
+    }
+  }
+
+  /**
+   * Parses a textual IP address, e.g. of the old table (/127.0.0.1)
    *
-   * @param inetAddress IP address of the player
+   * @param inetAddress IP address as returned by {@link InetAddress#toString()}
+   * @return Raw address bytes or null if the IP address is invalid
    */
-  private void _remove(final @NotNull String inetAddress) {
-    MAP.remove(inetAddress);
+  static byte @Nullable [] toAddress(final @NotNull String inetAddress) {
+    // Only parse the literal IP address, so we never perform a DNS lookup
+    final String literal = inetAddress.substring(inetAddress.lastIndexOf('/') + 1);
+    if (literal.indexOf(':') == -1) {
+      return toIpv4Address(literal);
+    }
+    for (int i = 0; i < literal.length(); i++) {
+      final char c = literal.charAt(i);
+      if (c != '.' && c != ':' && Character.digit(c, 16) < 0) {
+        return null;
+      }
+    }
+    try {
+      // Strings that contain a colon are always parsed as IPv6 literal and never looked up
+      return InetAddress.getByName(literal).getAddress();
+    } catch (UnknownHostException exception) {
+      return null;
+    }
+  }
+
+  // InetAddress#getByName looks up everything it can't parse as IPv4 literal (e.g. "cafe" or "1.2.3.256")
+  private static byte @Nullable [] toIpv4Address(final @NotNull String literal) {
+    final byte[] address = new byte[4];
+    int octet = 0, value = 0, digits = 0;
+    for (int i = 0; i <= literal.length(); i++) {
+      final char c = i == literal.length() ? '.' : literal.charAt(i);
+      if (c == '.') {
+        if (digits == 0 || octet == 4) {
+          return null;
+        }
+        address[octet++] = (byte) value;
+        value = 0;
+        digits = 0;
+      } else if (c >= '0' && c <= '9' && digits < 3) {
+        value = value * 10 + (c - '0');
+        digits++;
+        if (value > 255) {
+          return null;
+        }
+      } else {
+        return null;
+      }
+    }
+    return octet == 4 ? address : null;
+  }
+
+  /**
+   * First, remove the player from the local cache and then,
+   * secondly, asynchronously add the player to the database.
+   *
+   * @param inetAddress InetAddress of the VerifiedPlayer model
+   */
+  public void remove(final @NotNull InetAddress inetAddress) {
+    remove(inetAddress.getAddress(), inetAddress);
+  }
+
+  /**
+   * @see #remove(InetAddress)
+   */
+  public void remove(final @NotNull String inetAddress) {
+    final byte[] address = toAddress(inetAddress);
+    if (address != null) {
+      try {
+        remove(address, InetAddress.getByAddress(address));
+      } catch (UnknownHostException exception) {
+        throw new IllegalStateException(exception);
+      }
+    }
+  }
+
+  private void remove(final byte @NotNull [] address, final @NotNull InetAddress inetAddress) {
+    if (closed) {
+      final VerifiedPlayerController successor = getSuccessor();
+      if (successor != null) {
+        successor.remove(address, inetAddress);
+      }
+      return;
+    }
+
+    _remove(address);
+
+    if (localLog != null) {
+      appendToLog(VerifiedPlayerLog.REMOVE, address, null, System.currentTimeMillis());
+      return;
+    }
+
+    // Don't try to update the column if the database type is NONE
+    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
+      return;
+    }
+
+    // Don't copy the entries of the old table anymore
+    final VerifiedPlayerMigration migration = this.migration;
+    if (migration != null) {
+      migration.remove(inetAddress);
+    }
+
+    // The write buffer is null if the database connection could not be established
+    if (writeBuffer != null && writeBuffer.remove(inetAddress) == writeBatchSize) {
+      DB_UPDATE_SERVICE.execute(this::flush);
+    }
   }
 
   /**
@@ -139,52 +649,266 @@ private void _remove(final @NotNull String inetAddress) {
    * @param player VerifiedPlayer model
    */
   public void add(final @NotNull VerifiedPlayer player) {
-    _add(player);
+    if (closed) {
+      final VerifiedPlayerController successor = getSuccessor();
+      if (successor != null) {
+        successor.add(player);
+      }
+      return;
+    }
+
+    final byte[] address = _add(player);
+
+    if (localLog != null) {
+      appendToLog(VerifiedPlayerLog.ADD, address, player.getPlayerUUID(), player.getTimestamp().getTime());
+      return;
+    }
 
     // Don't try to update the column if the database type is NONE
     if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE) {
       return;
     }
 
-    DB_UPDATE_SERVICE.execute(() -> {
-      // We cannot throw a NullPointerException within the executor service
-      // because we want to handle the error instead of simply throwing an exception
-      if (connectionSource == null) {
-        return;
+    // Write the batch right away once it is full instead of waiting for the next interval
+    if (writeBuffer != null && writeBuffer.add(player) == writeBatchSize) {
+      DB_UPDATE_SERVICE.execute(this::flush);
+    }
+  }
+
+  /**
+   * Changes can still reach this controller after it has been shut down (e.g. during a reload),
+   * but they would never be written, so they are passed on to the controller that replaced it.
+   *
+   * @return The controller that replaced this one, or null if there is none (yet)
+   */
+  private @Nullable VerifiedPlayerController getSuccessor() {
+    final VerifiedPlayerController current = Sonar.get().getVerifiedPlayerController();
+    if (current != null && current != this) {
+      return current;
+    }
+    Sonar.get().getLogger().warn("Discarded a change of the verified players since the database has been closed.");
+    return null;
+  }
+
+  /**
+   * Writes all pending changes to the database
+   */
+  private void flush() {
+    if (writeBuffer != null) {
+      if (initialized) {
+        writeBuffer.flush();
+      } else {
+        writeBuffer.spoolPending();
+      }
+    }
+    if (localLog != null) {
+      try {
+        localLog.sync();
+        if (localLog.shouldCompact(INDEX)) {
+          localLog.compact(INDEX);
+        }
+      } catch (IOException exception) {
+        Sonar.get().getLogger().error("Error trying to write local storage: {}", exception);
       }
+    }
+  }
 
+  /**
+   * Stops the periodic writes and synchronously writes all pending changes to the database.
+   * This is called before the controller is replaced (reload) and when the server shuts down.
+   */
+  public void shutdown() {
+    closed = true;
+    expiryTask.cancel(false);
+    if (flushTask != null) {
+      flushTask.cancel(false);
+    }
+    if (syncTask != null) {
+      syncTask.cancel(false);
+    }
+    if (initializeTask != null) {
+      initializeTask.cancel(false);
+    }
+    if (writeBuffer != null) {
+      if (initialized) {
+        writeBuffer.flush();
+      } else {
+        writeBuffer.spoolPending();
+      }
+    }
+    // Changes that could not be written are kept in the spool until the next start
+    if (spool != null) {
       try {
-        dao.create(player);
-      } catch (SQLException exception) {
-        Sonar.get().getLogger().error("Error trying to add entry: {}", exception);
+        spool.close();
+      } catch (IOException exception) {
+        Sonar.get().getLogger().error("Error closing the database spool: {}", exception);
       }
-    });
+    }
+    if (localLog != null) {
+      final VerifiedPlayerLog log = localLog;
+      try {
+        // Wait until all queued records have been written
+        DB_UPDATE_SERVICE.submit(() -> {
+          log.close();
+          return null;
+        }).get(30L, TimeUnit.SECONDS);
+      } catch (Exception exception) {
+        Sonar.get().getLogger().error("Error closing local storage: {}", exception);
+      }
+    }
+    if (connectionSource != null) {
+      try {
+        connectionSource.close();
+      } catch (Exception exception) {
+        Sonar.get().getLogger().error("Error closing database connection: {}", exception);
+      }
+    }
   }
 
   /**
    * Locally cache the object
    *
    * @param player VerifiedPlayer model
+   * @return Raw address bytes of the player
+   */
+  private byte @NotNull [] _add(final @NotNull VerifiedPlayer player) {
+    final byte[] address = player.getAddress();
+    final UUID uuid = player.getPlayerUUID();
+    final long timestamp = player.getTimestamp().getTime();
+    INDEX.add(address, uuid, timestamp);
+    synchronized (this) {
+      if (warmUpIndex != null) {
+        warmUpIndex.add(address, uuid, timestamp);
+      }
+      if (warmUpFilter != null) {
+        addToFilter(warmUpFilter, address, uuid);
+      }
+    }
+    final VerifiedPlayerFilter filter = this.filter;
+    if (filter != null) {
+      addToFilter(filter, address, uuid);
+    }
+    // Evict in batches, so the eviction doesn't have to run for every new player.
+    // A sweep can visit the entire index, so it must not run on the event loop of the connection.
+    if (cacheSize > 0 && INDEX.size() > cacheSize + (cacheSize >> 4) && evictionPending.compareAndSet(false, true)) {
+      DB_UPDATE_SERVICE.execute(this::evict);
+    }
+    return address;
+  }
+
+  private void evict() {
+    // Allow queueing the next sweep while this one is running
+    evictionPending.set(false);
+    INDEX.evict(cacheSize);
+  }
+
+  /**
+   * Locally remove the IP address from the cache
+   *
+   * @param address Raw address bytes
+   */
+  private void _remove(final byte @NotNull [] address) {
+    INDEX.remove(address);
+    synchronized (this) {
+      if (warmUpIndex != null) {
+        warmUpIndex.remove(address);
+        removedDuringWarmUp.add(address);
+      }
+    }
+  }
+
+  /**
+   * Locally clear the cache
+   */
+  private void _clear() {
+    INDEX.clear();
+    synchronized (this) {
+      // Cancel the warm-up, since all entries are deleted anyway
+      warmUpIndex = null;
+      warmUpFilter = null;
+      if (filter != null) {
+        filter = new VerifiedPlayerFilter(cacheSize);
+      }
+    }
+  }
+
+  private static void addToFilter(final @NotNull VerifiedPlayerFilter filter,
+                                  final byte @NotNull [] address, final @NotNull UUID uuid) {
+    filter.add(VerifiedPlayerIndex.upper(address), VerifiedPlayerIndex.lower(address),
+      uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * @return Number of verified players (which might not all be cached)
+   */
+  public int estimatedSize() {
+    final VerifiedPlayerFilter filter = this.filter;
+    return filter == null ? INDEX.size() : Math.max(filter.size(), INDEX.size());
+  }
+
+  /**
+   * @return Number of bytes used by the local cache
    */
-  private void _add(final @NotNull VerifiedPlayer player) {
-    MAP.computeIfAbsent(player.getInetAddress(), v -> new Vector<>())
-      .add(player.getPlayerUUID());
+  public long getMemoryUsage() {
+    final VerifiedPlayerFilter filter = this.filter;
+    return INDEX.getMemoryUsage() + (filter == null ? 0L : filter.getMemoryUsage());
   }
 
   /**
-   * @return Estimated size of the local cache
+   * @return List of cached UUIDs associated with one IP address
+   * @see #queryUUIDs(InetAddress)
    */
-  public synchronized int estimatedSize() {
-    return MAP.values().stream()
-      .mapToInt(Collection::size)
-      .sum();
+  public Collection<UUID> getUUIDs(final @NotNull InetAddress inetAddress) {
+    return INDEX.getUUIDs(inetAddress.getAddress());
   }
 
   /**
-   * @return List of UUIDs associated with one IP address
+   * @see #getUUIDs(InetAddress)
    */
   public Collection<UUID> getUUIDs(final @NotNull String inetAddress) {
-    return MAP.getOrDefault(inetAddress, Collections.emptyList());
+    final byte[] address = toAddress(inetAddress);
+    return address == null ? Collections.emptyList() : INDEX.getUUIDs(address);
+  }
+
+  /**
+   * Looks up all UUIDs associated with one IP address. If not all verified players are cached,
+   * the database is queried as well, since the IP address might not be cached.
+   *
+   * @param inetAddress IP address
+   * @return Future that is completed with the UUIDs associated with the IP address
+   */
+  public @NotNull CompletableFuture<Collection<UUID>> queryUUIDs(final @NotNull InetAddress inetAddress) {
+    final Collection<UUID> cached = getUUIDs(inetAddress);
+    if (cacheSize == 0 || !initialized) {
+      return CompletableFuture.completedFuture(cached);
+    }
+
+    final CompletableFuture<Collection<UUID>> result = new CompletableFuture<>();
+    try {
+      LOOKUP_SERVICE.execute(() -> {
+        // The rows of this IP address are about to be deleted, so only the cached players are left
+        final VerifiedPlayerWriteBuffer writeBuffer = this.writeBuffer;
+        if (writeBuffer != null && writeBuffer.isRemoved(inetAddress)) {
+          result.complete(cached);
+          return;
+        }
+        try {
+          final Set<UUID> uuids = new LinkedHashSet<>(cached);
+          for (final VerifiedPlayer player : dao.queryBuilder().where()
+            .eq("ip_address", VerifiedPlayerWriteBuffer.toArgument(inetAddress)).query()) {
+            uuids.add(player.getPlayerUUID());
+          }
+          result.complete(uuids);
+        } catch (SQLException exception) {
+          Sonar.get().getLogger().error("Error trying to look up verified player: {}", exception);
+          result.complete(cached);
+        }
+      });
+    } catch (RejectedExecutionException exception) {
+      // Too many lookups are pending, which usually happens during an attack
+      result.complete(cached);
+    }
+    return result;
   }
 
   /**
@@ -192,20 +916,71 @@ public Collection<UUID> getUUIDs(final @NotNull String inetAddress) {
    * remove the table from the database.
    */
   public void clearAll() {
-    try {
-      MAP.clear();
+    if (closed) {
+      final VerifiedPlayerController successor = getSuccessor();
+      if (successor != null) {
+        successor.clearAll();
+      }
+      return;
+    }
+
+    _clear();
 
-      // Only update the column if the database type is not NONE
-      if (cachedDatabaseType != SonarConfiguration.Database.Type.NONE) {
+    if (localLog != null) {
+      appendToLog(VerifiedPlayerLog.CLEAR, null, null, System.currentTimeMillis());
+      return;
+    }
+
+    // Only update the column if the database type is not NONE
+    if (cachedDatabaseType == SonarConfiguration.Database.Type.NONE || writeBuffer == null) {
+      return;
+    }
+    // Pending changes would be overwritten anyway
+    writeBuffer.clear();
+    final VerifiedPlayerMigration migration = this.migration;
+    if (migration != null) {
+      migration.clear();
+    }
+    // Batches and migration pages that are already being written run on the database thread as well,
+    // so the rows are only deleted once they have been committed
+    DB_UPDATE_SERVICE.execute(() -> {
+      try {
         dao.deleteBuilder().delete();
+        // Let other proxies know that they have to clear their cache as well
+        if (syncInterval > 0) {
+          tombstoneDao.create(new VerifiedPlayerTombstone(VerifiedPlayerTombstone.ALL, System.currentTimeMillis()));
+        }
+      } catch (SQLException exception) {
+        Sonar.get().getLogger().error("Error trying to clear entries: {}", exception);
       }
-    } catch (SQLException exception) {
-      Sonar.get().getLogger().error("Error trying to clear entries: {}", exception);
+    });
+  }
+
+  /**
+   * Removes all entries older than the configured maximum age from the local cache
+   * and from the database or local storage.
+   */
+  private void expire() {
+    final int maximumAge = Sonar.get().getConfig().getDatabase().getMaximumAge();
+    final long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maximumAge);
+    final int expired = INDEX.expire(cutoff);
+    if (expired > 0) {
+      Sonar.get().getLogger().info("Removed {} cached verified players older than {} days.",
+        Sonar.DECIMAL_FORMAT.format(expired), maximumAge);
+    }
+
+    if (localLog != null) {
+      if (expired > 0) {
+        appendToLog(VerifiedPlayerLog.EXPIRE, null, null, cutoff);
+      }
+      return;
     }
+    clearOld(maximumAge);
   }
 
   /**
    * Clear all old entries using the given timestamp.
+   * All entries are deleted using a single statement, which uses the index on the timestamp.
    */
   public void clearOld(final @Range(from = 1, to = 365) int maximumAge) {
     // Don't try to update the column if the database type is NONE
@@ -216,7 +991,7 @@ public void clearOld(final @Range(from = 1, to = 365) int maximumAge) {
     DB_UPDATE_SERVICE.execute(() -> {
       // We cannot throw a NullPointerException within the executor service
       // because we want to handle the error instead of simply throwing an exception
-      if (connectionSource == null) {
+      if (connectionSource == null || !initialized) {
         return;
       }
 
@@ -225,34 +1000,95 @@ public void clearOld(final @Range(from = 1, to = 365) int maximumAge) {
           .minus(maximumAge, ChronoUnit.DAYS)
           .getEpochSecond() * 1000L; // convert to ms
 
-        final List<VerifiedPlayer> oldEntries = queryBuilder.where()
-          .lt("timestamp", new Timestamp(timestamp))
-          .query();
+        final DeleteBuilder<VerifiedPlayer, Integer> deleteBuilder = dao.deleteBuilder();
+        deleteBuilder.where().lt("timestamp", new Timestamp(timestamp));
+        final int deleted = deleteBuilder.delete();
 
-        if (oldEntries != null) {
-          for (final VerifiedPlayer player : oldEntries) {
-            dao.delete(player);
-          }
+        if (deleted > 0) {
           Sonar.get().getLogger().info("Removed {} database entries older than {} days.",
-            oldEntries.size(), maximumAge);
+            deleted, maximumAge);
         }
+
+        final DeleteBuilder<VerifiedPlayerTombstone, Long> tombstones = tombstoneDao.deleteBuilder();
+        tombstones.where().lt("timestamp", new Timestamp(System.currentTimeMillis() - TOMBSTONE_MAXIMUM_AGE));
+        tombstones.delete();
       } catch (SQLException exception) {
         Sonar.get().getLogger().error("Error trying to clear old entries: {}", exception);
       }
     });
   }
 
+  /**
+   * Checks whether the player is verified. If not all verified players are cached,
+   * players that are not cached but might be verified are looked up in the database.
+   * The future is completed with false if the lookup takes longer than the configured timeout.
+   *
+   * @param inetAddress IP address
+   * @param uuid        UUID associated to the IP
+   * @param scheduler   Executor that runs the timeout (e.g. the event loop of the connection)
+   * @return Future that is completed with whether the player is verified
+   */
+  public @NotNull CompletableFuture<Boolean> isVerified(final @NotNull InetAddress inetAddress,
+                                                       final @NotNull UUID uuid,
+                                                       final @NotNull ScheduledExecutorService scheduler) {
+    if (INDEX.has(inetAddress, uuid)) {
+      return VERIFIED;
+    }
+    if (cacheSize == 0 || !initialized) {
+      return NOT_VERIFIED;
+    }
+    // The filter is not available while it is being built, so every player has to be looked up
+    final VerifiedPlayerFilter filter = this.filter;
+    final byte[] address = inetAddress.getAddress();
+    if (filter != null && !filter.mightContain(VerifiedPlayerIndex.upper(address), VerifiedPlayerIndex.lower(address),
+      uuid.getMostSignificantBits(), uuid.getLeastSignificantBits())) {
+      return NOT_VERIFIED;
+    }
+
+    final CompletableFuture<Boolean> result = new CompletableFuture<>();
+    try {
+      LOOKUP_SERVICE.execute(() -> {
+        // Don't query the database if the lookup has already timed out
+        if (result.isDone()) return;
+        try {
+          result.complete(lookup(inetAddress, uuid));
+        } catch (Exception exception) {
+          Sonar.get().getLogger().error("Error trying to look up verified player: {}", exception);
+          result.complete(false);
+        }
+      });
+    } catch (RejectedExecutionException exception) {
+      // Too many lookups are pending, which usually happens during an attack
+      return NOT_VERIFIED;
+    }
+    final ScheduledFuture<?> timeout = scheduler.schedule(() -> result.complete(false),
+      lookupTimeout, TimeUnit.MILLISECONDS);
+    result.whenComplete((verified, throwable) -> timeout.cancel(false));
+    return result;
+  }
+
+  private boolean lookup(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid) throws SQLException {
+    // Uses the unique index on the IP address and UUID
+    final VerifiedPlayer player = dao.queryBuilder().where()
+      .eq("ip_address", VerifiedPlayerWriteBuffer.toArgument(inetAddress))
+      .and().eq("player_uuid", new SelectArg(SqlType.BYTE_ARRAY, VerifiedPlayer.toBytes(uuid)))
+      .queryForFirst();
+    if (player == null) {
+      return false;
+    }
+    // Cache the player, so the database doesn't have to be queried again
+    _add(player);
+    return true;
+  }
+
   /**
    * @param inetAddress IP address
    * @param uuid        UUID associated to the IP
    * @return Whether the local cache contains the IP and UUID
    */
   public boolean has(final @NotNull String inetAddress, final @NotNull UUID uuid) {
-    final Collection<UUID> got = MAP.get(inetAddress);
-    if (got != null) {
-      return got.contains(uuid);
-    }
-    return false;
+    final byte[] address = toAddress(inetAddress);
+    return address != null && INDEX.has(address, uuid);
   }
 
   /**
@@ -262,7 +1098,7 @@ public boolean has(final @NotNull String inetAddress, final @NotNull UUID uuid)
    * @see #has(String, UUID)
    */
   public boolean has(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid) {
-    return has(inetAddress.toString(), uuid);
+    return INDEX.has(inetAddress, uuid);
   }
 
   /**
@@ -270,7 +1106,8 @@ public boolean has(final @NotNull InetAddress inetAddress, final @NotNull UUID u
    * @return Whether the local cache contains the IP
    */
   public boolean has(final @NotNull String inetAddress) {
-    return MAP.containsKey(inetAddress);
+    final byte[] address = toAddress(inetAddress);
+    return address != null && INDEX.has(address);
   }
 
   /**
@@ -279,6 +1116,6 @@ public boolean has(final @NotNull String inetAddress) {
    * @see #has(String)
    */
   public boolean has(final @NotNull InetAddress inetAddress) {
-    return has(inetAddress.toString());
+    return INDEX.has(inetAddress);
   }
 }
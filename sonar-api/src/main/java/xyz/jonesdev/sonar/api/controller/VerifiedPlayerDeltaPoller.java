@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.stmt.QueryBuilder;
+import com.j256.ormlite.support.ConnectionSource;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayerTombstone;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Pulls the changes other proxies have made to the shared database, so the cache
+ * doesn't have to be reloaded to see players that have been verified on another proxy.
+ * New players are read by their id, since rows are inserted (and never updated) with an increasing id;
+ * removed players are read from the tombstone table.
+ */
+final class VerifiedPlayerDeltaPoller {
+  // Number of rows that are fetched at once
+  private static final int PAGE_SIZE = 1000;
+
+  interface Listener {
+    void added(@NotNull VerifiedPlayer player);
+
+    void removed(byte @NotNull [] address);
+
+    void cleared();
+  }
+
+  private final Dao<VerifiedPlayer, Integer> playerDao;
+  private final Dao<VerifiedPlayerTombstone, Long> tombstoneDao;
+  private final LongSupplier clock;
+  // Ids are assigned when a row is inserted, but concurrent statements can commit out of order.
+  // A row with a lower id than the ones already read can only show up until this time has passed.
+  private final long settleTime;
+  private final Listener listener;
+  // Highest id of all rows that have been read
+  @Getter
+  private long lastId;
+  // Rows up to this id are never read again
+  @Getter
+  private long settledId;
+  // Time and last id of previous polls that haven't settled yet
+  private final ArrayDeque<long[]> unsettled = new ArrayDeque<>();
+  private long lastTombstoneId;
+
+  VerifiedPlayerDeltaPoller(final @NotNull ConnectionSource connectionSource,
+                            final @NotNull LongSupplier clock,
+                            final long settleTime,
+                            final @NotNull Listener listener) throws SQLException {
+    this.playerDao = DaoManager.createDao(connectionSource, VerifiedPlayer.class);
+    this.tombstoneDao = DaoManager.createDao(connectionSource, VerifiedPlayerTombstone.class);
+    this.clock = clock;
+    this.settleTime = settleTime;
+    this.listener = listener;
+  }
+
+  /**
+   * Sets the high-water marks to the current state of the database.
+   * This has to be called before the cache is loaded, so no change is missed in between.
+   */
+  void start() throws SQLException {
+    lastId = playerDao.queryRawValue("SELECT MAX(id) FROM " + playerDao.getTableName());
+    settledId = lastId;
+    lastTombstoneId = tombstoneDao.queryRawValue("SELECT MAX(id) FROM " + tombstoneDao.getTableName());
+  }
+
+  /**
+   * Applies all changes since the last poll to the listener.
+   * Only rows that haven't settled yet are read again.
+   *
+   * @return Number of rows that have been read
+   */
+  int poll() throws SQLException {
+    // Removals are applied first; a player who has been verified again afterwards is still read below
+    int rows = pollTombstones();
+
+    final long now = clock.getAsLong();
+    while (!unsettled.isEmpty() && unsettled.peekFirst()[0] <= now - settleTime) {
+      settledId = unsettled.pollFirst()[1];
+    }
+
+    long readId = settledId;
+    List<VerifiedPlayer> players;
+    do {
+      // Keyset pagination on the id, so every page is a range scan of the primary key
+      final QueryBuilder<VerifiedPlayer, Integer> page = playerDao.queryBuilder()
+        .orderBy("id", true)
+        .limit((long) PAGE_SIZE);
+      page.where().gt("id", readId);
+      players = page.query();
+      for (final VerifiedPlayer player : players) {
+        listener.added(player);
+        readId = player.getId();
+      }
+      rows += players.size();
+    } while (players.size() == PAGE_SIZE);
+
+    if (readId > lastId) {
+      lastId = readId;
+      unsettled.addLast(new long[]{now, lastId});
+    }
+    return rows;
+  }
+
+  private int pollTombstones() throws SQLException {
+    int rows = 0;
+    List<VerifiedPlayerTombstone> tombstones;
+    do {
+      // Tombstones are only read once, so they are paginated by their id instead of their timestamp
+      final QueryBuilder<VerifiedPlayerTombstone, Long> page = tombstoneDao.queryBuilder()
+        .orderBy("id", true)
+        .limit((long) PAGE_SIZE);
+      page.where().gt("id", lastTombstoneId);
+      tombstones = page.query();
+      for (final VerifiedPlayerTombstone tombstone : tombstones) {
+        lastTombstoneId = tombstone.getId();
+        if (Arrays.equals(tombstone.getAddress(), VerifiedPlayerTombstone.ALL)) {
+          listener.cleared();
+        } else {
+          listener.removed(tombstone.getAddress());
+        }
+      }
+      rows += tombstones.size();
+    } while (tombstones.size() == PAGE_SIZE);
+    return rows;
+  }
+}
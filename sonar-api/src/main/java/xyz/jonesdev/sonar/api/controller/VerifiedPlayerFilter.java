@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of all verified (address, UUID) pairs.
+ * It is used to skip database lookups for players that have never been verified.
+ * False positives only cause an unnecessary lookup; removed players are never removed from the filter.
+ */
+final class VerifiedPlayerFilter {
+  // Bits per expected entry and number of hash functions for a false positive rate of about 1%
+  private static final int BITS_PER_ENTRY = 10;
+  private static final int HASH_FUNCTIONS = 7;
+  private static final int MIN_WORDS = 1 << 10;
+  // 256 MiB, which is enough for about 200 million entries
+  private static final int MAX_WORDS = 1 << 25;
+
+  private final AtomicLongArray words;
+  private final long mask;
+  private final AtomicInteger size = new AtomicInteger();
+
+  VerifiedPlayerFilter(final long expectedEntries) {
+    final long required = (expectedEntries * BITS_PER_ENTRY + 63) >>> 6;
+    int length = MIN_WORDS;
+    while (length < required && length < MAX_WORDS) {
+      length <<= 1;
+    }
+    this.words = new AtomicLongArray(length);
+    this.mask = ((long) length << 6) - 1;
+  }
+
+  /**
+   * @return Approximate number of distinct pairs in the filter
+   */
+  int size() {
+    return size.get();
+  }
+
+  long getMemoryUsage() {
+    return (long) words.length() << 3;
+  }
+
+  void add(final long upper, final long lower, final long msb, final long lsb) {
+    final long hash1 = hash(upper ^ Long.rotateLeft(msb, 17), lower ^ Long.rotateLeft(lsb, 31));
+    final long hash2 = hash(lower ^ msb, upper ^ lsb) | 1L;
+    boolean changed = false;
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+      final long bit = (hash1 + i * hash2) & mask;
+      final int index = (int) (bit >>> 6);
+      final long value = 1L << bit;
+      long current;
+      while (((current = words.get(index)) & value) == 0L) {
+        if (words.compareAndSet(index, current, current | value)) {
+          changed = true;
+          break;
+        }
+      }
+    }
+    if (changed) {
+      size.incrementAndGet();
+    }
+  }
+
+  boolean mightContain(final long upper, final long lower, final long msb, final long lsb) {
+    final long hash1 = hash(upper ^ Long.rotateLeft(msb, 17), lower ^ Long.rotateLeft(lsb, 31));
+    final long hash2 = hash(lower ^ msb, upper ^ lsb) | 1L;
+    for (int i = 0; i < HASH_FUNCTIONS; i++) {
+      final long bit = (hash1 + i * hash2) & mask;
+      if ((words.get((int) (bit >>> 6)) & 1L << bit) == 0L) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static long hash(final long first, final long second) {
+    long hash = first * 0x9E3779B97F4A7C15L ^ second;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    hash *= 0xC4CEB9FE1A85EC53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
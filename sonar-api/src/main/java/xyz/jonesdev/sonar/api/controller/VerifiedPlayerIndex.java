@@ -0,0 +1,850 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact index of verified players.
+ * Addresses are stored in an open-addressing table (linear probing) keyed by the raw address bytes,
+ * and every address points to a linked list of UUIDs that live in primitive arenas.
+ * IPv4 addresses are stored as IPv4-mapped IPv6 addresses (::ffff:0:0/96).
+ * Writes are serialized by a lock, while reads are optimistic and never allocate.
+ * Every entry remembers when it has been verified, so old entries can be expired,
+ * and whether it has been looked up recently, so the index can be bounded in size.
+ */
+public final class VerifiedPlayerIndex {
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int NIL = -1;
+  private static final long IPV4_MAPPED = 0xFFFFL << 32;
+  private static final int MAGIC = 0x534E5650; // SNVP
+  private static final int VERSION = 3;
+  private static final int HEADER_SIZE = 32;
+  // Maximum number of addresses that are expired while holding the write lock once
+  private static final int EXPIRE_BATCH_SIZE = 1024;
+  // Maximum number of slots that are scanned for expired entries while holding the read lock once
+  private static final int EXPIRE_SCAN_SIZE = 1 << 14;
+  private static final int IO_BUFFER_SIZE = 1 << 20;
+
+  private final StampedLock lock = new StampedLock();
+  // Upper and lower 64 bits of the address of every slot
+  private long[] addresses;
+  // Index of the first node of every slot plus one (0 marks free slots)
+  private int[] heads;
+  // Most and least significant bits of the UUID of every node
+  private long[] uuids;
+  // Index of the next node of every node (NIL if it is the last one)
+  private int[] links;
+  // Minute (since the epoch) every node has been verified at
+  private int[] times;
+  // Whether every node has been looked up since the last eviction sweep passed it
+  private byte[] referenced;
+  private int usedNodes, freeNode;
+  // Slot at which the next eviction sweep continues
+  private int hand;
+  // No entry is older than this minute, so there is nothing to expire before
+  private volatile int oldestTime;
+  // Oldest minute that has been added while expired entries are collected
+  private int addedOldestTime;
+  private volatile int size, addressCount;
+  private volatile long modifications;
+  // Incremented whenever addresses move to other slots, which a scan in chunks might miss
+  private long slotMoves;
+
+  public VerifiedPlayerIndex() {
+    reset();
+  }
+
+  private void reset() {
+    addresses = new long[INITIAL_CAPACITY << 1];
+    heads = new int[INITIAL_CAPACITY];
+    uuids = new long[INITIAL_CAPACITY << 1];
+    links = new int[INITIAL_CAPACITY];
+    times = new int[INITIAL_CAPACITY];
+    slotMoves++;
+    referenced = new byte[INITIAL_CAPACITY];
+    hand = 0;
+    oldestTime = Integer.MAX_VALUE;
+    addedOldestTime = Integer.MAX_VALUE;
+    usedNodes = 0;
+    freeNode = NIL;
+    size = 0;
+    addressCount = 0;
+  }
+
+  /**
+   * @return Number of (address, UUID) pairs in the index
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return Number of distinct addresses in the index
+   */
+  public int addressCount() {
+    return addressCount;
+  }
+
+  /**
+   * @return Number of changes since the index has been created
+   */
+  public long getModifications() {
+    return modifications;
+  }
+
+  /**
+   * @return Number of bytes used by the arrays of the index
+   */
+  public long getMemoryUsage() {
+    final long stamp = lock.readLock();
+    try {
+      return (addresses.length + uuids.length) * 8L + (heads.length + links.length + times.length) * 4L
+        + referenced.length;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  static long upper(final byte @NotNull [] address) {
+    if (address.length == 4) {
+      return 0L;
+    }
+    long bits = 0L;
+    for (int i = 0; i < 8; i++) {
+      bits = bits << 8 | (address[i] & 0xFFL);
+    }
+    return bits;
+  }
+
+  static long lower(final byte @NotNull [] address) {
+    if (address.length == 4) {
+      return IPV4_MAPPED | (address[0] & 0xFFL) << 24 | (address[1] & 0xFFL) << 16
+        | (address[2] & 0xFFL) << 8 | (address[3] & 0xFFL);
+    }
+    long bits = 0L;
+    for (int i = 8; i < 16; i++) {
+      bits = bits << 8 | (address[i] & 0xFFL);
+    }
+    return bits;
+  }
+
+  /**
+   * @return 16 bytes of the address (IPv4-mapped for IPv4 addresses)
+   */
+  static byte @NotNull [] toBytes(final long upper, final long lower) {
+    final byte[] address = new byte[16];
+    for (int i = 0; i < 8; i++) {
+      address[i] = (byte) (upper >>> (56 - (i << 3)));
+      address[i + 8] = (byte) (lower >>> (56 - (i << 3)));
+    }
+    return address;
+  }
+
+  private static int indexOf(final long upper, final long lower, final int mask) {
+    long hash = upper * 0x9E3779B97F4A7C15L ^ lower;
+    hash ^= hash >>> 33;
+    hash *= 0xFF51AFD7ED558CCDL;
+    hash ^= hash >>> 33;
+    return (int) hash & mask;
+  }
+
+  /**
+   * @param address   Raw address bytes
+   * @param uuid      UUID of the player
+   * @param timestamp Time the player has been verified at (in milliseconds)
+   * @return Whether the pair has been added or was already present
+   */
+  public boolean add(final byte @NotNull [] address, final @NotNull UUID uuid, final long timestamp) {
+    return add(upper(address), lower(address),
+      uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), timestamp);
+  }
+
+  boolean add(final long upper, final long lower, final long msb, final long lsb, final long timestamp) {
+    final int minute = (int) (timestamp / 60000L);
+    final long stamp = lock.writeLock();
+    try {
+      final int slot = find(upper, lower);
+      if (slot >= 0) {
+        for (int node = heads[slot] - 1; node != NIL; node = links[node]) {
+          if (uuids[node << 1] == msb && uuids[(node << 1) + 1] == lsb) {
+            times[node] = Math.max(times[node], minute);
+            return false;
+          }
+        }
+        heads[slot] = allocate(msb, lsb, minute, heads[slot] - 1) + 1;
+        modifications++;
+      } else {
+        insert(upper, lower, allocate(msb, lsb, minute, NIL));
+        modifications++;
+        // Keep the load factor below 0.75
+        if (++addressCount > heads.length - (heads.length >> 2)) {
+          resize(heads.length << 1);
+        }
+      }
+      size++;
+      if (minute < oldestTime) {
+        oldestTime = minute;
+      }
+      addedOldestTime = Math.min(addedOldestTime, minute);
+      return true;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @param address Raw address bytes
+   * @return Number of UUIDs that have been removed together with the address
+   */
+  public int remove(final byte @NotNull [] address) {
+    return remove(upper(address), lower(address));
+  }
+
+  int remove(final long upper, final long lower) {
+    final long stamp = lock.writeLock();
+    try {
+      final int slot = find(upper, lower);
+      if (slot < 0) {
+        return 0;
+      }
+      // Move all nodes of the address to the free list
+      int removed = 0;
+      int node = heads[slot] - 1;
+      while (node != NIL) {
+        final int next = links[node];
+        links[node] = freeNode;
+        freeNode = node;
+        node = next;
+        removed++;
+      }
+      deleteSlot(slot);
+      modifications++;
+      size -= removed;
+      return removed;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes all entries that have been verified before the given time.
+   * The expired addresses are collected in chunks while only holding the read lock,
+   * and then removed in small batches, so lookups and writes are never blocked for long.
+   *
+   * @param cutoff Time (in milliseconds) before which entries expire
+   * @return Number of entries that have been removed
+   */
+  public synchronized int expire(final long cutoff) {
+    final int minute = (int) (cutoff / 60000L);
+    // Nothing has to be done until the oldest entry expires
+    if (oldestTime >= minute) {
+      return 0;
+    }
+
+    long[] expired = new long[64];
+    int count = 0;
+    int oldest = Integer.MAX_VALUE;
+    long stamp = lock.writeLock();
+    // Only hold the write lock for resetting the oldest time of new entries
+    addedOldestTime = Integer.MAX_VALUE;
+    final long initialSlotMoves = slotMoves;
+    lock.unlockWrite(stamp);
+
+    boolean moved = false;
+    for (int start = 0; ; start += EXPIRE_SCAN_SIZE) {
+      stamp = lock.readLock();
+      try {
+        if (start >= heads.length) {
+          // Addresses that have moved to an already scanned slot might have been missed
+          moved = slotMoves != initialSlotMoves;
+          break;
+        }
+        final int end = Math.min(heads.length, start + EXPIRE_SCAN_SIZE);
+        for (int slot = start; slot < end; slot++) {
+          if (heads[slot] == 0) continue;
+          boolean hasExpired = false;
+          for (int node = heads[slot] - 1; node != NIL; node = links[node]) {
+            if (times[node] < minute) {
+              hasExpired = true;
+            } else {
+              oldest = Math.min(oldest, times[node]);
+            }
+          }
+          if (hasExpired) {
+            if (count == expired.length) {
+              expired = Arrays.copyOf(expired, count << 1);
+            }
+            expired[count++] = addresses[slot << 1];
+            expired[count++] = addresses[(slot << 1) + 1];
+          }
+        }
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    int removed = 0;
+    for (int i = 0; i < count; ) {
+      stamp = lock.writeLock();
+      try {
+        final int end = Math.min(count, i + (EXPIRE_BATCH_SIZE << 1));
+        for (; i < end; i += 2) {
+          removed += removeExpired(expired[i], expired[i + 1], minute);
+        }
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    stamp = lock.writeLock();
+    try {
+      // Entries that have been added in the meantime might be older than the remaining ones;
+      // if entries might have been missed, the next call has to scan the whole index again
+      oldestTime = moved ? Integer.MIN_VALUE : Math.min(oldest, addedOldestTime);
+      if (removed > 0) {
+        modifications++;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    return removed;
+  }
+
+  /**
+   * Evicts entries that have not been looked up recently until the index is small enough.
+   * This is an approximation of LRU (CLOCK): a sweep evicts all entries of a slot that have
+   * not been looked up since the sweep last passed them and gives the other entries a second chance.
+   *
+   * @param maximumSize Maximum number of entries after the eviction
+   * @return Number of entries that have been evicted
+   */
+  public int evict(final int maximumSize) {
+    if (size <= maximumSize) {
+      return 0;
+    }
+    final long stamp = lock.writeLock();
+    try {
+      int evicted = 0;
+      // Every slot has to be passed at most twice, since all marks are cleared after the first pass
+      for (int visited = 0; size > maximumSize && visited <= heads.length << 1; visited++) {
+        final int slot = hand;
+        if (heads[slot] == 0) {
+          hand = (slot + 1) & (heads.length - 1);
+          continue;
+        }
+        int previous = NIL;
+        int node = heads[slot] - 1;
+        while (node != NIL) {
+          final int next = links[node];
+          if (referenced[node] == 0) {
+            if (previous == NIL) {
+              heads[slot] = next + 1;
+            } else {
+              links[previous] = next;
+            }
+            links[node] = freeNode;
+            freeNode = node;
+            size--;
+            evicted++;
+          } else {
+            referenced[node] = 0;
+            previous = node;
+          }
+          node = next;
+        }
+        if (heads[slot] == 0) {
+          // The following slot might be shifted into this one, so the hand stays here
+          deleteSlot(slot);
+        } else {
+          hand = (slot + 1) & (heads.length - 1);
+        }
+      }
+      if (evicted > 0) {
+        modifications++;
+      }
+      return evicted;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  private int removeExpired(final long upper, final long lower, final int minute) {
+    final int slot = find(upper, lower);
+    if (slot < 0) {
+      return 0;
+    }
+    int removed = 0;
+    int previous = NIL;
+    int node = heads[slot] - 1;
+    while (node != NIL) {
+      final int next = links[node];
+      if (times[node] < minute) {
+        // Unlink the node and move it to the free list
+        if (previous == NIL) {
+          heads[slot] = next + 1;
+        } else {
+          links[previous] = next;
+        }
+        links[node] = freeNode;
+        freeNode = node;
+        removed++;
+      } else {
+        previous = node;
+      }
+      node = next;
+    }
+    if (heads[slot] == 0) {
+      deleteSlot(slot);
+    }
+    size -= removed;
+    return removed;
+  }
+
+  public void clear() {
+    final long stamp = lock.writeLock();
+    try {
+      reset();
+      modifications++;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Replaces all entries with the entries of the other index.
+   * The other index takes over the (empty) state of this index and can be reused.
+   *
+   * @param other Index whose entries should be moved into this index
+   */
+  public void replaceWith(final @NotNull VerifiedPlayerIndex other) {
+    final long stamp = lock.writeLock();
+    final long otherStamp = other.lock.writeLock();
+    try {
+      addresses = other.addresses;
+      heads = other.heads;
+      uuids = other.uuids;
+      links = other.links;
+      times = other.times;
+      referenced = other.referenced;
+      hand = other.hand;
+      oldestTime = other.oldestTime;
+      usedNodes = other.usedNodes;
+      freeNode = other.freeNode;
+      size = other.size;
+      addressCount = other.addressCount;
+      modifications++;
+      slotMoves++;
+      other.reset();
+    } finally {
+      other.lock.unlockWrite(otherStamp);
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Writes the arrays of the index to the file, so it can be loaded without rebuilding the table.
+   * The arrays are copied while holding the lock, so writers only wait for the copy and not for the disk.
+   * A temporary file is used, so the previous snapshot is kept if writing fails.
+   *
+   * @param path Path of the snapshot
+   */
+  public void save(final @NotNull Path path) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_SIZE);
+    final long[] addresses, uuids;
+    final int[] heads, links, times;
+    final long stamp = lock.readLock();
+    try {
+      header.putInt(MAGIC).putInt(VERSION);
+      header.putInt(this.heads.length).putInt(usedNodes).putInt(freeNode);
+      header.putInt(size).putInt(addressCount).putInt(oldestTime);
+      // Only the used part of the arenas has to be written
+      addresses = this.addresses.clone();
+      heads = this.heads.clone();
+      uuids = Arrays.copyOf(this.uuids, usedNodes << 1);
+      links = Arrays.copyOf(this.links, usedNodes);
+      times = Arrays.copyOf(this.times, usedNodes);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+    try (final FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+      StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      header.flip();
+      writeFully(channel, header);
+      write(channel, buffer, addresses, addresses.length);
+      write(channel, buffer, heads, heads.length);
+      write(channel, buffer, uuids, uuids.length);
+      write(channel, buffer, links, links.length);
+      write(channel, buffer, times, times.length);
+      channel.force(false);
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replaces all entries with the entries of the snapshot
+   *
+   * @param path Path of the snapshot
+   * @return Whether the snapshot could be loaded
+   */
+  public boolean load(final @NotNull Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return false;
+    }
+    final VerifiedPlayerIndex loaded = new VerifiedPlayerIndex();
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+    try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_SIZE) {
+        return false;
+      }
+      buffer.limit(HEADER_SIZE);
+      readFully(channel, buffer);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return false;
+      }
+      final int capacity = buffer.getInt(), nodes = buffer.getInt();
+      if (capacity < INITIAL_CAPACITY || Integer.bitCount(capacity) != 1 || nodes < 0
+        || channel.size() != HEADER_SIZE + capacity * 20L + nodes * 24L) {
+        throw new IOException("Snapshot is corrupted");
+      }
+      loaded.freeNode = buffer.getInt();
+      loaded.size = buffer.getInt();
+      loaded.addressCount = buffer.getInt();
+      loaded.oldestTime = buffer.getInt();
+      loaded.usedNodes = nodes;
+      loaded.addresses = new long[capacity << 1];
+      loaded.heads = new int[capacity];
+      loaded.uuids = new long[Math.max(nodes, INITIAL_CAPACITY) << 1];
+      loaded.links = new int[Math.max(nodes, INITIAL_CAPACITY)];
+      loaded.times = new int[Math.max(nodes, INITIAL_CAPACITY)];
+      loaded.referenced = new byte[Math.max(nodes, INITIAL_CAPACITY)];
+      read(channel, buffer, loaded.addresses, capacity << 1);
+      read(channel, buffer, loaded.heads, capacity);
+      read(channel, buffer, loaded.uuids, nodes << 1);
+      read(channel, buffer, loaded.links, nodes);
+      read(channel, buffer, loaded.times, nodes);
+    }
+    replaceWith(loaded);
+    return true;
+  }
+
+  // The arrays are copied in bulk through a direct buffer, which is a lot faster than writing every value
+
+  private static void write(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer,
+                            final long @NotNull [] array, final int length) throws IOException {
+    for (int offset = 0; offset < length; ) {
+      final int amount = Math.min(IO_BUFFER_SIZE >> 3, length - offset);
+      buffer.clear();
+      buffer.asLongBuffer().put(array, offset, amount);
+      buffer.limit(amount << 3);
+      writeFully(channel, buffer);
+      offset += amount;
+    }
+  }
+
+  private static void write(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer,
+                            final int @NotNull [] array, final int length) throws IOException {
+    for (int offset = 0; offset < length; ) {
+      final int amount = Math.min(IO_BUFFER_SIZE >> 2, length - offset);
+      buffer.clear();
+      buffer.asIntBuffer().put(array, offset, amount);
+      buffer.limit(amount << 2);
+      writeFully(channel, buffer);
+      offset += amount;
+    }
+  }
+
+  private static void read(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer,
+                           final long @NotNull [] array, final int length) throws IOException {
+    for (int offset = 0; offset < length; ) {
+      final int amount = Math.min(IO_BUFFER_SIZE >> 3, length - offset);
+      buffer.clear();
+      buffer.limit(amount << 3);
+      readFully(channel, buffer);
+      buffer.asLongBuffer().get(array, offset, amount);
+      offset += amount;
+    }
+  }
+
+  private static void read(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer,
+                           final int @NotNull [] array, final int length) throws IOException {
+    for (int offset = 0; offset < length; ) {
+      final int amount = Math.min(IO_BUFFER_SIZE >> 2, length - offset);
+      buffer.clear();
+      buffer.limit(amount << 2);
+      readFully(channel, buffer);
+      buffer.asIntBuffer().get(array, offset, amount);
+      offset += amount;
+    }
+  }
+
+  private static void writeFully(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Fills the buffer up to its limit and flips it
+   */
+  private static void readFully(final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer)
+    throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Snapshot is truncated");
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * @param inetAddress IP address
+   * @param uuid        UUID of the player
+   * @return Whether the index contains the pair
+   */
+  public boolean has(final @NotNull InetAddress inetAddress, final @NotNull UUID uuid) {
+    // The hash code of an IPv4 address is the address itself, which avoids the copy made by getAddress()
+    if (inetAddress instanceof Inet4Address) {
+      return has(0L, IPV4_MAPPED | (inetAddress.hashCode() & 0xFFFFFFFFL),
+        uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+    return has(inetAddress.getAddress(), uuid);
+  }
+
+  public boolean has(final byte @NotNull [] address, final @NotNull UUID uuid) {
+    return has(upper(address), lower(address), uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+  }
+
+  /**
+   * @param inetAddress IP address
+   * @return Whether the index contains the address
+   */
+  public boolean has(final @NotNull InetAddress inetAddress) {
+    if (inetAddress instanceof Inet4Address) {
+      return has(0L, IPV4_MAPPED | (inetAddress.hashCode() & 0xFFFFFFFFL), 0L, 0L, false);
+    }
+    return has(inetAddress.getAddress());
+  }
+
+  public boolean has(final byte @NotNull [] address) {
+    return has(upper(address), lower(address), 0L, 0L, false);
+  }
+
+  private boolean has(final long upper, final long lower, final long msb, final long lsb) {
+    return has(upper, lower, msb, lsb, true);
+  }
+
+  private boolean has(final long upper, final long lower, final long msb, final long lsb, final boolean matchUuid) {
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0L) {
+      final boolean result = lookup(upper, lower, msb, lsb, matchUuid);
+      if (lock.validate(stamp)) {
+        return result;
+      }
+    }
+    // A write happened during the lookup, so we have to retry while holding the lock
+    stamp = lock.readLock();
+    try {
+      return lookup(upper, lower, msb, lsb, matchUuid);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Looks up the address (and UUID) without holding the lock.
+   * The arrays might be modified concurrently, so every access is bounds-checked
+   * and every loop is bounded; the result is discarded if the read was not valid.
+   * A found pair is marked as referenced; losing such a mark to a race only makes eviction less accurate.
+   */
+  private boolean lookup(final long upper, final long lower,
+                         final long msb, final long lsb, final boolean matchUuid) {
+    final long[] addresses = this.addresses;
+    final int[] heads = this.heads;
+    final long[] uuids = this.uuids;
+    final int[] links = this.links;
+    final byte[] referenced = this.referenced;
+    if (addresses.length != heads.length << 1 || uuids.length != links.length << 1
+      || referenced.length != links.length) {
+      return false;
+    }
+    final int mask = heads.length - 1;
+    int slot = indexOf(upper, lower, mask);
+    for (int probes = 0; probes < heads.length; probes++) {
+      final int head = heads[slot];
+      if (head == 0) {
+        return false;
+      }
+      if (addresses[slot << 1] == upper && addresses[(slot << 1) + 1] == lower) {
+        if (!matchUuid) {
+          return true;
+        }
+        int node = head - 1;
+        for (int steps = 0; node >= 0 && node < links.length && steps < links.length; steps++) {
+          if (uuids[node << 1] == msb && uuids[(node << 1) + 1] == lsb) {
+            // Only write if necessary, so lookups don't keep invalidating the cache line
+            if (referenced[node] == 0) {
+              referenced[node] = 1;
+            }
+            return true;
+          }
+          node = links[node];
+        }
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return false;
+  }
+
+  /**
+   * @param address Raw address bytes
+   * @return UUIDs associated with the address
+   */
+  public @NotNull Collection<UUID> getUUIDs(final byte @NotNull [] address) {
+    final long upper = upper(address), lower = lower(address);
+    final long stamp = lock.readLock();
+    try {
+      final int slot = find(upper, lower);
+      if (slot < 0) {
+        return Collections.emptyList();
+      }
+      final List<UUID> result = new ArrayList<>(2);
+      for (int node = heads[slot] - 1; node != NIL; node = links[node]) {
+        result.add(new UUID(uuids[node << 1], uuids[(node << 1) + 1]));
+      }
+      return result;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  // The following methods must only be called while holding the write lock (or read lock for find)
+
+  private int find(final long upper, final long lower) {
+    final int mask = heads.length - 1;
+    int slot = indexOf(upper, lower, mask);
+    while (heads[slot] != 0) {
+      if (addresses[slot << 1] == upper && addresses[(slot << 1) + 1] == lower) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return NIL;
+  }
+
+  private void insert(final long upper, final long lower, final int node) {
+    final int mask = heads.length - 1;
+    int slot = indexOf(upper, lower, mask);
+    while (heads[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    addresses[slot << 1] = upper;
+    addresses[(slot << 1) + 1] = lower;
+    heads[slot] = node + 1;
+  }
+
+  /**
+   * Removes the slot and shifts the following slots back, so no tombstones are needed
+   */
+  private void deleteSlot(int slot) {
+    final int mask = heads.length - 1;
+    int next = (slot + 1) & mask;
+    while (heads[next] != 0) {
+      final int desired = indexOf(addresses[next << 1], addresses[(next << 1) + 1], mask);
+      if (((next - desired) & mask) >= ((next - slot) & mask)) {
+        addresses[slot << 1] = addresses[next << 1];
+        addresses[(slot << 1) + 1] = addresses[(next << 1) + 1];
+        heads[slot] = heads[next];
+        slot = next;
+      }
+      next = (next + 1) & mask;
+    }
+    heads[slot] = 0;
+    addressCount--;
+    slotMoves++;
+  }
+
+  private int allocate(final long msb, final long lsb, final int minute, final int next) {
+    final int node;
+    if (freeNode != NIL) {
+      node = freeNode;
+      freeNode = links[node];
+    } else {
+      if (usedNodes == links.length) {
+        // Grow the arenas by 50%
+        final int capacity = links.length + (links.length >> 1);
+        final long[] newUuids = new long[capacity << 1];
+        final int[] newLinks = new int[capacity];
+        final int[] newTimes = new int[capacity];
+        final byte[] newReferenced = new byte[capacity];
+        System.arraycopy(uuids, 0, newUuids, 0, uuids.length);
+        System.arraycopy(links, 0, newLinks, 0, links.length);
+        System.arraycopy(times, 0, newTimes, 0, times.length);
+        // Keep the marks, so growing the arenas doesn't make every entry look unused to the next sweep
+        System.arraycopy(referenced, 0, newReferenced, 0, referenced.length);
+        uuids = newUuids;
+        links = newLinks;
+        times = newTimes;
+        referenced = newReferenced;
+      }
+      node = usedNodes++;
+    }
+    uuids[node << 1] = msb;
+    uuids[(node << 1) + 1] = lsb;
+    links[node] = next;
+    times[node] = minute;
+    referenced[node] = 0;
+    return node;
+  }
+
+  private void resize(final int capacity) {
+    final long[] oldAddresses = addresses;
+    final int[] oldHeads = heads;
+    addresses = new long[capacity << 1];
+    heads = new int[capacity];
+    slotMoves++;
+    for (int slot = 0; slot < oldHeads.length; slot++) {
+      if (oldHeads[slot] != 0) {
+        insert(oldAddresses[slot << 1], oldAddresses[(slot << 1) + 1], oldHeads[slot] - 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.Sonar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Local storage of verified players that doesn't need any external service.
+ * Every change is appended to a log of fixed-size, checksummed records.
+ * Once the log has grown large enough, the whole index is written to a snapshot
+ * and the log starts over. On startup, the snapshot is loaded and the log is replayed;
+ * a torn or corrupted record at the end of the log (e.g. after a crash) is cut off.
+ * Replaying a record that is already part of the snapshot has no effect,
+ * so a crash between writing the snapshot and truncating the log is harmless.
+ * The same format is used by the spool of changes that could not be written to the database.
+ */
+final class VerifiedPlayerLog implements Closeable {
+  static final byte ADD = 1, REMOVE = 2, CLEAR = 3, EXPIRE = 4;
+  // Type, address, UUID, timestamp and CRC32 of the record
+  static final int RECORD_SIZE = 1 + 16 + 16 + 8 + 4;
+  private static final int READ_BUFFER_RECORDS = 1 << 14;
+  // Minimum number of records before the log is compacted
+  private static final long MIN_COMPACT_RECORDS = 1 << 16;
+
+  private final @Nullable Path snapshotPath;
+  private final Path logPath;
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+  private final CRC32 crc32 = new CRC32();
+  private @Nullable FileChannel channel;
+  private long records;
+
+  VerifiedPlayerLog(final @NotNull File directory) {
+    this(new File(directory, "verified-local.dat").toPath(), new File(directory, "verified-local.log").toPath());
+  }
+
+  /**
+   * @param snapshotPath Path of the snapshot or null if the log is never compacted
+   * @param logPath      Path of the log
+   */
+  VerifiedPlayerLog(final @Nullable Path snapshotPath, final @NotNull Path logPath) {
+    this.snapshotPath = snapshotPath;
+    this.logPath = logPath;
+  }
+
+  @FunctionalInterface
+  interface RecordConsumer<E extends Exception> {
+    /**
+     * @return Whether the record is valid
+     */
+    boolean accept(byte type, long upper, long lower, long msb, long lsb, long timestamp) throws E;
+  }
+
+  /**
+   * Loads the snapshot into the index and replays the log on top of it
+   *
+   * @param index Index that should be filled
+   */
+  synchronized void open(final @NotNull VerifiedPlayerIndex index) throws IOException {
+    if (snapshotPath == null || !index.load(snapshotPath)) {
+      index.clear();
+    }
+    // Every expiry would scan the whole index, so only the newest one is applied after the replay;
+    // its cutoff is later than the cutoffs of all previous ones
+    final long[] cutoff = {Long.MIN_VALUE};
+    open((type, upper, lower, msb, lsb, timestamp) -> {
+      if (type == EXPIRE) {
+        cutoff[0] = Math.max(cutoff[0], timestamp);
+        return true;
+      }
+      return apply(index, type, upper, lower, msb, lsb, timestamp);
+    });
+    if (cutoff[0] != Long.MIN_VALUE) {
+      index.expire(cutoff[0]);
+    }
+  }
+
+  /**
+   * Opens the log and passes every record to the consumer;
+   * a torn or corrupted record at the end of the log (e.g. after a crash) is cut off.
+   */
+  synchronized <E extends Exception> void open(final @NotNull RecordConsumer<E> consumer) throws IOException, E {
+    channel = FileChannel.open(logPath, StandardOpenOption.CREATE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final long valid = read(channel, consumer);
+    records = valid / RECORD_SIZE;
+
+    if (valid != channel.size()) {
+      Sonar.get().getLogger().warn("Discarding {} bytes of the verified players log after a corrupted record",
+        channel.size() - valid);
+      channel.truncate(valid);
+    }
+    channel.position(valid);
+  }
+
+  /**
+   * Passes every record of the log to the consumer in the order the records have been appended
+   */
+  synchronized <E extends Exception> void replay(final @NotNull RecordConsumer<E> consumer) throws IOException, E {
+    if (channel != null) {
+      read(channel, consumer);
+    }
+  }
+
+  /**
+   * @return Number of bytes used by the records of the log
+   */
+  synchronized long size() {
+    return records * RECORD_SIZE;
+  }
+
+  /**
+   * Removes all records from the log
+   */
+  synchronized void truncate() throws IOException {
+    if (channel == null) return;
+    channel.truncate(0L);
+    channel.position(0L);
+    channel.force(false);
+    records = 0L;
+  }
+
+  /**
+   * @return Number of bytes of valid records at the start of the log
+   */
+  private <E extends Exception> long read(final @NotNull FileChannel channel,
+                                          final @NotNull RecordConsumer<E> consumer) throws IOException, E {
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * READ_BUFFER_RECORDS);
+    long position = 0L, valid = 0L;
+    replay:
+    while (true) {
+      final int read = channel.read(buffer, position);
+      if (read > 0) {
+        position += read;
+      }
+      buffer.flip();
+      if (buffer.remaining() < RECORD_SIZE) {
+        // The end of the log has been reached or the last record has only been written partially
+        break;
+      }
+      while (buffer.remaining() >= RECORD_SIZE) {
+        if (!accept(buffer, consumer)) {
+          break replay;
+        }
+        valid += RECORD_SIZE;
+      }
+      buffer.compact();
+    }
+    return valid;
+  }
+
+  /**
+   * Reads a single record and passes it to the consumer
+   *
+   * @return Whether the record was valid
+   */
+  private <E extends Exception> boolean accept(final @NotNull ByteBuffer buffer,
+                                               final @NotNull RecordConsumer<E> consumer) throws E {
+    final int start = buffer.position();
+    final ByteBuffer data = buffer.duplicate();
+    data.limit(start + RECORD_SIZE - 4);
+    crc32.reset();
+    crc32.update(data);
+    if ((int) crc32.getValue() != buffer.getInt(start + RECORD_SIZE - 4)) {
+      return false;
+    }
+    final byte type = buffer.get();
+    final long upper = buffer.getLong(), lower = buffer.getLong();
+    final long msb = buffer.getLong(), lsb = buffer.getLong();
+    final long timestamp = buffer.getLong();
+    buffer.getInt(); // checksum
+    return consumer.accept(type, upper, lower, msb, lsb, timestamp);
+  }
+
+  /**
+   * Applies a single record to the index
+   *
+   * @return Whether the record was valid
+   */
+  private static boolean apply(final @NotNull VerifiedPlayerIndex index, final byte type,
+                               final long upper, final long lower,
+                               final long msb, final long lsb, final long timestamp) {
+    switch (type) {
+      case ADD:
+        index.add(upper, lower, msb, lsb, timestamp);
+        return true;
+      case REMOVE:
+        index.remove(upper, lower);
+        return true;
+      case CLEAR:
+        index.clear();
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Appends a record to the log; the data is only guaranteed to be on disk after {@link #sync()}
+   */
+  synchronized void append(final byte type, final byte @Nullable [] address,
+                           final long msb, final long lsb, final long timestamp) throws IOException {
+    if (channel == null) return;
+    record.clear();
+    record.put(type);
+    record.putLong(address == null ? 0L : VerifiedPlayerIndex.upper(address));
+    record.putLong(address == null ? 0L : VerifiedPlayerIndex.lower(address));
+    record.putLong(msb).putLong(lsb).putLong(timestamp);
+    crc32.reset();
+    crc32.update(record.array(), 0, RECORD_SIZE - 4);
+    record.putInt((int) crc32.getValue());
+    record.flip();
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+    records++;
+  }
+
+  synchronized void sync() throws IOException {
+    if (channel != null) {
+      channel.force(false);
+    }
+  }
+
+  /**
+   * @return Whether the log has grown larger than the index itself
+   */
+  synchronized boolean shouldCompact(final @NotNull VerifiedPlayerIndex index) {
+    return records > Math.max(MIN_COMPACT_RECORDS, index.size());
+  }
+
+  /**
+   * Writes the index to the snapshot and starts a new log.
+   * Every record of the log has already been applied to the index at this point.
+   */
+  synchronized void compact(final @NotNull VerifiedPlayerIndex index) throws IOException {
+    if (channel == null || snapshotPath == null) return;
+    channel.force(false);
+    index.save(snapshotPath);
+    channel.truncate(0L);
+    channel.position(0L);
+    records = 0L;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.force(false);
+      channel.close();
+      channel = null;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.GenericRawResults;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.support.DatabaseConnection;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copies the verified players of the old table (textual IP address and UUID) into the current table.
+ * Only one page is copied at once, so other database tasks can run while the migration is in progress.
+ * Rows are inserted using INSERT IGNORE, so the migration can simply start over after a restart
+ * and never overwrites rows that have been written in the meantime.
+ * The old table is renamed (not dropped) once all rows have been copied.
+ */
+@RequiredArgsConstructor
+final class VerifiedPlayerMigration {
+  private static final String LEGACY_TABLE = "sonar_verified_players";
+  private static final String MIGRATED_TABLE = "sonar_verified_players_v1";
+  private static final int PAGE_SIZE = 1000;
+
+  private final Dao<VerifiedPlayer, Integer> dao;
+  // IP addresses that have been removed while the migration is running
+  private final Set<InetAddress> removed = ConcurrentHashMap.newKeySet();
+  private volatile long lastId;
+  @Getter
+  private long migrated;
+
+  /**
+   * @return Whether the old table still exists
+   */
+  static boolean isRequired(final @NotNull ConnectionSource connectionSource) throws SQLException {
+    final DatabaseConnection connection = connectionSource.getReadOnlyConnection(LEGACY_TABLE);
+    try {
+      return connection.isTableExists(LEGACY_TABLE);
+    } finally {
+      connectionSource.releaseConnection(connection);
+    }
+  }
+
+  /**
+   * Makes sure the entries of the IP address are not copied anymore
+   */
+  void remove(final @NotNull InetAddress inetAddress) {
+    removed.add(inetAddress);
+  }
+
+  /**
+   * Skips all remaining rows, since they have been deleted
+   */
+  void clear() {
+    lastId = Long.MAX_VALUE;
+  }
+
+  /**
+   * Copies the next page of the old table
+   *
+   * @return Whether all rows have been copied
+   */
+  boolean migratePage() throws Exception {
+    final long lastId = this.lastId;
+    final List<String[]> rows;
+    // Keyset pagination, so every page is an index range scan
+    try (final GenericRawResults<String[]> results = dao.queryRaw(
+      "SELECT id, ip_address, player_uuid, timestamp FROM " + LEGACY_TABLE
+        + " WHERE id > " + lastId + " ORDER BY id LIMIT " + PAGE_SIZE)) {
+      rows = results.getResults();
+    }
+
+    final List<VerifiedPlayer> players = new ArrayList<>(rows.size());
+    for (final String[] row : rows) {
+      final byte[] address = VerifiedPlayerController.toAddress(row[1]);
+      // Rows with invalid (e.g. truncated) IP addresses cannot be migrated
+      if (address == null || row[2] == null || row[3] == null) continue;
+      final InetAddress inetAddress;
+      final UUID uuid;
+      final Timestamp timestamp;
+      try {
+        inetAddress = InetAddress.getByAddress(address);
+        uuid = UUID.fromString(row[2]);
+        timestamp = Timestamp.valueOf(row[3]);
+      } catch (UnknownHostException | IllegalArgumentException exception) {
+        continue;
+      }
+      if (removed.contains(inetAddress)) continue;
+      players.add(new VerifiedPlayer(inetAddress, uuid, timestamp.getTime()));
+    }
+    migrated += VerifiedPlayerWriteBuffer.insertIgnore(dao, players);
+
+    if (rows.size() < PAGE_SIZE || this.lastId == Long.MAX_VALUE) {
+      dao.executeRaw("RENAME TABLE " + LEGACY_TABLE + " TO " + MIGRATED_TABLE);
+      return true;
+    }
+    // Don't overwrite the position if the migration has been cleared in the meantime
+    if (this.lastId == lastId) {
+      this.lastId = Long.parseLong(rows.get(rows.size() - 1)[0]);
+    }
+    return false;
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Spool of changes that could not be written to the database, e.g. during an outage.
+ * The changes are appended to a local log, so they survive restarts,
+ * and are replayed in order once the database is reachable again.
+ * Replaying is idempotent (existing rows are ignored and deleting missing rows has no effect),
+ * so a replay that fails halfway can simply be repeated.
+ */
+final class VerifiedPlayerSpool implements Closeable {
+  // Number of changes that are written to the database at once while replaying
+  private static final int REPLAY_BATCH_SIZE = 500;
+
+  private final VerifiedPlayerLog log;
+  private final long maximumSize;
+
+  VerifiedPlayerSpool(final @NotNull Path path, final long maximumSize) throws IOException {
+    this.log = new VerifiedPlayerLog(null, path);
+    this.maximumSize = maximumSize;
+    // Only validate the records; they are replayed by the next flush
+    log.open((type, upper, lower, msb, lsb, timestamp) ->
+      type == VerifiedPlayerLog.ADD || type == VerifiedPlayerLog.REMOVE);
+  }
+
+  @FunctionalInterface
+  interface BatchWriter {
+    void write(@NotNull Collection<InetAddress> deletes, @NotNull Collection<VerifiedPlayer> inserts) throws Exception;
+  }
+
+  boolean isEmpty() {
+    return log.size() == 0L;
+  }
+
+  /**
+   * Appends the changes to the spool and writes them to the disk
+   *
+   * @return Whether the spool had enough space left for the changes
+   */
+  boolean append(final @NotNull Collection<InetAddress> deletes,
+                 final @NotNull Collection<VerifiedPlayer> inserts) throws IOException {
+    final long required = (long) (deletes.size() + inserts.size()) * VerifiedPlayerLog.RECORD_SIZE;
+    if (log.size() + required > maximumSize) {
+      return false;
+    }
+    final long now = System.currentTimeMillis();
+    // Deletes are written before inserts, just like in the write buffer
+    for (final InetAddress inetAddress : deletes) {
+      log.append(VerifiedPlayerLog.REMOVE, VerifiedPlayer.toBytes(inetAddress), 0L, 0L, now);
+    }
+    for (final VerifiedPlayer player : inserts) {
+      final UUID uuid = player.getPlayerUUID();
+      log.append(VerifiedPlayerLog.ADD, player.getAddress(),
+        uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), player.getTimestamp().getTime());
+    }
+    log.sync();
+    return true;
+  }
+
+  /**
+   * Writes all changes in the order they have been spooled and removes them from the spool afterwards
+   */
+  void replay(final @NotNull BatchWriter writer) throws Exception {
+    final List<InetAddress> deletes = new ArrayList<>();
+    final List<VerifiedPlayer> inserts = new ArrayList<>();
+    log.replay((type, upper, lower, msb, lsb, timestamp) -> {
+      final InetAddress inetAddress = InetAddress.getByAddress(VerifiedPlayerIndex.toBytes(upper, lower));
+      if (type == VerifiedPlayerLog.REMOVE) {
+        // Deletes of a batch are written before its inserts, so earlier inserts have to be written first
+        if (!inserts.isEmpty()) {
+          write(writer, deletes, inserts);
+        }
+        deletes.add(inetAddress);
+      } else {
+        inserts.add(new VerifiedPlayer(inetAddress, new UUID(msb, lsb), timestamp));
+      }
+      if (deletes.size() + inserts.size() >= REPLAY_BATCH_SIZE) {
+        write(writer, deletes, inserts);
+      }
+      return true;
+    });
+    write(writer, deletes, inserts);
+    log.truncate();
+  }
+
+  private static void write(final @NotNull BatchWriter writer,
+                            final @NotNull List<InetAddress> deletes,
+                            final @NotNull List<VerifiedPlayer> inserts) throws Exception {
+    if (deletes.isEmpty() && inserts.isEmpty()) return;
+    writer.write(deletes, inserts);
+    deletes.clear();
+    inserts.clear();
+  }
+
+  /**
+   * Discards all spooled changes
+   */
+  void truncate() throws IOException {
+    log.truncate();
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+}
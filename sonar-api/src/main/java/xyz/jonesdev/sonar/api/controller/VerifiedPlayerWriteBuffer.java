@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.field.SqlType;
+import com.j256.ormlite.stmt.DeleteBuilder;
+import com.j256.ormlite.stmt.SelectArg;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayerTombstone;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.*;
+
+/**
+ * Write-behind buffer for the verified players table.
+ * Inserts and deletes are collected and written as batches within a single transaction.
+ * Inserts that are followed by a delete of the same IP address are never written.
+ * If the database is unreachable, the operations are moved to the spool (if there is one).
+ * If other proxies sync the database, every delete also writes a tombstone,
+ * so they can remove the IP address from their cache.
+ */
+@RequiredArgsConstructor
+final class VerifiedPlayerWriteBuffer {
+  // Maximum number of IP addresses per DELETE ... WHERE ip_address IN (...) statement
+  private static final int MAX_DELETE_CHUNK = 500;
+
+  private final Dao<VerifiedPlayer, Integer> dao;
+  // Null if no proxy reads the tombstones (sync is disabled)
+  private final @Nullable Dao<VerifiedPlayerTombstone, Long> tombstoneDao;
+  private final @Nullable VerifiedPlayerSpool spool;
+  private final Object flushLock = new Object();
+  private Map<InetAddress, Map<UUID, VerifiedPlayer>> inserts = new LinkedHashMap<>();
+  private Set<InetAddress> deletes = new LinkedHashSet<>();
+  private int pending;
+
+  /**
+   * @param player Verified player that should be inserted
+   * @return Number of pending operations
+   */
+  synchronized int add(final @NotNull VerifiedPlayer player) {
+    final Map<UUID, VerifiedPlayer> players = inserts.computeIfAbsent(player.getInetAddress(),
+      k -> new LinkedHashMap<>(2));
+    if (players.put(player.getPlayerUUID(), player) == null) {
+      pending++;
+    }
+    return pending;
+  }
+
+  /**
+   * @param inetAddress IP address whose entries should be deleted
+   * @return Number of pending operations
+   */
+  synchronized int remove(final @NotNull InetAddress inetAddress) {
+    // Coalesce: inserts that have not been written yet can simply be dropped
+    final Map<UUID, VerifiedPlayer> players = inserts.remove(inetAddress);
+    if (players != null) {
+      pending -= players.size();
+    }
+    if (deletes.add(inetAddress)) {
+      pending++;
+    }
+    return pending;
+  }
+
+  /**
+   * @param inetAddress IP address
+   * @return Whether the entries of the IP address are going to be deleted
+   */
+  synchronized boolean isRemoved(final @NotNull InetAddress inetAddress) {
+    return deletes.contains(inetAddress);
+  }
+
+  /**
+   * Discards all pending and spooled operations
+   */
+  synchronized void clear() {
+    reset();
+    if (spool != null) {
+      try {
+        spool.truncate();
+      } catch (IOException exception) {
+        Sonar.get().getLogger().error("Error trying to clear the database spool: {}", exception);
+      }
+    }
+  }
+
+  private void reset() {
+    inserts = new LinkedHashMap<>();
+    deletes = new LinkedHashSet<>();
+    pending = 0;
+  }
+
+  /**
+   * Writes all pending operations to the database.
+   * Deletes are written before inserts, so a player that verifies again after being removed is kept.
+   */
+  void flush() {
+    synchronized (flushLock) {
+      final Map<InetAddress, Map<UUID, VerifiedPlayer>> inserts;
+      final Set<InetAddress> deletes;
+      synchronized (this) {
+        if (pending == 0 && (spool == null || spool.isEmpty())) return;
+        inserts = this.inserts;
+        deletes = this.deletes;
+        reset();
+      }
+
+      final List<VerifiedPlayer> players = new ArrayList<>();
+      inserts.values().forEach(map -> players.addAll(map.values()));
+      try {
+        // Spooled operations are older than the pending ones, so they have to be written first
+        if (spool != null && !spool.isEmpty()) {
+          spool.replay(this::replay);
+          Sonar.get().getLogger().info("Wrote all spooled changes to the database.");
+        }
+        if (!deletes.isEmpty() || !players.isEmpty()) {
+          dao.callBatchTasks(() -> {
+            deleteAll(deletes);
+            dao.create(players);
+            return null;
+          });
+        }
+      } catch (Exception exception) {
+        if (isConnectionFailure(exception)) {
+          // The database is unreachable; keep the operations for the next flush
+          if (!spool(deletes, players)) {
+            restore(deletes, inserts);
+          }
+          Sonar.get().getLogger().warn("Could not write {} changes to the database: {}",
+            players.size() + deletes.size(), exception.getMessage());
+          return;
+        }
+        // A single invalid row (e.g. a duplicate) rolls back the whole batch,
+        // so we retry every operation on its own to keep the valid ones.
+        retry(deletes, players);
+      }
+    }
+  }
+
+  /**
+   * Moves all pending operations to the spool without writing them to the database,
+   * e.g. while the tables could not be created yet
+   */
+  void spoolPending() {
+    synchronized (flushLock) {
+      final Map<InetAddress, Map<UUID, VerifiedPlayer>> inserts;
+      final Set<InetAddress> deletes;
+      synchronized (this) {
+        if (pending == 0) return;
+        inserts = this.inserts;
+        deletes = this.deletes;
+        reset();
+      }
+
+      final List<VerifiedPlayer> players = new ArrayList<>();
+      inserts.values().forEach(map -> players.addAll(map.values()));
+      if (!spool(deletes, players)) {
+        restore(deletes, inserts);
+      }
+    }
+  }
+
+  /**
+   * Writes a batch of spooled operations; existing rows are ignored, so replaying them again has no effect
+   */
+  private void replay(final @NotNull Collection<InetAddress> deletes,
+                      final @NotNull Collection<VerifiedPlayer> players) throws Exception {
+    try {
+      dao.callBatchTasks(() -> {
+        deleteAll(deletes);
+        insertIgnore(dao, players);
+        return null;
+      });
+    } catch (Exception exception) {
+      if (isConnectionFailure(exception)) {
+        throw exception;
+      }
+      // Don't let a single invalid batch block the spool forever
+      Sonar.get().getLogger().error("Error trying to write spooled changes: {}", exception);
+    }
+  }
+
+  /**
+   * Moves operations that could not be written to the spool
+   *
+   * @return Whether the operations have been spooled
+   */
+  private boolean spool(final @NotNull Collection<InetAddress> deletes,
+                        final @NotNull Collection<VerifiedPlayer> players) {
+    if (spool == null) {
+      return false;
+    }
+    try {
+      if (spool.append(deletes, players)) {
+        return true;
+      }
+      Sonar.get().getLogger().warn("The database spool is full; keeping changes in memory.");
+    } catch (IOException exception) {
+      Sonar.get().getLogger().error("Error trying to write to the database spool: {}", exception);
+    }
+    return false;
+  }
+
+  /**
+   * Inserts the players using a single INSERT IGNORE statement (MySQL),
+   * so players that already exist are skipped instead of failing the whole statement
+   *
+   * @return Number of inserted rows
+   */
+  static int insertIgnore(final @NotNull Dao<VerifiedPlayer, Integer> dao,
+                          final @NotNull Collection<VerifiedPlayer> players) throws SQLException {
+    if (players.isEmpty()) {
+      return 0;
+    }
+    final StringBuilder statement = new StringBuilder("INSERT IGNORE INTO ").append(dao.getTableName())
+      .append(" (ip_address, player_uuid, timestamp) VALUES ");
+    final List<String> arguments = new ArrayList<>(players.size() * 3);
+    for (final VerifiedPlayer player : players) {
+      if (!arguments.isEmpty()) {
+        statement.append(", ");
+      }
+      // Binary values can only be passed as hexadecimal strings
+      statement.append("(UNHEX(?), UNHEX(?), ?)");
+      arguments.add(toHex(player.getAddress()));
+      arguments.add(toHex(VerifiedPlayer.toBytes(player.getPlayerUUID())));
+      arguments.add(player.getTimestamp().toString());
+    }
+    return dao.executeRaw(statement.toString(), arguments.toArray(new String[0]));
+  }
+
+  private static @NotNull String toHex(final byte @NotNull [] bytes) {
+    final char[] digits = new char[bytes.length << 1];
+    for (int i = 0; i < bytes.length; i++) {
+      digits[i << 1] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+      digits[(i << 1) + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+    }
+    return new String(digits);
+  }
+
+  /**
+   * Puts operations that could not be written back into the buffer.
+   * They are older than the pending operations, so the pending ones are applied on top of them.
+   */
+  private synchronized void restore(final @NotNull Set<InetAddress> deletes,
+                                    final @NotNull Map<InetAddress, Map<UUID, VerifiedPlayer>> inserts) {
+    final Set<InetAddress> newerDeletes = this.deletes;
+    final Map<InetAddress, Map<UUID, VerifiedPlayer>> newerInserts = this.inserts;
+    this.deletes = deletes;
+    this.inserts = inserts;
+    pending = deletes.size();
+    inserts.values().forEach(map -> pending += map.size());
+    newerDeletes.forEach(this::remove);
+    newerInserts.values().forEach(map -> map.values().forEach(this::add));
+  }
+
+  /**
+   * @return Whether the exception was caused by a broken or unavailable connection (SQLSTATE class 08)
+   */
+  static boolean isConnectionFailure(final Throwable throwable) {
+    for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+      if (cause instanceof SQLTransientConnectionException) {
+        return true;
+      }
+      if (cause instanceof SQLException) {
+        final String state = ((SQLException) cause).getSQLState();
+        if (state != null && state.startsWith("08")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void deleteAll(final @NotNull Collection<InetAddress> inetAddresses) throws SQLException {
+    final List<SelectArg> chunk = new ArrayList<>(Math.min(inetAddresses.size(), MAX_DELETE_CHUNK));
+    final List<VerifiedPlayerTombstone> tombstones = new ArrayList<>(Math.min(inetAddresses.size(), MAX_DELETE_CHUNK));
+    final long timestamp = System.currentTimeMillis();
+    for (final InetAddress inetAddress : inetAddresses) {
+      chunk.add(toArgument(inetAddress));
+      if (tombstoneDao != null) {
+        tombstones.add(new VerifiedPlayerTombstone(VerifiedPlayer.toBytes(inetAddress), timestamp));
+      }
+      if (chunk.size() == MAX_DELETE_CHUNK) {
+        delete(chunk, tombstones);
+        chunk.clear();
+        tombstones.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      delete(chunk, tombstones);
+    }
+  }
+
+  private void delete(final @NotNull Collection<SelectArg> inetAddresses,
+                      final @NotNull Collection<VerifiedPlayerTombstone> tombstones) throws SQLException {
+    final DeleteBuilder<VerifiedPlayer, Integer> deleteBuilder = dao.deleteBuilder();
+    deleteBuilder.where().in("ip_address", inetAddresses);
+    deleteBuilder.delete();
+    if (tombstoneDao != null) {
+      tombstoneDao.create(tombstones);
+    }
+  }
+
+  /**
+   * Binary columns can only be compared using an argument
+   */
+  static @NotNull SelectArg toArgument(final @NotNull InetAddress inetAddress) {
+    return new SelectArg(SqlType.BYTE_ARRAY, VerifiedPlayer.toBytes(inetAddress));
+  }
+
+  private void retry(final @NotNull Collection<InetAddress> inetAddresses,
+                     final @NotNull Collection<VerifiedPlayer> players) {
+    for (final InetAddress inetAddress : inetAddresses) {
+      try {
+        deleteAll(Collections.singletonList(inetAddress));
+      } catch (SQLException exception) {
+        Sonar.get().getLogger().error("Error trying to remove entry: {}", exception);
+      }
+    }
+    for (final VerifiedPlayer player : players) {
+      try {
+        dao.create(player);
+      } catch (SQLException exception) {
+        Sonar.get().getLogger().error("Error trying to add entry: {}", exception);
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.dependencies;
+
+import com.j256.ormlite.jdbc.JdbcDatabaseConnection;
+import com.j256.ormlite.jdbc.JdbcPooledConnectionSource;
+import com.j256.ormlite.logger.Logger;
+import com.j256.ormlite.support.DatabaseConnection;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small pool of database connections that are created using the manually loaded driver.
+ * Connections are validated before they are handed out, so a restarted database
+ * or an idle timeout only costs a reconnect. While the database is unreachable,
+ * connection attempts fail fast with an increasing delay between the attempts.
+ */
+final class DatabaseConnectionPool extends JdbcPooledConnectionSource {
+  private static final int MAX_CONNECTIONS_FREE = 3;
+  // Stay below the default wait_timeout (8 hours) of MySQL
+  private static final long MAX_CONNECTION_AGE = TimeUnit.MINUTES.toMillis(30L);
+  private static final long CHECK_CONNECTIONS_EVERY = TimeUnit.SECONDS.toMillis(30L);
+  private static final long MIN_BACKOFF = 500L;
+  private static final long MAX_BACKOFF = TimeUnit.SECONDS.toMillis(30L);
+
+  private final Connector connector;
+  private volatile int failedAttempts;
+  private volatile long retryAt;
+
+  @FunctionalInterface
+  interface Connector {
+    @NotNull Connection connect() throws Throwable;
+  }
+
+  DatabaseConnectionPool(final @NotNull String url, final @NotNull Connector connector) throws SQLException {
+    super(url);
+    this.connector = connector;
+    setMaxConnectionsFree(MAX_CONNECTIONS_FREE);
+    setMaxConnectionAgeMillis(MAX_CONNECTION_AGE);
+    // Close free connections that are no longer valid (e.g. after an idle timeout)
+    setCheckConnectionsEveryMillis(CHECK_CONNECTIONS_EVERY);
+    setTestBeforeGet(true);
+  }
+
+  @Override
+  protected DatabaseConnection makeConnection(final Logger logger) throws SQLException {
+    final long now = System.currentTimeMillis();
+    if (now < retryAt) {
+      throw new SQLTransientConnectionException("Database is unavailable; retrying in "
+        + (retryAt - now) + "ms", "08001");
+    }
+
+    final Connection connection;
+    try {
+      connection = connector.connect();
+    } catch (Throwable throwable) {
+      // Double the delay after every failed attempt
+      final long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failedAttempts++, 16));
+      retryAt = now + backoff;
+      throw new SQLTransientConnectionException("Could not connect to the database", "08001", throwable);
+    }
+    failedAttempts = 0;
+    retryAt = 0L;
+
+    final DatabaseConnection databaseConnection = new JdbcDatabaseConnection(connection);
+    databaseConnection.setAutoCommit(true);
+    return databaseConnection;
+  }
+}
@@ -17,10 +17,8 @@
 
 package xyz.jonesdev.sonar.api.dependencies;
 
-import com.j256.ormlite.jdbc.JdbcSingleConnectionSource;
 import com.j256.ormlite.support.ConnectionSource;
 import lombok.experimental.UtilityClass;
-import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.SonarPlatform;
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
@@ -31,11 +29,15 @@
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.Driver;
-import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.Properties;
 
 @UtilityClass
 public class DependencyLoader {
+  // Cache the prepared statements of the few queries we use, and don't let a dead database block the threads
+  private final String CONNECTION_PARAMETERS = "?cachePrepStmts=true&prepStmtCacheSize=64&useServerPrepStmts=true"
+    + "&rewriteBatchedStatements=true&connectTimeout=5000&socketTimeout=60000&tcpKeepAlive=true";
+
   public ConnectionSource setUpDriverAndConnect() throws Throwable {
     final SonarConfiguration.Database database = Sonar.get().getConfig().getDatabase();
 
@@ -55,27 +57,26 @@ public ConnectionSource setUpDriverAndConnect() throws Throwable {
 
     final String jdbcURL = String.format("jdbc:%s://%s:%d/%s",
       database.getType().name().toLowerCase(), database.getUrl(), database.getPort(), database.getName());
+    final String connectionURL = jdbcURL + CONNECTION_PARAMETERS;
 
-    final Connection connection = connect(classLoader, jdbcURL, database);
-    return new JdbcSingleConnectionSource(jdbcURL, connection);
-  }
-
-  // Mostly taken from
-  // https://github.com/Elytrium/LimboAuth/blob/master/src/main/java/net/elytrium/limboauth/dependencies/DatabaseLibrary.java#L137
-  private Connection connect(final @NotNull ClassLoader classLoader,
-                             final @NotNull String databaseURL,
-                             final @NotNull SonarConfiguration.Database database) throws Throwable {
+    // Mostly taken from
+    // https://github.com/Elytrium/LimboAuth/blob/master/src/main/java/net/elytrium/limboauth/dependencies/DatabaseLibrary.java#L137
     final Class<?> driverClass = classLoader.loadClass(database.getType().getDriverClassName());
-    final Object driver = driverClass.getDeclaredConstructor().newInstance();
-
-    DriverManager.registerDriver((Driver) driver);
+    // The pool connects through the driver directly, so it doesn't have to be registered with the DriverManager.
+    // Registering it would pin the external class loader and leak another driver on every reload.
+    final Driver driver = (Driver) driverClass.getDeclaredConstructor().newInstance();
 
     final Properties properties = new Properties();
     properties.put("user", database.getUsername());
     properties.put("password", database.getPassword());
 
-    final Method connect = driverClass.getDeclaredMethod("connect", String.class, Properties.class);
-    connect.setAccessible(true);
-    return (Connection) connect.invoke(driver, databaseURL, properties);
+    // The pool connects lazily and retries with a backoff, so the database doesn't have to be reachable yet
+    return new DatabaseConnectionPool(jdbcURL, () -> {
+      final Connection connection = driver.connect(connectionURL, properties);
+      if (connection == null) {
+        throw new SQLException("Driver does not accept " + jdbcURL);
+      }
+      return connection;
+    });
   }
 }
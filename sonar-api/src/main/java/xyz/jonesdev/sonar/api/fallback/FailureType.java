@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+/**
+ * Kind of check a player has failed; every type has its own
+ * (configurable) weight in the failure score of the IP address.
+ */
+public enum FailureType {
+  // Invalid, unexpected or malformed packets
+  PROTOCOL,
+  // Failed gravity or collision checks
+  MOVEMENT,
+  // Entered the wrong captcha code too often
+  CAPTCHA,
+  // Took too long to respond or to enter the captcha
+  TIMEOUT
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.ratelimit.GcraLimiter;
+import xyz.jonesdev.sonar.api.fallback.ratelimit.TokenBucketTable;
+import xyz.jonesdev.sonar.api.utility.InetAddressUtil;
+
+import java.net.InetAddress;
+
+/**
+ * Limits new connections right after they have been accepted:
+ * every IP address gets its own share, and all connections of unknown IP addresses
+ * together cannot exceed a global ceiling, which is lowered during attacks.
+ * IP addresses of verified players are never charged to the global ceiling,
+ * so a flood of new IP addresses cannot shut them out.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class FallbackConnectionLimiter {
+  public static final FallbackConnectionLimiter INSTANCE = new FallbackConnectionLimiter();
+  private static final int TABLE_CAPACITY = 1 << 15;
+
+  private final GcraLimiter global = new GcraLimiter();
+  private final TokenBucketTable perAddress = new TokenBucketTable(TABLE_CAPACITY);
+
+  /**
+   * @param inetAddress IP address of the connection or null if it is not known yet (e.g. PROXY protocol)
+   * @return Whether the connection is allowed
+   */
+  public boolean attempt(final @Nullable InetAddress inetAddress) {
+    final SonarConfiguration.ConnectionLimit config = Sonar.get().getConfig().getConnectionLimit();
+    // Connections cannot be told apart if the IP address is not known yet
+    if (!config.isEnabled() || inetAddress == null) {
+      return true;
+    }
+    // Check the share of the IP address first, so a single IP address cannot use up the global limit
+    if (!perAddress.tryAcquire(InetAddressUtil.prefixKey(inetAddress, 32, 64),
+      config.getPerIpConnectionsPerSecond(), Math.max(1000L / config.getPerIpConnectionsPerSecond(), 1L))) {
+      return false;
+    }
+    // Verified players (and their server list pings) don't use up the global limit
+    if (Sonar.get().getVerifiedPlayerController().has(inetAddress)) {
+      return true;
+    }
+    final int ceiling = Sonar.get().getAttackTracker().isCurrentlyUnderAttack()
+      ? config.getAttackConnectionsPerSecond() : config.getConnectionsPerSecond();
+    // Allow a burst of one second worth of connections
+    return global.tryAcquire(ceiling, ceiling);
+  }
+}
@@ -17,59 +17,220 @@
 
 package xyz.jonesdev.sonar.api.fallback;
 
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.queue.AdmissionController;
+import xyz.jonesdev.sonar.api.fallback.queue.FairQueue;
+import xyz.jonesdev.sonar.api.fallback.queue.MpscRingBuffer;
+import xyz.jonesdev.sonar.api.fallback.queue.QueuedPlayer;
 
 import java.net.InetAddress;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Getter
 @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
 public final class FallbackQueue {
   public static final FallbackQueue INSTANCE = new FallbackQueue();
-  private final Map<InetAddress, Runnable> queuedPlayers = new ConcurrentHashMap<>(16, 0.5f);
+  // Leaves enough room for removed entries next to the maximum queue size
+  private static final int SHARD_CAPACITY = 1 << 15;
+  // How often every event loop drains its share of the queue
+  private static final long DRAIN_INTERVAL = 50L;
+  private static final long DRAIN_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL);
+  // The budget (maximum queue polls) is configured per 500 milliseconds
+  private static final double DRAIN_TICKS_PER_BUDGET = 500D / DRAIN_INTERVAL;
+
+  // Index of all queued players; used for deduplication and removals
+  private final Map<InetAddress, QueuedPlayer> queuedPlayers = new ConcurrentHashMap<>(16, 0.5f);
+  // Every event loop has its own ring buffer, so players are admitted on their own thread.
+  // The event loop then moves the players into lanes (grouped by subnet) to drain them fairly.
+  @Getter(AccessLevel.NONE)
+  private final Map<EventLoop, Shard> shards = new ConcurrentHashMap<>();
+  // Sizes the budget (polls per 500 milliseconds) based on the load of the server
+  private final AdmissionController admissionController = new AdmissionController();
+  // Prevents new shards (and drain tasks) from being created once the queue has been shut down
+  @Getter(AccessLevel.NONE)
+  private volatile boolean shutdown;
 
   /**
+   * @param channel     Channel of the player
    * @param inetAddress IP address of the player
-   * @param runnable    Queued action on the netty thread
+   * @param runnable    Queued action; runs on the event loop of the channel
+   * @param evicted     Disconnects the player if they are evicted from the queue; runs on the event loop
+   * @return Whether the player has been queued, is already queued or the queue is full
    * @see #remove
    */
-  public void queue(final InetAddress inetAddress, final Runnable runnable) {
-    queuedPlayers.put(inetAddress, runnable);
+  public @NotNull Result queue(final @NotNull Channel channel,
+                               final @NotNull InetAddress inetAddress,
+                               final @NotNull Runnable runnable,
+                               final @NotNull Runnable evicted) {
+    if (shutdown) {
+      return Result.FULL;
+    }
+    final SonarConfiguration.Queue config = Sonar.get().getConfig().getQueue();
+    // The oldest players are only evicted by the next drain task, so the queue can temporarily
+    // hold more players than the maximum size; twice the maximum size is the hard limit.
+    final int limit = config.getOverflowPolicy() == SonarConfiguration.Queue.OverflowPolicy.REJECT_NEWEST
+      ? config.getMaxSize() : config.getMaxSize() << 1;
+    if (queuedPlayers.size() >= limit) {
+      return Result.FULL;
+    }
+
+    final boolean priority = Sonar.get().getVerifiedPlayerController().has(inetAddress);
+    final QueuedPlayer queuedPlayer = new QueuedPlayer(channel, inetAddress, runnable, evicted, priority);
+    // Don't allow the same IP address to be queued twice
+    if (queuedPlayers.putIfAbsent(inetAddress, queuedPlayer) != null) {
+      return Result.ALREADY_QUEUED;
+    }
+    final Shard shard = shards.computeIfAbsent(channel.eventLoop(),
+      eventLoop -> shutdown ? null : new Shard(eventLoop));
+    if (shard == null || !shard.ringBuffer.offer(queuedPlayer)) {
+      queuedPlayers.remove(inetAddress, queuedPlayer);
+      return Result.FULL;
+    }
+    return Result.QUEUED;
   }
 
   /**
    * @param inetAddress IP address of the player
    */
   public void remove(final InetAddress inetAddress) {
-    queuedPlayers.remove(inetAddress);
+    final QueuedPlayer queuedPlayer = queuedPlayers.remove(inetAddress);
+    // The entry stays in the ring buffer, but it is skipped when polling
+    if (queuedPlayer != null) {
+      queuedPlayer.remove();
+    }
   }
 
   public void poll() {
-    final int maxQueuePolls = Sonar.get().getConfig().getQueue().getMaxQueuePolls();
-    int index = 0;
-
-    // We need to be cautious here since we don't want any concurrency issues.
-    final Iterator<Map.Entry<InetAddress, Runnable>> iterator = queuedPlayers.entrySet().iterator();
-    while (iterator.hasNext()) {
-      // Break if we reached our maximum entries
-      if (++index > maxQueuePolls) {
-        break;
-      }
-      // Run the cached runnable
-      final Map.Entry<InetAddress, Runnable> entry = iterator.next();
-      entry.getValue().run();
-      // Remove runnable from iterator
-      iterator.remove();
+    // Adjust the budget using the highest delay of all event loops
+    long eventLoopLag = 0L;
+    for (final Shard shard : shards.values()) {
+      eventLoopLag = Math.max(eventLoopLag, shard.lag);
     }
+    admissionController.update(TimeUnit.NANOSECONDS.toMillis(eventLoopLag));
 
     // Run the attack check task
     Sonar.get().getAttackTracker().checkIfUnderAttack();
-    // Clean up the cache of rate-limited IPs
-    Sonar.get().getFallback().getRatelimiter().cleanUpCache();
+  }
+
+  /**
+   * Stops draining the queue on all event loops
+   */
+  public void shutdown() {
+    shutdown = true;
+    shards.values().forEach(shard -> shard.drainTask.cancel(false));
+    shards.clear();
+  }
+
+  private void drain(final @NotNull Shard shard) {
+    // A shard might have been created while the queue was shutting down
+    if (shutdown) {
+      shard.drainTask.cancel(false);
+      return;
+    }
+    // Measure how late this task runs to detect busy event loops
+    final long now = System.nanoTime();
+    if (shard.lastDrain != 0L) {
+      shard.lag = Math.max(now - shard.lastDrain - DRAIN_INTERVAL_NANOS, 0L);
+    }
+    shard.lastDrain = now;
+
+    final SonarConfiguration.Queue config = Sonar.get().getConfig().getQueue();
+
+    // Move all newly queued players into the lanes of their subnets
+    QueuedPlayer queuedPlayer;
+    while ((queuedPlayer = shard.ringBuffer.poll()) != null) {
+      if (!queuedPlayer.isRemoved()) {
+        shard.fairQueue.add(queuedPlayer, queuedPlayer.isPriority());
+      }
+    }
+
+    // Make room for new players by evicting the oldest players of the most crowded subnet.
+    // Every event loop only evicts its share of the overflow, so lightly loaded ones keep their players.
+    final int queued = queuedPlayers.size();
+    final int overflow = queued - config.getMaxSize();
+    if (overflow > 0) {
+      shard.fairQueue.purge();
+      int evictions = (int) Math.min(overflow, ((long) overflow * shard.fairQueue.size() + queued - 1) / queued);
+      while (evictions > 0 && (queuedPlayer = shard.fairQueue.evict()) != null) {
+        if (dequeue(queuedPlayer)) {
+          try {
+            queuedPlayer.getEvictionAction().run();
+          } catch (Throwable throwable) {
+            queuedPlayer.getChannel().close();
+          }
+          evictions--;
+        }
+      }
+    }
+
+    // Split the budget between all event loops that currently have queued players
+    int activeShards = 0;
+    for (final Shard other : shards.values()) {
+      if (other.ringBuffer.size() > 0 || other.fairQueue.size() > 0) {
+        activeShards++;
+      }
+    }
+    if (activeShards == 0) {
+      shard.credit = 0D;
+      return;
+    }
+    final double budget = admissionController.getBudget();
+    final double share = (budget < 0D ? config.getMaxQueuePolls() : budget) / DRAIN_TICKS_PER_BUDGET / activeShards;
+    // Fractions of a poll are carried over to the next tick, but we don't let the credit pile up
+    shard.credit = Math.min(shard.credit + share, Math.max(share, 1D));
+
+    // Run the cached actions; every subnet gets its turn (deficit round-robin)
+    while (shard.credit >= 1D && (queuedPlayer = shard.fairQueue.poll(config.getPriorityWeight())) != null) {
+      if (dequeue(queuedPlayer)) {
+        try {
+          queuedPlayer.getAction().run();
+        } catch (Throwable throwable) {
+          Sonar.get().getFallback().getLogger().error("Could not process queued player {}: {}",
+            queuedPlayer.getInetAddress(), throwable);
+          queuedPlayer.getChannel().close();
+        }
+        shard.credit--;
+      }
+    }
+  }
+
+  private boolean dequeue(final @NotNull QueuedPlayer queuedPlayer) {
+    // Skip entries that have already been removed
+    if (!queuedPlayer.remove()) {
+      return false;
+    }
+    queuedPlayers.remove(queuedPlayer.getInetAddress(), queuedPlayer);
+    return true;
+  }
+
+  public enum Result {
+    QUEUED, ALREADY_QUEUED, FULL
+  }
+
+  private final class Shard {
+    private final MpscRingBuffer<QueuedPlayer> ringBuffer = new MpscRingBuffer<>(SHARD_CAPACITY);
+    // Only ever accessed by the event loop of this shard
+    private final FairQueue fairQueue = new FairQueue();
+    private final ScheduledFuture<?> drainTask;
+    // Only ever accessed by the event loop of this shard
+    private double credit;
+    private long lastDrain;
+    // Delay of the last drain task; read by the admission controller
+    private volatile long lag;
+
+    Shard(final @NotNull EventLoop eventLoop) {
+      this.drainTask = eventLoop.scheduleAtFixedRate(() -> drain(this),
+        DRAIN_INTERVAL, DRAIN_INTERVAL, TimeUnit.MILLISECONDS);
+    }
   }
 }
@@ -19,42 +19,109 @@
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
-import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
-import xyz.jonesdev.cappuccino.ExpiringCache;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.ratelimit.DecayingScoreTable;
+import xyz.jonesdev.sonar.api.fallback.ratelimit.TokenBucketTable;
+import xyz.jonesdev.sonar.api.utility.InetAddressUtil;
 
 import java.net.InetAddress;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public final class FallbackRatelimiter {
   public static final FallbackRatelimiter INSTANCE = new FallbackRatelimiter();
-  @Setter
-  private ExpiringCache<InetAddress> expiringCache;
+  // 65536 buckets (1 MiB); when the table is full, the stalest buckets are reused
+  private static final int TABLE_CAPACITY = 1 << 16;
+  // Subnets (/24 and /16 for IPv4, /48 and /32 for IPv6) have their own, smaller tables
+  private static final int SUBNET_TABLE_CAPACITY = 1 << 14;
+  private static final int IPV4_SUBNET = 24, IPV4_WIDE_SUBNET = 16;
+  private static final int IPV6_SUBNET = 48, IPV6_WIDE_SUBNET = 32;
+  // Rejected joins of a subnet are forgiven at a rate of one per second
+  private static final long VIOLATION_DECAY = 1000L;
 
-  /**
-   * We don't want to clean up the cache in the
-   * {@link #attempt(InetAddress)} method because
-   * it would take up too many resources.
-   */
-  public void cleanUpCache() {
-    expiringCache.cleanUp(false);
-  }
+  private final TokenBucketTable buckets = new TokenBucketTable(TABLE_CAPACITY);
+  private final TokenBucketTable subnetBuckets = new TokenBucketTable(SUBNET_TABLE_CAPACITY);
+  private final TokenBucketTable subnetViolations = new TokenBucketTable(SUBNET_TABLE_CAPACITY);
+  private final DecayingScoreTable failureScores = new DecayingScoreTable(SUBNET_TABLE_CAPACITY);
 
   /**
-   * Checks if the player has tried verifying too fast
+   * Checks if the player has tried verifying too fast.
+   * Every IP address (or /64 for IPv6) can verify as often as the burst allows,
+   * and regains one attempt every time the rejoin delay has passed.
+   * The subnets of the IP address additionally have a ceiling of joins per second.
    *
    * @param inetAddress IP address of the player
    * @return Whether the player is allowed to verify
    */
   @SuppressWarnings("BooleanMethodIsAlwaysInverted")
   public boolean attempt(final @NotNull InetAddress inetAddress) {
-    // Cache the IP address if it's not already cached
-    if (!expiringCache.has(inetAddress)) {
-      // Cache the IP address
-      expiringCache.put(inetAddress);
+    final SonarConfiguration.Verification config = Sonar.get().getConfig().getVerification();
+    final byte[] address = inetAddress.getAddress();
+    final long key = InetAddressUtil.prefixKey(address, 32, 64);
+    if (!buckets.tryAcquire(key, config.getRejoinBurst(), config.getReconnectDelay())) {
+      return false;
+    }
+
+    final SonarConfiguration.Verification.SubnetLimits subnetLimits = config.getSubnetLimits();
+    if (!subnetLimits.isEnabled()) {
       return true;
     }
-    // Deny the connection attempt
+    return attemptSubnet(inetAddress, address, IPV4_SUBNET, IPV6_SUBNET,
+      subnetLimits.getJoinsPerSecond(), subnetLimits)
+      && attemptSubnet(inetAddress, address, IPV4_WIDE_SUBNET, IPV6_WIDE_SUBNET,
+      subnetLimits.getWideJoinsPerSecond(), subnetLimits);
+  }
+
+  private boolean attemptSubnet(final @NotNull InetAddress inetAddress,
+                                final byte @NotNull [] address,
+                                final int ipv4Prefix,
+                                final int ipv6Prefix,
+                                final int joinsPerSecond,
+                                final SonarConfiguration.Verification.@NotNull SubnetLimits subnetLimits) {
+    final long key = InetAddressUtil.prefixKey(address, ipv4Prefix, ipv6Prefix);
+    // Allow a burst of one second worth of joins
+    if (subnetBuckets.tryAcquire(key, joinsPerSecond, Math.max(1000L / joinsPerSecond, 1L))) {
+      return true;
+    }
+    // Blacklist the whole subnet if it keeps exceeding the limit
+    if (subnetLimits.isBlacklist()
+      && !subnetViolations.tryAcquire(key, subnetLimits.getBlacklistThreshold(), VIOLATION_DECAY)) {
+      final int prefix = address.length == 4 ? ipv4Prefix : ipv6Prefix;
+      Sonar.get().getFallback().getBlacklisted().putSubnet(inetAddress, prefix, subnetLimits.getBlacklistTime());
+      Sonar.get().getFallback().getLogger().info("Blacklisted subnet of {} (/{}) for too many joins",
+        Sonar.get().getConfig().formatAddress(inetAddress), prefix);
+    }
     return false;
   }
+
+  /**
+   * Adds the weight of a failed verification to the (decaying) failure score of the IP address
+   *
+   * @param inetAddress IP address of the player
+   * @param weight      Weight of the failure
+   * @return The updated failure score
+   */
+  public float recordFailure(final @NotNull InetAddress inetAddress, final int weight) {
+    final long halfLife = Sonar.get().getConfig().getVerification().getFailureScore().getHalfLife();
+    return failureScores.add(InetAddressUtil.prefixKey(inetAddress, 32, 64), weight, halfLife);
+  }
+
+  /**
+   * Denies all verification attempts of the IP address for a while
+   *
+   * @param inetAddress IP address of the player
+   * @param millis      Time (in milliseconds) the IP address should be rate-limited
+   */
+  public void penalize(final @NotNull InetAddress inetAddress, final long millis) {
+    buckets.penalize(InetAddressUtil.prefixKey(inetAddress, 32, 64), millis);
+  }
+
+  /**
+   * @return Number of bytes used by the rate limiter
+   */
+  public long getMemoryUsage() {
+    return buckets.getMemoryUsage() + subnetBuckets.getMemoryUsage() + subnetViolations.getMemoryUsage()
+      + failureScores.getMemoryUsage();
+  }
 }
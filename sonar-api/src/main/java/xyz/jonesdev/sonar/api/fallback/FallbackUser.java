@@ -22,16 +22,14 @@
 import net.kyori.adventure.text.Component;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
-import xyz.jonesdev.cappuccino.Cappuccino;
-import xyz.jonesdev.cappuccino.ExpiringCache;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.event.impl.UserBlacklistedEvent;
 import xyz.jonesdev.sonar.api.event.impl.UserVerifyFailedEvent;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.api.statistics.Statistics;
 
 import java.net.InetAddress;
-import java.util.concurrent.TimeUnit;
 
 public interface FallbackUser<X, Y> {
   @NotNull Fallback getFallback();
@@ -80,17 +78,26 @@ default void disconnect(final @NotNull String reason) {
    */
   void delayedWrite(final @NotNull Object msg);
 
-  ExpiringCache<String> PREVIOUS_FAILS = Cappuccino.buildExpiring(3L, TimeUnit.MINUTES);
+  /**
+   * Fails the verification because of invalid packets
+   *
+   * @param reason Reason for failing the verification
+   * @see #fail(String, FailureType)
+   */
+  default void fail(final @Nullable String reason) {
+    fail(reason, FailureType.PROTOCOL);
+  }
 
   /**
    * Disconnects the player who failed the verification
-   * and caches them in FAILED_VERIFICATIONS.
-   * If the player fails the verification twice,
-   * the player will be temporarily denied from verifying.
+   * and adds the weight of the failure to the failure score of the IP address.
+   * If the score is too high, the player will be temporarily denied from verifying
+   * or blacklisted.
    *
    * @param reason Reason for failing the verification
+   * @param type   Type of the failed check
    */
-  default void fail(final @Nullable String reason) {
+  default void fail(final @Nullable String reason, final @NotNull FailureType type) {
     if (getChannel().isActive()) {
       disconnect(Sonar.get().getConfig().getVerification().getVerificationFailed());
 
@@ -107,11 +114,12 @@ default void fail(final @Nullable String reason) {
     // Call the VerifyFailedEvent for external API usage
     Sonar.get().getEventManager().publish(new UserVerifyFailedEvent(this, reason));
 
-    // Make sure old entries are removed
-    PREVIOUS_FAILS.cleanUp();
-
-    // Check if the player has too many failed attempts
-    if (PREVIOUS_FAILS.has(getInetAddress().toString())) {
+    // Check if the player has failed too often recently
+    final SonarConfiguration.Verification.FailureScore failureScore =
+      Sonar.get().getConfig().getVerification().getFailureScore();
+    final float score = getFallback().getRatelimiter().recordFailure(getInetAddress(),
+      failureScore.getWeight(type));
+    if (score >= failureScore.getBlacklistThreshold()) {
       // Call the BotBlacklistedEvent for external API usage
       Sonar.get().getEventManager().publish(new UserBlacklistedEvent(this));
 
@@ -119,9 +127,8 @@ default void fail(final @Nullable String reason) {
       getFallback().getLogger().info(Sonar.get().getConfig().getVerification().getBlacklistLog()
         .replace("%ip%", Sonar.get().getConfig().formatAddress(getInetAddress()))
         .replace("%protocol%", String.valueOf(getProtocolVersion().getProtocol())));
-    } else {
-      // Cache the InetAddress for 3 minutes
-      PREVIOUS_FAILS.put(getInetAddress().toString());
+    } else if (score >= failureScore.getRatelimitThreshold()) {
+      getFallback().getRatelimiter().penalize(getInetAddress(), failureScore.getRatelimitTime());
     }
   }
 }
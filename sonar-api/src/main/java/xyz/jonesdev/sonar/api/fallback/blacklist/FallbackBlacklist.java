@@ -0,0 +1,524 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.blacklist;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.fallback.ratelimit.ExpiringKeyTable;
+import xyz.jonesdev.sonar.api.utility.InetAddressUtil;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact, persistent blacklist of IP addresses.
+ * IPv4 addresses are stored in compressed bitmaps, IPv6 addresses by their /64 prefix.
+ * Entries expire in buckets: every bucket (generation) covers a fraction of the expiry time,
+ * and the oldest bucket is dropped as a whole once all of its entries have expired.
+ * Whole subnets can be blacklisted for an individual amount of time.
+ */
+public final class FallbackBlacklist {
+  private static final int MAGIC = 0x534E4242; // SNBB
+  private static final int VERSION = 3;
+  private static final int GENERATIONS = 10;
+  private static final int SUBNET_TABLE_CAPACITY = 1 << 14;
+
+  @Getter
+  private final long expireAfter;
+  private final long generationLength;
+  // Oldest generation first
+  private final ArrayDeque<Generation> generations = new ArrayDeque<>(GENERATIONS + 1);
+  // Copy of the generations for lookups, which don't hold the lock; replaced whenever a generation is added or dropped
+  private volatile Generation[] lookupGenerations;
+  // Lookups only read optimistically, so accepting connections never contends on the lock
+  private final StampedLock lock = new StampedLock();
+  // Incremented every time the blacklist changes; used to skip unnecessary snapshots
+  private volatile long modifications;
+  // Blacklisted subnets and a bit for every prefix length that is in use
+  private final ExpiringKeyTable subnets = new ExpiringKeyTable(SUBNET_TABLE_CAPACITY);
+  private volatile long ipv4SubnetPrefixes, ipv6SubnetPrefixes;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+  public FallbackBlacklist(final long expireAfter) {
+    this.expireAfter = expireAfter;
+    this.generationLength = Math.max(expireAfter / GENERATIONS, 1L);
+    generations.addLast(new Generation(System.currentTimeMillis()));
+    lookupGenerations = generations.toArray(new Generation[0]);
+  }
+
+  /**
+   * @param inetAddress IP address to look up
+   * @return Whether the IP address or one of its subnets is blacklisted
+   */
+  public boolean has(final @NotNull InetAddress inetAddress) {
+    return hasAddress(inetAddress) || hasSubnet(inetAddress);
+  }
+
+  /**
+   * Subnet entries don't apply to verified players, so they are not locked out
+   * by bots of the same range (e.g. the same ISP or a carrier-grade NAT)
+   *
+   * @param inetAddress IP address to look up
+   * @param verified    Whether the player is already verified
+   * @return Whether the player should be denied
+   */
+  public boolean has(final @NotNull InetAddress inetAddress, final boolean verified) {
+    return hasAddress(inetAddress) || !verified && hasSubnet(inetAddress);
+  }
+
+  /**
+   * @param inetAddress IP address to look up
+   * @return Whether the IP address itself is blacklisted
+   */
+  public boolean hasAddress(final @NotNull InetAddress inetAddress) {
+    final byte[] address = inetAddress.getAddress();
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0L) {
+      try {
+        final boolean result = contains(address);
+        if (lock.validate(stamp)) {
+          return result;
+        }
+      } catch (RuntimeException exception) {
+        // The generations have been modified during the lookup; the read is retried below
+      }
+    }
+    // A write happened during the lookup, so we have to retry while holding the lock
+    stamp = lock.readLock();
+    try {
+      return contains(address);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Might run without holding the lock, so the generations can be modified concurrently.
+   * Every lookup is bounded, and the result (or exception) is discarded if the read was not valid.
+   */
+  private boolean contains(final byte @NotNull [] address) {
+    for (final Generation generation : lookupGenerations) {
+      if (generation.contains(address)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param inetAddress IP address to look up
+   * @return Whether one of the subnets of the IP address is blacklisted
+   */
+  public boolean hasSubnet(final @NotNull InetAddress inetAddress) {
+    return hasSubnet(inetAddress.getAddress());
+  }
+
+  private boolean hasSubnet(final byte @NotNull [] address) {
+    long prefixes = address.length == 4 ? ipv4SubnetPrefixes : ipv6SubnetPrefixes;
+    while (prefixes != 0L) {
+      final int prefix = Long.numberOfTrailingZeros(prefixes);
+      if (subnets.contains(InetAddressUtil.prefixKey(address, prefix, prefix))) {
+        return true;
+      }
+      prefixes &= prefixes - 1L;
+    }
+    return false;
+  }
+
+  /**
+   * Blacklists the whole subnet of the IP address
+   *
+   * @param inetAddress IP address of the subnet
+   * @param prefix      Prefix length of the subnet (up to 32 for IPv4 and below 64 for IPv6)
+   * @param duration    Time (in milliseconds) the subnet should be blacklisted
+   */
+  public void putSubnet(final @NotNull InetAddress inetAddress, final int prefix, final long duration) {
+    final byte[] address = inetAddress.getAddress();
+    final long key = InetAddressUtil.prefixKey(address, prefix, prefix);
+    final long expiresAt = System.currentTimeMillis() + duration;
+    putSubnet(key, expiresAt);
+    final long stamp = lock.writeLock();
+    try {
+      modifications++;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    for (final Listener listener : listeners) {
+      listener.added(InetAddressUtil.formatPrefixKey(key), address.length != 4, expiresAt);
+    }
+  }
+
+  private void putSubnet(final long key, final long expiresAt) {
+    if (InetAddressUtil.isIpv4PrefixKey(key)) {
+      ipv4SubnetPrefixes |= 1L << InetAddressUtil.prefixLength(key);
+    } else {
+      ipv6SubnetPrefixes |= 1L << InetAddressUtil.prefixLength(key);
+    }
+    subnets.put(key, expiresAt);
+  }
+
+  /**
+   * Adds the IP address to the blacklist or renews its expiry time
+   *
+   * @param inetAddress IP address to blacklist
+   */
+  public void put(final @NotNull InetAddress inetAddress) {
+    final byte[] address = inetAddress.getAddress();
+    final long stamp = lock.writeLock();
+    try {
+      final Generation newest = generations.peekLast();
+      for (final Generation generation : generations) {
+        if (generation != newest) {
+          generation.remove(address);
+        }
+      }
+      newest.add(address);
+      modifications++;
+      for (final Listener listener : listeners) {
+        listener.added(format(address), address.length != 4, newest.createdAt + expireAfter);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the IP address and all blacklisted subnets that contain it
+   *
+   * @param inetAddress IP address to remove from the blacklist
+   * @return Whether the IP address or one of its subnets was blacklisted
+   */
+  public boolean invalidate(final @NotNull InetAddress inetAddress) {
+    final byte[] address = inetAddress.getAddress();
+    final boolean ipv6 = address.length != 4;
+    boolean removed = false;
+    final long stamp = lock.writeLock();
+    try {
+      boolean removedAddress = false;
+      for (final Generation generation : generations) {
+        removedAddress |= generation.remove(address);
+      }
+      if (removedAddress) {
+        for (final Listener listener : listeners) {
+          listener.removed(format(address), ipv6);
+        }
+      }
+
+      long prefixes = ipv6 ? ipv6SubnetPrefixes : ipv4SubnetPrefixes;
+      while (prefixes != 0L) {
+        final int prefix = Long.numberOfTrailingZeros(prefixes);
+        final long key = InetAddressUtil.prefixKey(address, prefix, prefix);
+        if (subnets.remove(key)) {
+          removed = true;
+          for (final Listener listener : listeners) {
+            listener.removed(InetAddressUtil.formatPrefixKey(key), ipv6);
+          }
+        }
+        prefixes &= prefixes - 1L;
+      }
+
+      removed |= removedAddress;
+      if (removed) {
+        modifications++;
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    return removed;
+  }
+
+  public void invalidateAll() {
+    final long stamp = lock.writeLock();
+    try {
+      generations.clear();
+      generations.addLast(new Generation(System.currentTimeMillis()));
+      lookupGenerations = generations.toArray(new Generation[0]);
+      subnets.clear();
+      modifications++;
+      for (final Listener listener : listeners) {
+        listener.cleared();
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * @return Number of blacklisted IP addresses (and IPv6 prefixes)
+   */
+  public int estimatedSize() {
+    final long stamp = lock.readLock();
+    try {
+      int size = 0;
+      for (final Generation generation : generations) {
+        size += generation.ipv4.size() + generation.ipv6.size();
+      }
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * @return Approximate number of bytes used by the blacklist
+   */
+  public long getMemoryUsage() {
+    final long stamp = lock.readLock();
+    try {
+      long memory = 0L;
+      for (final Generation generation : generations) {
+        memory += generation.ipv4.getMemoryUsage() + generation.ipv6.getMemoryUsage();
+      }
+      return memory;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Starts a new generation if the newest one is old enough
+   * and drops all generations whose entries have expired
+   */
+  public void cleanUp() {
+    final long timestamp = System.currentTimeMillis();
+    final long stamp = lock.writeLock();
+    try {
+      if (timestamp - generations.peekLast().createdAt >= generationLength) {
+        generations.addLast(new Generation(timestamp));
+      }
+      final Iterator<Generation> iterator = generations.iterator();
+      while (iterator.hasNext()) {
+        final Generation generation = iterator.next();
+        // Entries expire together with their generation
+        if (generation == generations.peekLast() || generation.createdAt + expireAfter > timestamp) {
+          break;
+        }
+        if (generation.ipv4.size() + generation.ipv6.size() > 0) {
+          modifications++;
+        }
+        iterator.remove();
+      }
+      lookupGenerations = generations.toArray(new Generation[0]);
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Passes all blacklisted IP addresses and subnets (in CIDR notation) to the consumer
+   *
+   * @param consumer Consumer of the entries and their expiry times
+   */
+  public void forEach(final @NotNull EntryConsumer consumer) {
+    final long stamp = lock.readLock();
+    try {
+      for (final Generation generation : generations) {
+        final long expiresAt = generation.createdAt + expireAfter;
+        generation.ipv4.forEach(address -> consumer.accept(InetAddressUtil.formatIpv4(address), false, expiresAt));
+        generation.ipv6.forEach(prefix -> consumer.accept(
+          InetAddressUtil.formatIpv6Prefix(prefix, 64), true, expiresAt));
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+    subnets.forEach((key, expiresAt) -> consumer.accept(InetAddressUtil.formatPrefixKey(key),
+      !InetAddressUtil.isIpv4PrefixKey(key), expiresAt));
+  }
+
+  public void addListener(final @NotNull Listener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(final @NotNull Listener listener) {
+    listeners.remove(listener);
+  }
+
+  private static @NotNull String format(final byte @NotNull [] address) {
+    return address.length == 4 ? InetAddressUtil.formatIpv4(Generation.toInt(address))
+      : InetAddressUtil.formatIpv6Prefix(Generation.toLong(address), 64);
+  }
+
+  /**
+   * @return Number of modifications since the blacklist has been created
+   */
+  public long getModifications() {
+    return modifications;
+  }
+
+  /**
+   * Writes all generations and subnets to the file; a temporary file is used,
+   * so the previous snapshot is kept if writing fails.
+   * The entries are serialized in memory first, so the lock is never held during file I/O.
+   *
+   * @param path Path of the snapshot
+   */
+  public void save(final @NotNull Path path) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    final long stamp = lock.readLock();
+    try {
+      output.writeInt(generations.size());
+      for (final Generation generation : generations) {
+        output.writeLong(generation.createdAt);
+        generation.ipv4.write(output);
+        generation.ipv6.write(output);
+      }
+    } finally {
+      lock.unlockRead(stamp);
+    }
+
+    final List<long[]> subnetEntries = new ArrayList<>();
+    subnets.forEach((key, expiresAt) -> subnetEntries.add(new long[]{key, expiresAt}));
+    output.writeInt(subnetEntries.size());
+    for (final long[] entry : subnetEntries) {
+      output.writeLong(entry[0]);
+      output.writeLong(entry[1]);
+    }
+
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.write(temporary, bytes.toByteArray());
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replaces all entries with the entries of the snapshot; expired generations are skipped
+   *
+   * @param path Path of the snapshot
+   * @return Whether the snapshot could be loaded
+   */
+  public boolean load(final @NotNull Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return false;
+    }
+    final long timestamp = System.currentTimeMillis();
+    final ArrayDeque<Generation> loaded = new ArrayDeque<>(GENERATIONS + 1);
+    final List<long[]> loadedSubnets = new ArrayList<>();
+    try (final DataInputStream input = new DataInputStream(
+      new BufferedInputStream(Files.newInputStream(path)))) {
+      if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+        return false;
+      }
+      final int amount = input.readInt();
+      for (int i = 0; i < amount; i++) {
+        final Generation generation = new Generation(input.readLong(),
+          Ipv4Set.read(input), LongHashSet.read(input));
+        if (generation.createdAt + expireAfter > timestamp) {
+          loaded.addLast(generation);
+        }
+      }
+      final int subnetAmount = input.readInt();
+      for (int i = 0; i < subnetAmount; i++) {
+        final long key = input.readLong();
+        final long expiresAt = input.readLong();
+        if (expiresAt > timestamp) {
+          loadedSubnets.add(new long[]{key, expiresAt});
+        }
+      }
+    }
+    if (loaded.isEmpty() || timestamp - loaded.peekLast().createdAt >= generationLength) {
+      loaded.addLast(new Generation(timestamp));
+    }
+
+    final long stamp = lock.writeLock();
+    try {
+      generations.clear();
+      generations.addAll(loaded);
+      lookupGenerations = generations.toArray(new Generation[0]);
+      subnets.clear();
+      for (final long[] entry : loadedSubnets) {
+        putSubnet(entry[0], entry[1]);
+      }
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+    return true;
+  }
+
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(final @NotNull String cidr, final boolean ipv6, final long expiresAt);
+  }
+
+  /**
+   * Gets notified whenever entries are added or removed manually;
+   * entries that expire are not reported since their expiry time is known in advance
+   */
+  public interface Listener {
+    void added(final @NotNull String cidr, final boolean ipv6, final long expiresAt);
+
+    void removed(final @NotNull String cidr, final boolean ipv6);
+
+    void cleared();
+  }
+
+  private static final class Generation {
+    private final long createdAt;
+    private final Ipv4Set ipv4;
+    // Upper 64 bits of IPv6 addresses, since every host usually has its own /64
+    private final LongHashSet ipv6;
+
+    Generation(final long createdAt) {
+      this(createdAt, new Ipv4Set(), new LongHashSet());
+    }
+
+    Generation(final long createdAt, final Ipv4Set ipv4, final LongHashSet ipv6) {
+      this.createdAt = createdAt;
+      this.ipv4 = ipv4;
+      this.ipv6 = ipv6;
+    }
+
+    boolean contains(final byte @NotNull [] address) {
+      return address.length == 4 ? ipv4.contains(toInt(address)) : ipv6.contains(toLong(address));
+    }
+
+    void add(final byte @NotNull [] address) {
+      if (address.length == 4) {
+        ipv4.add(toInt(address));
+      } else {
+        ipv6.add(toLong(address));
+      }
+    }
+
+    boolean remove(final byte @NotNull [] address) {
+      return address.length == 4 ? ipv4.remove(toInt(address)) : ipv6.remove(toLong(address));
+    }
+
+    private static int toInt(final byte @NotNull [] address) {
+      return (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16 | (address[2] & 0xFF) << 8 | address[3] & 0xFF;
+    }
+
+    private static long toLong(final byte @NotNull [] address) {
+      long bits = 0L;
+      for (int i = 0; i < 8; i++) {
+        bits = bits << 8 | (address[i] & 0xFFL);
+      }
+      return bits;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.blacklist;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of IPv4 addresses (similar to a Roaring bitmap).
+ * Addresses are grouped by their upper 16 bits; every group stores the lower 16 bits
+ * either as a sorted array (few addresses) or as a 8 KiB bitmap (many addresses).
+ * This class is not thread-safe.
+ */
+final class Ipv4Set {
+  // Above this many entries, a bitmap is smaller than a sorted array
+  private static final int ARRAY_LIMIT = 4096;
+  private static final int BITMAP_WORDS = (1 << 16) / Long.SIZE;
+  // Format of a container in the serialized form
+  private static final byte ARRAY = 0, BITMAP = 1;
+
+  // Sorted upper 16 bits of all groups and their containers
+  private char[] keys = new char[4];
+  private Container[] containers = new Container[4];
+  private int groups;
+  private int size;
+
+  boolean add(final int address) {
+    final char key = (char) (address >>> 16);
+    int index = Arrays.binarySearch(keys, 0, groups, key);
+    if (index < 0) {
+      index = -index - 1;
+      if (groups == keys.length) {
+        keys = Arrays.copyOf(keys, groups << 1);
+        containers = Arrays.copyOf(containers, groups << 1);
+      }
+      System.arraycopy(keys, index, keys, index + 1, groups - index);
+      System.arraycopy(containers, index, containers, index + 1, groups - index);
+      keys[index] = key;
+      containers[index] = new Container();
+      groups++;
+    }
+    if (containers[index].add((char) address)) {
+      size++;
+      return true;
+    }
+    return false;
+  }
+
+  boolean remove(final int address) {
+    final int index = Arrays.binarySearch(keys, 0, groups, (char) (address >>> 16));
+    if (index < 0 || !containers[index].remove((char) address)) {
+      return false;
+    }
+    size--;
+    if (containers[index].cardinality == 0) {
+      System.arraycopy(keys, index + 1, keys, index, groups - index - 1);
+      System.arraycopy(containers, index + 1, containers, index, groups - index - 1);
+      containers[--groups] = null;
+    }
+    return true;
+  }
+
+  boolean contains(final int address) {
+    final int index = Arrays.binarySearch(keys, 0, groups, (char) (address >>> 16));
+    return index >= 0 && containers[index].contains((char) address);
+  }
+
+  int size() {
+    return size;
+  }
+
+  void forEach(final @NotNull IntConsumer consumer) {
+    for (int i = 0; i < groups; i++) {
+      final int high = keys[i] << 16;
+      final Container container = containers[i];
+      if (container.bitmap != null) {
+        for (int word = 0; word < BITMAP_WORDS; word++) {
+          long bits = container.bitmap[word];
+          while (bits != 0L) {
+            consumer.accept(high | word << 6 | Long.numberOfTrailingZeros(bits));
+            bits &= bits - 1L;
+          }
+        }
+      } else {
+        for (int j = 0; j < container.cardinality; j++) {
+          consumer.accept(high | container.values[j]);
+        }
+      }
+    }
+  }
+
+  long getMemoryUsage() {
+    long memory = keys.length * 2L + containers.length * 4L;
+    for (int i = 0; i < groups; i++) {
+      final Container container = containers[i];
+      memory += container.bitmap != null ? BITMAP_WORDS * 8L : container.values.length * 2L;
+    }
+    return memory;
+  }
+
+  void write(final @NotNull DataOutput output) throws IOException {
+    output.writeInt(groups);
+    for (int i = 0; i < groups; i++) {
+      final Container container = containers[i];
+      output.writeChar(keys[i]);
+      output.writeInt(container.cardinality);
+      output.writeByte(container.bitmap != null ? BITMAP : ARRAY);
+      if (container.bitmap != null) {
+        for (final long word : container.bitmap) {
+          output.writeLong(word);
+        }
+      } else {
+        for (int j = 0; j < container.cardinality; j++) {
+          output.writeChar(container.values[j]);
+        }
+      }
+    }
+  }
+
+  static @NotNull Ipv4Set read(final @NotNull DataInput input) throws IOException {
+    final Ipv4Set set = new Ipv4Set();
+    final int groups = input.readInt();
+    set.keys = new char[Math.max(groups, 4)];
+    set.containers = new Container[set.keys.length];
+    for (int i = 0; i < groups; i++) {
+      final Container container = new Container();
+      set.keys[i] = input.readChar();
+      container.cardinality = input.readInt();
+      final byte format = input.readByte();
+      if (format != ARRAY && format != BITMAP || container.cardinality < 0
+        || container.cardinality > (format == ARRAY ? ARRAY_LIMIT : 1 << 16)) {
+        throw new IOException("Invalid container");
+      }
+      if (format == BITMAP) {
+        container.values = null;
+        container.bitmap = new long[BITMAP_WORDS];
+        for (int j = 0; j < BITMAP_WORDS; j++) {
+          container.bitmap[j] = input.readLong();
+        }
+      } else {
+        container.values = new char[Math.max(container.cardinality, 4)];
+        for (int j = 0; j < container.cardinality; j++) {
+          container.values[j] = input.readChar();
+        }
+      }
+      set.containers[i] = container;
+      set.size += container.cardinality;
+    }
+    set.groups = groups;
+    return set;
+  }
+
+  private static final class Container {
+    // Sorted lower 16 bits; null once the container has been converted to a bitmap
+    private char[] values = new char[4];
+    private long[] bitmap;
+    private int cardinality;
+
+    boolean add(final char value) {
+      if (bitmap != null) {
+        final long bit = 1L << value;
+        if ((bitmap[value >>> 6] & bit) != 0L) {
+          return false;
+        }
+        bitmap[value >>> 6] |= bit;
+        cardinality++;
+        return true;
+      }
+
+      int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index >= 0) {
+        return false;
+      }
+      if (cardinality == ARRAY_LIMIT) {
+        // Convert the array to a bitmap
+        bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++) {
+          bitmap[values[i] >>> 6] |= 1L << values[i];
+        }
+        values = null;
+        bitmap[value >>> 6] |= 1L << value;
+        cardinality++;
+        return true;
+      }
+      index = -index - 1;
+      if (cardinality == values.length) {
+        values = Arrays.copyOf(values, Math.min(cardinality << 1, ARRAY_LIMIT));
+      }
+      System.arraycopy(values, index, values, index + 1, cardinality - index);
+      values[index] = value;
+      cardinality++;
+      return true;
+    }
+
+    boolean remove(final char value) {
+      if (bitmap != null) {
+        final long bit = 1L << value;
+        if ((bitmap[value >>> 6] & bit) == 0L) {
+          return false;
+        }
+        bitmap[value >>> 6] &= ~bit;
+        cardinality--;
+        if (cardinality == ARRAY_LIMIT) {
+          // Convert the bitmap back to an array, so small containers stay small
+          values = new char[ARRAY_LIMIT];
+          int index = 0;
+          for (int word = 0; word < BITMAP_WORDS; word++) {
+            long bits = bitmap[word];
+            while (bits != 0L) {
+              values[index++] = (char) (word << 6 | Long.numberOfTrailingZeros(bits));
+              bits &= bits - 1L;
+            }
+          }
+          bitmap = null;
+        }
+        return true;
+      }
+
+      final int index = Arrays.binarySearch(values, 0, cardinality, value);
+      if (index < 0) {
+        return false;
+      }
+      System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+      cardinality--;
+      return true;
+    }
+
+    boolean contains(final char value) {
+      if (bitmap != null) {
+        return (bitmap[value >>> 6] & 1L << value) != 0L;
+      }
+      return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.blacklist;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing (linear probing) set of primitive longs.
+ * This class is not thread-safe.
+ */
+final class LongHashSet {
+  private long[] table = new long[16];
+  // 0 marks free slots, so it has to be tracked separately
+  private boolean containsZero;
+  private int size;
+
+  boolean add(final long value) {
+    if (value == 0L) {
+      if (containsZero) {
+        return false;
+      }
+      containsZero = true;
+      size++;
+      return true;
+    }
+    int index = indexOf(value, table.length - 1);
+    while (table[index] != 0L) {
+      if (table[index] == value) {
+        return false;
+      }
+      index = (index + 1) & (table.length - 1);
+    }
+    table[index] = value;
+    // Keep the load factor below 0.5
+    if (++size << 1 > table.length) {
+      resize(table.length << 1);
+    }
+    return true;
+  }
+
+  boolean remove(final long value) {
+    if (value == 0L) {
+      if (!containsZero) {
+        return false;
+      }
+      containsZero = false;
+      size--;
+      return true;
+    }
+    final int mask = table.length - 1;
+    int index = indexOf(value, mask);
+    while (table[index] != value) {
+      if (table[index] == 0L) {
+        return false;
+      }
+      index = (index + 1) & mask;
+    }
+    // Shift the following entries back, so no tombstones are needed
+    int next = (index + 1) & mask;
+    while (table[next] != 0L) {
+      final int ideal = indexOf(table[next], mask);
+      if (((next - ideal) & mask) >= ((next - index) & mask)) {
+        table[index] = table[next];
+        index = next;
+      }
+      next = (next + 1) & mask;
+    }
+    table[index] = 0L;
+    size--;
+    return true;
+  }
+
+  boolean contains(final long value) {
+    if (value == 0L) {
+      return containsZero;
+    }
+    // The table might be replaced or modified during an optimistic lookup, so the loop is bounded
+    final long[] table = this.table;
+    final int mask = table.length - 1;
+    int index = indexOf(value, mask);
+    for (int probes = 0; probes < table.length && table[index] != 0L; probes++) {
+      if (table[index] == value) {
+        return true;
+      }
+      index = (index + 1) & mask;
+    }
+    return false;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void forEach(final @NotNull LongConsumer consumer) {
+    if (containsZero) {
+      consumer.accept(0L);
+    }
+    for (final long value : table) {
+      if (value != 0L) {
+        consumer.accept(value);
+      }
+    }
+  }
+
+  long getMemoryUsage() {
+    return table.length * 8L;
+  }
+
+  private void resize(final int capacity) {
+    final long[] previous = table;
+    table = new long[capacity];
+    for (final long value : previous) {
+      if (value != 0L) {
+        int index = indexOf(value, capacity - 1);
+        while (table[index] != 0L) {
+          index = (index + 1) & (capacity - 1);
+        }
+        table[index] = value;
+      }
+    }
+  }
+
+  private static int indexOf(final long value, final int mask) {
+    final long hash = value * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ hash >>> 32) & mask;
+  }
+
+  void write(final @NotNull DataOutput output) throws IOException {
+    output.writeInt(size);
+    if (containsZero) {
+      output.writeLong(0L);
+    }
+    for (final long value : table) {
+      if (value != 0L) {
+        output.writeLong(value);
+      }
+    }
+  }
+
+  static @NotNull LongHashSet read(final @NotNull DataInput input) throws IOException {
+    final LongHashSet set = new LongHashSet();
+    final int size = input.readInt();
+    set.resize(Math.max(Integer.highestOneBit(Math.max(size, 1)) << 2, 16));
+    for (int i = 0; i < size; i++) {
+      set.add(input.readLong());
+    }
+    return set;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.queue;
+
+import lombok.Getter;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.profiler.JVMProfiler;
+
+/**
+ * Sizes the queue budget (polls per 500 milliseconds) using AIMD:
+ * the budget grows while the server is healthy and is cut down
+ * as soon as one of the live signals shows that the server is saturated.
+ * Like TCP, the budget doubles on every update until the first congestion.
+ * Only resource signals are used; verification results are not, since most verifications fail by design
+ * during a bot attack, which is exactly when legitimate players need the budget the most.
+ */
+public final class AdmissionController implements JVMProfiler {
+  @Getter
+  private volatile double budget = -1D;
+  @Getter
+  private volatile boolean congested;
+  private boolean slowStart = true;
+
+  /**
+   * Updates the budget using the current signals; called every 500 milliseconds
+   *
+   * @param eventLoopLag Highest scheduling delay of all event loops (in milliseconds)
+   */
+  public void update(final long eventLoopLag) {
+    final SonarConfiguration.Queue config = Sonar.get().getConfig().getQueue();
+    final SonarConfiguration.Queue.Adaptive adaptive = config.getAdaptive();
+    if (!adaptive.isEnabled()) {
+      budget = config.getMaxQueuePolls();
+      congested = false;
+      return;
+    }
+
+    congested = getProcessCPUUsage() > adaptive.getMaxCpuUsage()
+      || eventLoopLag > adaptive.getMaxEventLoopLag()
+      || Sonar.get().getFallback().getConnected().size() >= adaptive.getMaxVerifying();
+
+    final double current = budget < 0D ? adaptive.getMinPolls() : budget;
+    final double next;
+    if (congested) {
+      // Multiplicative decrease
+      next = current * adaptive.getDecreaseFactor();
+      slowStart = false;
+    } else if (slowStart) {
+      next = current * 2D;
+    } else {
+      // Additive increase
+      next = current + adaptive.getIncrease();
+    }
+    budget = Math.max(adaptive.getMinPolls(), Math.min(config.getMaxQueuePolls(), next));
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.queue;
+
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.jonesdev.sonar.api.utility.InetAddressUtil;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Groups queued players by their subnet and drains the groups (lanes)
+ * using deficit round-robin, so a single range cannot starve everyone else.
+ * Players with a positive history share a separate lane with a higher weight.
+ * This class is not thread-safe and must only be used by the event loop that owns it.
+ */
+public final class FairQueue {
+  private static final int IPV4_SUBNET = 24;
+  private static final int IPV6_SUBNET = 48;
+
+  private final LongObjectHashMap<Lane> lanes = new LongObjectHashMap<>();
+  // Lanes that have queued players, in round-robin order
+  private final ArrayDeque<Lane> activeLanes = new ArrayDeque<>();
+  private final Lane priorityLane = new Lane(-1L);
+  // Read by other threads to check if this queue has any players
+  private volatile int size;
+
+  /**
+   * @param queuedPlayer Player to add to the lane of its subnet
+   * @param priority     Whether the player should be added to the priority lane
+   */
+  public void add(final @NotNull QueuedPlayer queuedPlayer, final boolean priority) {
+    final Lane lane;
+    if (priority) {
+      lane = priorityLane;
+    } else {
+      final long subnet = InetAddressUtil.prefixKey(queuedPlayer.getInetAddress(), IPV4_SUBNET, IPV6_SUBNET);
+      final Lane existing = lanes.get(subnet);
+      if (existing != null) {
+        lane = existing;
+      } else {
+        lane = new Lane(subnet);
+        lanes.put(subnet, lane);
+      }
+    }
+    if (lane.entries.isEmpty()) {
+      activeLanes.addLast(lane);
+    }
+    lane.entries.addLast(queuedPlayer);
+    size++;
+  }
+
+  /**
+   * Takes the next player using deficit round-robin; every lane may take
+   * as many players per round as its quantum (and unused deficit) allows.
+   *
+   * @param priorityWeight Quantum of the priority lane (all other lanes have a quantum of 1)
+   * @return Next player or null if there are no queued players
+   */
+  public @Nullable QueuedPlayer poll(final int priorityWeight) {
+    final Lane lane = activeLanes.peekFirst();
+    if (lane == null) {
+      return null;
+    }
+    // Start a new turn for this lane
+    if (lane.deficit < 1) {
+      lane.deficit += lane == priorityLane ? priorityWeight : 1;
+    }
+    final QueuedPlayer queuedPlayer = lane.entries.pollFirst();
+    lane.deficit--;
+    size--;
+
+    if (lane.entries.isEmpty()) {
+      // Idle lanes don't keep their deficit
+      activeLanes.pollFirst();
+      lane.deficit = 0;
+      if (lane != priorityLane) {
+        lanes.remove(lane.subnet);
+      }
+    } else if (lane.deficit < 1) {
+      // The turn of this lane is over
+      activeLanes.addLast(activeLanes.pollFirst());
+    }
+    return queuedPlayer;
+  }
+
+  /**
+   * Removes the oldest player of the most crowded lane.
+   * The priority lane is only used if there are no other lanes.
+   *
+   * @return Removed player or null if there are no queued players
+   */
+  public @Nullable QueuedPlayer evict() {
+    Lane largest = null;
+    for (final Lane lane : activeLanes) {
+      if (lane != priorityLane && (largest == null || lane.entries.size() > largest.entries.size())) {
+        largest = lane;
+      }
+    }
+    if (largest == null) {
+      largest = priorityLane;
+    }
+    final QueuedPlayer queuedPlayer = largest.entries.pollFirst();
+    if (queuedPlayer == null) {
+      return null;
+    }
+    size--;
+    if (largest.entries.isEmpty()) {
+      activeLanes.remove(largest);
+      largest.deficit = 0;
+      if (largest != priorityLane) {
+        lanes.remove(largest.subnet);
+      }
+    }
+    return queuedPlayer;
+  }
+
+  /**
+   * Drops players that have been removed (e.g. disconnected) from all lanes,
+   * so the size and the lane sizes used by {@link #evict()} only count players that are still queued
+   */
+  public void purge() {
+    final Iterator<Lane> iterator = activeLanes.iterator();
+    while (iterator.hasNext()) {
+      final Lane lane = iterator.next();
+      // Rotate the lane once and only keep the players that are still queued
+      for (int i = lane.entries.size(); i > 0; i--) {
+        final QueuedPlayer queuedPlayer = lane.entries.pollFirst();
+        if (queuedPlayer.isRemoved()) {
+          size--;
+        } else {
+          lane.entries.addLast(queuedPlayer);
+        }
+      }
+      if (lane.entries.isEmpty()) {
+        iterator.remove();
+        lane.deficit = 0;
+        if (lane != priorityLane) {
+          lanes.remove(lane.subnet);
+        }
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  @RequiredArgsConstructor
+  private static final class Lane {
+    private final long subnet;
+    private final ArrayDeque<QueuedPlayer> entries = new ArrayDeque<>();
+    private int deficit;
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.queue;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Open-addressing (linear probing) map with primitive long keys,
+ * so looking up a key doesn't have to box it.
+ * This class is not thread-safe.
+ */
+final class LongObjectHashMap<V> {
+  private long[] keys = new long[16];
+  private Object[] values = new Object[16];
+  // 0 marks free slots, so its value has to be stored separately
+  private @Nullable Object zeroValue;
+  private int size;
+
+  @SuppressWarnings("unchecked")
+  @Nullable V get(final long key) {
+    if (key == 0L) {
+      return (V) zeroValue;
+    }
+    final int mask = keys.length - 1;
+    int index = indexOf(key, mask);
+    while (keys[index] != 0L) {
+      if (keys[index] == key) {
+        return (V) values[index];
+      }
+      index = (index + 1) & mask;
+    }
+    return null;
+  }
+
+  void put(final long key, final @NotNull V value) {
+    if (key == 0L) {
+      if (zeroValue == null) {
+        size++;
+      }
+      zeroValue = value;
+      return;
+    }
+    final int mask = keys.length - 1;
+    int index = indexOf(key, mask);
+    while (keys[index] != 0L) {
+      if (keys[index] == key) {
+        values[index] = value;
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+    keys[index] = key;
+    values[index] = value;
+    // Keep the load factor below 0.5
+    if (++size << 1 > keys.length) {
+      resize(keys.length << 1);
+    }
+  }
+
+  void remove(final long key) {
+    if (key == 0L) {
+      if (zeroValue != null) {
+        zeroValue = null;
+        size--;
+      }
+      return;
+    }
+    final int mask = keys.length - 1;
+    int index = indexOf(key, mask);
+    while (keys[index] != key) {
+      if (keys[index] == 0L) {
+        return;
+      }
+      index = (index + 1) & mask;
+    }
+    // Shift the following entries back, so no tombstones are needed
+    int next = (index + 1) & mask;
+    while (keys[next] != 0L) {
+      final int ideal = indexOf(keys[next], mask);
+      if (((next - ideal) & mask) >= ((next - index) & mask)) {
+        keys[index] = keys[next];
+        values[index] = values[next];
+        index = next;
+      }
+      next = (next + 1) & mask;
+    }
+    keys[index] = 0L;
+    values[index] = null;
+    size--;
+  }
+
+  private void resize(final int capacity) {
+    final long[] previousKeys = keys;
+    final Object[] previousValues = values;
+    keys = new long[capacity];
+    values = new Object[capacity];
+    for (int i = 0; i < previousKeys.length; i++) {
+      if (previousKeys[i] != 0L) {
+        int index = indexOf(previousKeys[i], capacity - 1);
+        while (keys[index] != 0L) {
+          index = (index + 1) & (capacity - 1);
+        }
+        keys[index] = previousKeys[i];
+        values[index] = previousValues[i];
+      }
+    }
+  }
+
+  private static int indexOf(final long key, final int mask) {
+    final long hash = key * 0x9E3779B97F4A7C15L;
+    return (int) (hash ^ hash >>> 32) & mask;
+  }
+}
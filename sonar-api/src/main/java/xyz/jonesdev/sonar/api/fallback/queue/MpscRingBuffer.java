@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.queue;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free FIFO ring buffer for many producers and a single consumer.
+ * Every slot has a sequence number that tells producers and the consumer
+ * whether the slot is free or holds a published element.
+ *
+ * @param <E> Type of the elements
+ */
+public final class MpscRingBuffer<E> {
+  private final int mask;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong();
+  // Only ever modified by the consumer
+  private volatile long head;
+
+  public MpscRingBuffer(final int capacity) {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.mask = capacity - 1;
+    this.elements = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Appends the element to the end of the buffer; can be called from any thread
+   *
+   * @param element Element to append
+   * @return Whether the element has been added or the buffer is full
+   */
+  public boolean offer(final @NotNull E element) {
+    long position = tail.get();
+    for (;;) {
+      final int index = (int) position & mask;
+      final long difference = sequences.get(index) - position;
+      if (difference == 0L) {
+        // The slot is free, try to claim it
+        if (tail.compareAndSet(position, position + 1)) {
+          elements.lazySet(index, element);
+          // Publish the element to the consumer
+          sequences.lazySet(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0L) {
+        // The consumer has not freed this slot yet, so the buffer is full
+        return false;
+      } else {
+        // Another producer claimed this slot in the meantime
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest element of the buffer; must only be called by the consumer
+   *
+   * @return The oldest element or null if the buffer is empty
+   */
+  public @Nullable E poll() {
+    final long position = head;
+    final int index = (int) position & mask;
+    if (sequences.get(index) != position + 1) {
+      // Nothing has been published to this slot yet
+      return null;
+    }
+    final E element = elements.get(index);
+    elements.lazySet(index, null);
+    // Free the slot for the producers of the next round
+    sequences.lazySet(index, position + mask + 1);
+    head = position + 1;
+    return element;
+  }
+
+  /**
+   * @return Number of slots that are currently in use (including removed elements)
+   */
+  public int size() {
+    return (int) Math.max(0L, tail.get() - head);
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+}
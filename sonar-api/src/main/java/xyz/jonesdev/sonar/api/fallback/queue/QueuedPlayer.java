@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.queue;
+
+import io.netty.channel.Channel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.net.InetAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@Getter
+@RequiredArgsConstructor
+public final class QueuedPlayer {
+  private final Channel channel;
+  private final InetAddress inetAddress;
+  private final Runnable action;
+  // Disconnects the player with the same message as if the queue had been full
+  private final Runnable evictionAction;
+  // Players with a positive history (e.g. verified on another account) are put in the priority lane
+  private final boolean priority;
+  // Removed entries stay in the ring buffer as tombstones until the consumer skips them
+  private final AtomicBoolean removed = new AtomicBoolean();
+
+  /**
+   * Marks this entry as removed, so it is never polled or removed again
+   *
+   * @return Whether this call removed the entry
+   */
+  public boolean remove() {
+    return removed.compareAndSet(false, true);
+  }
+
+  public boolean isRemoved() {
+    return removed.get();
+  }
+}
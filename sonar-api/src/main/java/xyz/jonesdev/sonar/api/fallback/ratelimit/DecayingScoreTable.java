@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity, lock-free open-addressing table of exponentially decaying scores.
+ * Every slot consists of two longs: the key and the packed state
+ * (score as float in the upper 32 bits, time of the last update in the lower 32 bits).
+ * If all probed slots are taken, the slot that has not been updated for the longest time is reused.
+ * While a slot is reused, its state is locked, so it can't be updated for the previous key.
+ */
+public final class DecayingScoreTable {
+  private static final int MAX_PROBES = 8;
+  // Timestamps are stored in steps of 100 milliseconds, so they fit in 32 bits (~13 years)
+  private static final long TIME_UNIT = 100L;
+  private static final long TIME_MASK = 0xFFFFFFFFL;
+  // State of a slot whose key is being replaced; the score is NaN, so it can never be a real state
+  private static final long CLAIMED = -1L;
+
+  private final int mask;
+  private final AtomicLongArray slots;
+  private final long epoch = System.currentTimeMillis();
+
+  public DecayingScoreTable(final int capacity) {
+    if (capacity < MAX_PROBES || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.mask = capacity - 1;
+    this.slots = new AtomicLongArray(capacity << 1);
+  }
+
+  /**
+   * Decays the score of the key and adds the weight to it
+   *
+   * @param key      Key of the score (e.g. the bits of an IP address); 0 is reserved
+   * @param weight   Value to add to the score
+   * @param halfLife Time it takes for a score to decay to half its value (in milliseconds)
+   * @return The updated score
+   */
+  public float add(final long key, final float weight, final long halfLife) {
+    final long k = key == 0L ? 1L : key;
+    final long now = (System.currentTimeMillis() - epoch) / TIME_UNIT;
+    int index = findSlot(k, now);
+
+    for (;;) {
+      final long state = slots.get(index + 1);
+      if (state == CLAIMED) {
+        // Wait until the key and the state of the reused slot have been published
+        continue;
+      }
+      if (slots.get(index) != k) {
+        // The slot has been reused for another key in the meantime
+        index = findSlot(k, now);
+        continue;
+      }
+      final float previous = Float.intBitsToFloat((int) (state >>> 32));
+      final long timestamp = state & TIME_MASK;
+      final long elapsed = Math.max(now - timestamp, 0L) * TIME_UNIT;
+      final float score = (float) (previous * Math.pow(0.5D, elapsed / (double) halfLife)) + weight;
+      // Timestamps never decrease, so a state can't reappear after its slot has been reused
+      final long next = (long) Float.floatToRawIntBits(score) << 32 | Math.max(now, timestamp) & TIME_MASK;
+      if (slots.compareAndSet(index + 1, state, next)) {
+        return score;
+      }
+    }
+  }
+
+  /**
+   * Finds the slot of the key, claims a free one or reuses the stalest one
+   *
+   * @return Index of the key of the slot in the array
+   */
+  private int findSlot(final long key, final long now) {
+    final int start = TokenBucketTable.mix(key) & mask;
+
+    for (;;) {
+      int stalest = -1;
+      long stalestTimestamp = Long.MAX_VALUE;
+
+      for (int probe = 0; probe < MAX_PROBES; probe++) {
+        final int index = ((start + probe) & mask) << 1;
+        final long current = slots.get(index);
+        if (current == key) {
+          return index;
+        }
+        if (current == 0L) {
+          if (slots.compareAndSet(index, 0L, key) || slots.get(index) == key) {
+            return index;
+          }
+          continue;
+        }
+        final long state = slots.get(index + 1);
+        if (state != CLAIMED && (state & TIME_MASK) < stalestTimestamp) {
+          stalestTimestamp = state & TIME_MASK;
+          stalest = index;
+        }
+      }
+      if (stalest == -1) {
+        // All probed slots are being reused right now
+        continue;
+      }
+
+      // All probed slots are taken, so we reuse the one that has not been updated for the longest time.
+      // Lock the state first, so no update that has read the previous key can succeed.
+      final long previous = slots.get(stalest + 1);
+      if (previous != CLAIMED && (previous & TIME_MASK) == stalestTimestamp
+        && slots.compareAndSet(stalest + 1, previous, CLAIMED)) {
+        slots.set(stalest, key);
+        // The timestamp has to increase, so the new state can never equal the previous one
+        slots.set(stalest + 1, Math.max(now, stalestTimestamp + 1L) & TIME_MASK);
+        return stalest;
+      }
+      // Another thread has updated or reused the slot in the meantime, so we have to probe again
+    }
+  }
+
+  /**
+   * @return Number of bytes used by the table
+   */
+  public long getMemoryUsage() {
+    return slots.length() * (long) Long.BYTES;
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity, lock-free open-addressing table of keys with an expiry time.
+ * Every slot consists of two longs: the key and the time (in milliseconds) it expires at.
+ * Expired slots are reused by new keys, so no cleanup task is needed.
+ */
+public final class ExpiringKeyTable {
+  private static final int MAX_PROBES = 8;
+
+  private final int mask;
+  private final AtomicLongArray slots;
+
+  public ExpiringKeyTable(final int capacity) {
+    if (capacity < MAX_PROBES || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.mask = capacity - 1;
+    this.slots = new AtomicLongArray(capacity << 1);
+  }
+
+  /**
+   * Adds the key to the table or extends its expiry time.
+   * If all probed slots are taken, the slot that expires first is reused.
+   *
+   * @param key       Key to add; 0 is reserved
+   * @param expiresAt Time (in milliseconds) the key expires at
+   */
+  public void put(final long key, final long expiresAt) {
+    final long k = key == 0L ? 1L : key;
+    final long now = System.currentTimeMillis();
+    final int start = TokenBucketTable.mix(k) & mask;
+    int earliest = -1;
+    long earliestExpiry = Long.MAX_VALUE;
+
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int index = ((start + probe) & mask) << 1;
+      final long current = slots.get(index);
+      final long expiry = slots.get(index + 1);
+      if (current == k || current == 0L || expiry <= now) {
+        if (current == k || slots.compareAndSet(index, current, k)) {
+          slots.set(index + 1, Math.max(expiresAt, current == k ? expiry : 0L));
+          return;
+        }
+        continue;
+      }
+      if (expiry < earliestExpiry) {
+        earliestExpiry = expiry;
+        earliest = index;
+      }
+    }
+
+    // Reuse the slot that expires first
+    if (earliest != -1 && slots.compareAndSet(earliest, slots.get(earliest), k)) {
+      slots.set(earliest + 1, expiresAt);
+    }
+  }
+
+  /**
+   * @param key Key to look up
+   * @return Whether the key is in the table and has not expired yet
+   */
+  public boolean contains(final long key) {
+    final long k = key == 0L ? 1L : key;
+    final int start = TokenBucketTable.mix(k) & mask;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int index = ((start + probe) & mask) << 1;
+      final long current = slots.get(index);
+      if (current == k) {
+        return slots.get(index + 1) > System.currentTimeMillis();
+      }
+      if (current == 0L) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Expires the key immediately; the slot keeps the key, so the probe sequence of other keys stays intact
+   *
+   * @param key Key to remove
+   * @return Whether the key was in the table and had not expired yet
+   */
+  public boolean remove(final long key) {
+    final long k = key == 0L ? 1L : key;
+    final int start = TokenBucketTable.mix(k) & mask;
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int index = ((start + probe) & mask) << 1;
+      final long current = slots.get(index);
+      if (current == k) {
+        final long expiry = slots.get(index + 1);
+        return expiry > System.currentTimeMillis() && slots.compareAndSet(index + 1, expiry, 0L);
+      }
+      if (current == 0L) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Removes all keys from the table
+   */
+  public void clear() {
+    for (int index = 0; index < slots.length(); index++) {
+      slots.set(index, 0L);
+    }
+  }
+
+  /**
+   * Passes all keys that have not expired yet to the consumer
+   *
+   * @param consumer Consumer of the keys and their expiry times
+   */
+  public void forEach(final @NotNull EntryConsumer consumer) {
+    final long now = System.currentTimeMillis();
+    for (int index = 0; index < slots.length(); index += 2) {
+      final long key = slots.get(index);
+      final long expiresAt = slots.get(index + 1);
+      if (key != 0L && expiresAt > now) {
+        consumer.accept(key, expiresAt);
+      }
+    }
+  }
+
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(final long key, final long expiresAt);
+  }
+}
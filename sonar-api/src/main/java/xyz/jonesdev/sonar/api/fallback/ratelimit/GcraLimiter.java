@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free rate limiter using the generic cell rate algorithm (GCRA).
+ * The only state is the theoretical arrival time (TAT) of the next request.
+ */
+public final class GcraLimiter {
+  private final AtomicLong theoreticalArrivalTime = new AtomicLong(System.nanoTime());
+
+  /**
+   * @param ratePerSecond Number of requests allowed per second
+   * @param burst         Number of requests allowed in a row
+   * @return Whether the request is allowed
+   */
+  public boolean tryAcquire(final int ratePerSecond, final int burst) {
+    final long emissionInterval = 1_000_000_000L / Math.max(ratePerSecond, 1);
+    final long tolerance = emissionInterval * Math.max(burst - 1, 0);
+    final long now = System.nanoTime();
+
+    for (;;) {
+      final long current = theoreticalArrivalTime.get();
+      final long arrival = Math.max(current, now);
+      // Deny the request if it arrives too early
+      if (arrival - now > tolerance) {
+        return false;
+      }
+      if (theoreticalArrivalTime.compareAndSet(current, arrival + emissionInterval)) {
+        return true;
+      }
+    }
+  }
+}
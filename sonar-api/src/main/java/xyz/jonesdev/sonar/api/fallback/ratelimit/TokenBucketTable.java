@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity, lock-free open-addressing table of token buckets.
+ * Every slot consists of two longs: the key and the packed bucket state
+ * (timestamp in the upper 44 bits, tokens as 10.10 fixed-point number in the lower 20 bits).
+ * Buckets are never removed; if all probed slots are taken, the stalest one is reused,
+ * so memory usage is constant and no cleanup task is needed.
+ * While a slot is reused, its state is locked, so it can't be updated for the previous key.
+ */
+public final class TokenBucketTable {
+  private static final int MAX_PROBES = 8;
+  private static final int TOKEN_BITS = 20;
+  private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1L;
+  // Tokens are stored as fixed-point numbers, so partial refills are not lost
+  private static final long TOKEN_SCALE = 1L << 10;
+  private static final long MAX_TOKENS = TOKEN_MASK / TOKEN_SCALE;
+  // State of a slot whose key is being replaced; the timestamp is out of range for real states
+  private static final long CLAIMED = -1L;
+
+  private final int mask;
+  private final AtomicLongArray slots;
+  // Timestamps are relative to the creation of the table, so they fit in 44 bits (~550 years)
+  private final long epoch = System.currentTimeMillis() - 1L;
+
+  public TokenBucketTable(final int capacity) {
+    if (capacity < MAX_PROBES || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two");
+    }
+    this.mask = capacity - 1;
+    this.slots = new AtomicLongArray(capacity << 1);
+  }
+
+  /**
+   * Takes one token from the bucket of the given key
+   *
+   * @param key          Key of the bucket (e.g. the bits of an IP address); 0 is reserved
+   * @param burst        Maximum number of tokens in a bucket
+   * @param refillMillis Time it takes to refill one token (in milliseconds)
+   * @return Whether a token could be taken
+   */
+  public boolean tryAcquire(final long key, final int burst, final long refillMillis) {
+    if (refillMillis <= 0L) {
+      return true;
+    }
+    final long k = key == 0L ? 1L : key;
+    final long now = System.currentTimeMillis() - epoch;
+    final long capacity = Math.min(burst, MAX_TOKENS) * TOKEN_SCALE;
+    int index = findSlot(k, now);
+
+    for (;;) {
+      final long state = slots.get(index + 1);
+      if (state == CLAIMED) {
+        // Wait until the key and the state of the reused slot have been published
+        continue;
+      }
+      if (slots.get(index) != k) {
+        // The slot has been reused for another key in the meantime
+        index = findSlot(k, now);
+        continue;
+      }
+      final long timestamp = state >>> TOKEN_BITS;
+      final long elapsed = Math.max(now - timestamp, 0L);
+      final long refilled = elapsed * TOKEN_SCALE / refillMillis;
+      long tokens = (state & TOKEN_MASK) + refilled;
+      // Only move the timestamp forward by the time that has actually been converted into tokens,
+      // so frequent attempts cannot prevent the bucket from refilling.
+      long updated = timestamp + refilled * refillMillis / TOKEN_SCALE;
+      if (state == 0L || tokens >= capacity) {
+        // Newly claimed slots start with a full bucket
+        tokens = capacity;
+        updated = now;
+      }
+
+      final boolean allowed = tokens >= TOKEN_SCALE;
+      final long remaining = allowed ? tokens - TOKEN_SCALE : tokens;
+      final long next = updated << TOKEN_BITS | remaining;
+      if (slots.compareAndSet(index + 1, state, next)) {
+        return allowed;
+      }
+    }
+  }
+
+  /**
+   * Empties the bucket of the given key and stops it from refilling for a while
+   *
+   * @param key    Key of the bucket; 0 is reserved
+   * @param millis Time the bucket should not refill (in milliseconds)
+   */
+  public void penalize(final long key, final long millis) {
+    final long k = key == 0L ? 1L : key;
+    final long now = System.currentTimeMillis() - epoch;
+    int index = findSlot(k, now);
+
+    for (;;) {
+      final long state = slots.get(index + 1);
+      if (state == CLAIMED) {
+        continue;
+      }
+      if (slots.get(index) != k) {
+        index = findSlot(k, now);
+        continue;
+      }
+      // Buckets only refill once their timestamp has passed
+      final long until = Math.max(now + millis, state >>> TOKEN_BITS);
+      if (slots.compareAndSet(index + 1, state, until << TOKEN_BITS)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Finds the slot of the key, claims a free one or reuses the stalest one
+   *
+   * @return Index of the key of the slot in the array
+   */
+  private int findSlot(final long key, final long now) {
+    final int start = mix(key) & mask;
+    int stalest = -1;
+    long stalestTimestamp = Long.MAX_VALUE;
+
+    for (int probe = 0; probe < MAX_PROBES; probe++) {
+      final int index = ((start + probe) & mask) << 1;
+      final long current = slots.get(index);
+      if (current == key) {
+        return index;
+      }
+      if (current == 0L) {
+        if (slots.compareAndSet(index, 0L, key) || slots.get(index) == key) {
+          return index;
+        }
+        continue;
+      }
+      final long timestamp = slots.get(index + 1) >>> TOKEN_BITS;
+      if (timestamp < stalestTimestamp) {
+        stalestTimestamp = timestamp;
+        stalest = index;
+      }
+    }
+
+    // All probed slots are taken, so we reuse the one that has not been used for the longest time.
+    // Lock the state first, so no update that has read the previous key can succeed.
+    final long previous = slots.get(stalest + 1);
+    if (previous != CLAIMED && slots.compareAndSet(stalest + 1, previous, CLAIMED)) {
+      slots.set(stalest, key);
+      // Keys that push others out of the full table only get a single token instead of a full bucket.
+      // The timestamp has to increase, so the new state can never equal the previous one.
+      final long timestamp = Math.max(now, (previous >>> TOKEN_BITS) + 1L);
+      slots.set(stalest + 1, timestamp << TOKEN_BITS | TOKEN_SCALE);
+    }
+    return stalest;
+  }
+
+  static int mix(long key) {
+    // Finalizer of MurmurHash3
+    key ^= key >>> 33;
+    key *= 0xFF51AFD7ED558CCDL;
+    key ^= key >>> 33;
+    key *= 0xC4CEB93FE53A87B3L;
+    key ^= key >>> 33;
+    return (int) key;
+  }
+
+  /**
+   * @return Number of bytes used by the table
+   */
+  public long getMemoryUsage() {
+    return slots.length() * (long) Long.BYTES;
+  }
+}
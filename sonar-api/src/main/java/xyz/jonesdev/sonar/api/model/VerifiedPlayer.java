@@ -17,50 +17,99 @@
 
 package xyz.jonesdev.sonar.api.model;
 
+import com.j256.ormlite.field.DataType;
 import com.j256.ormlite.field.DatabaseField;
 import com.j256.ormlite.table.DatabaseTable;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import org.jetbrains.annotations.NotNull;
 
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.sql.Timestamp;
 import java.util.UUID;
 
 @Getter
 @ToString
 @NoArgsConstructor(access = AccessLevel.PROTECTED)
-@DatabaseTable(tableName = "sonar_verified_players")
+@DatabaseTable(tableName = "sonar_verified_players_v2")
 public final class VerifiedPlayer {
   @SuppressWarnings("unused")
   @DatabaseField(generatedId = true)
   private int id;
 
+  // IPv4 addresses are stored as IPv4-mapped IPv6 addresses, so every address has 16 bytes
+  // The unique index starts with the IP address, so it is also used for looking up an IP address
   @DatabaseField(
     columnName = "ip_address",
-    canBeNull = false,
-    uniqueIndexName = "ip_address_player_uuid_idx",
-    width = 16
+    dataType = DataType.BYTE_ARRAY,
+    columnDefinition = "BINARY(16) NOT NULL",
+    uniqueIndexName = "ip_address_player_uuid_idx"
   )
-  private String inetAddress;
+  private byte[] address;
 
+  @Getter(AccessLevel.NONE)
   @DatabaseField(
     columnName = "player_uuid",
-    canBeNull = false,
-    uniqueIndexName = "ip_address_player_uuid_idx",
-    width = 36
+    dataType = DataType.BYTE_ARRAY,
+    columnDefinition = "BINARY(16) NOT NULL",
+    uniqueIndexName = "ip_address_player_uuid_idx"
   )
-  private UUID playerUUID;
+  private byte[] uuid;
 
   @DatabaseField(
     columnName = "timestamp",
-    canBeNull = false
+    canBeNull = false,
+    indexName = "timestamp_idx"
   )
   private Timestamp timestamp;
 
-  public VerifiedPlayer(final String inetAddress, final UUID playerUUID, final long timestamp) {
-    this.inetAddress = inetAddress;
-    this.playerUUID = playerUUID;
+  public VerifiedPlayer(final @NotNull InetAddress inetAddress, final @NotNull UUID playerUUID, final long timestamp) {
+    this.address = toBytes(inetAddress);
+    this.uuid = toBytes(playerUUID);
     this.timestamp = new Timestamp(timestamp);
   }
+
+  public @NotNull InetAddress getInetAddress() {
+    try {
+      return InetAddress.getByAddress(address);
+    } catch (UnknownHostException exception) {
+      throw new IllegalStateException("Invalid IP address", exception);
+    }
+  }
+
+  public @NotNull UUID getPlayerUUID() {
+    final ByteBuffer buffer = ByteBuffer.wrap(uuid);
+    return new UUID(buffer.getLong(), buffer.getLong());
+  }
+
+  /**
+   * @param inetAddress IP address
+   * @return 16 bytes of the IP address (IPv4-mapped for IPv4 addresses)
+   */
+  public static byte @NotNull [] toBytes(final @NotNull InetAddress inetAddress) {
+    final byte[] address = inetAddress.getAddress();
+    if (inetAddress instanceof Inet4Address) {
+      final byte[] mapped = new byte[16];
+      mapped[10] = mapped[11] = (byte) 0xFF;
+      System.arraycopy(address, 0, mapped, 12, 4);
+      return mapped;
+    }
+    return address;
+  }
+
+  /**
+   * @param uuid UUID
+   * @return 16 bytes of the UUID (most significant bits first)
+   */
+  public static byte @NotNull [] toBytes(final @NotNull UUID uuid) {
+    return ByteBuffer.allocate(16)
+      .putLong(uuid.getMostSignificantBits())
+      .putLong(uuid.getLeastSignificantBits())
+      .array();
+  }
 }
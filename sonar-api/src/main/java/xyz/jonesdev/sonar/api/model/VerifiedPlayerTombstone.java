@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.model;
+
+import com.j256.ormlite.field.DataType;
+import com.j256.ormlite.field.DatabaseField;
+import com.j256.ormlite.table.DatabaseTable;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Timestamp;
+
+/**
+ * Marks that the verified players of an IP address have been removed,
+ * so other proxies that share the database can remove them from their cache as well.
+ */
+@Getter
+@ToString
+@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@DatabaseTable(tableName = "sonar_verified_player_tombstones")
+public final class VerifiedPlayerTombstone {
+  // Address (::) that marks that all verified players have been removed
+  public static final byte[] ALL = new byte[16];
+
+  @DatabaseField(generatedId = true)
+  private long id;
+
+  @DatabaseField(
+    columnName = "ip_address",
+    dataType = DataType.BYTE_ARRAY,
+    columnDefinition = "BINARY(16) NOT NULL"
+  )
+  private byte[] address;
+
+  @DatabaseField(
+    columnName = "timestamp",
+    canBeNull = false,
+    indexName = "tombstone_timestamp_idx"
+  )
+  private Timestamp timestamp;
+
+  public VerifiedPlayerTombstone(final byte @NotNull [] address, final long timestamp) {
+    this.address = address;
+    this.timestamp = new Timestamp(timestamp);
+  }
+}
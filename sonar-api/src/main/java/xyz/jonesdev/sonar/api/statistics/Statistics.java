@@ -17,12 +17,16 @@
 
 package xyz.jonesdev.sonar.api.statistics;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public enum Statistics {
   TOTAL_TRAFFIC,
   REAL_TRAFFIC,
+  SUCCESSFUL_VERIFICATIONS,
   FAILED_VERIFICATIONS;
 
-  private int val = -1;
+  // Incremented concurrently by the event loops of all connections
+  private final AtomicInteger val = new AtomicInteger(-1);
 
   /**
    * Increments the current value by 1 with the default value of 0
@@ -41,7 +45,10 @@ public void increment() {
    * @see #set(int)
    */
   public void increment(final int def) {
-    set(get(def) + 1);
+    int current;
+    do {
+      current = val.get();
+    } while (!val.compareAndSet(current, (current == -1 ? def : current) + 1));
   }
 
   /**
@@ -56,13 +63,14 @@ public int get() {
    * @return The current value with a custom default value
    */
   public int get(final int def) {
-    return val == -1 ? def : val;
+    final int current = val.get();
+    return current == -1 ? def : current;
   }
 
   /**
    * Set current value to a new value
    */
   public void set(final int value) {
-    val = value;
+    val.set(value);
   }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.utility;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+import java.net.InetAddress;
+
+@UtilityClass
+public class InetAddressUtil {
+  // Marks keys of IPv4 addresses; IPv6 addresses starting with 0x4 are not in use (2000::/3 is global unicast).
+  // IPv6 prefixes of a single bit can't be told apart from IPv4 keys either, but such short prefixes are never used.
+  private final long IPV4_TAG = 0x4L << 60;
+
+  /**
+   * Packs the network prefix of an IP address into a single long that can be used as a key.
+   * IPv6 prefixes longer than 64 bits are truncated to 64 bits.
+   *
+   * @param inetAddress IP address
+   * @param ipv4Prefix  Prefix length for IPv4 addresses (0-32)
+   * @param ipv6Prefix  Prefix length for IPv6 addresses (0-64)
+   * @return Key of the network prefix
+   */
+  public long prefixKey(final @NotNull InetAddress inetAddress, final int ipv4Prefix, final int ipv6Prefix) {
+    return prefixKey(inetAddress.getAddress(), ipv4Prefix, ipv6Prefix);
+  }
+
+  public long prefixKey(final byte @NotNull [] address, final int ipv4Prefix, final int ipv6Prefix) {
+    if (address.length == 4) {
+      final long bits = (address[0] & 0xFFL) << 24 | (address[1] & 0xFFL) << 16
+        | (address[2] & 0xFFL) << 8 | (address[3] & 0xFFL);
+      final long mask = ipv4Prefix == 0 ? 0L : (0xFFFFFFFFL << (32 - ipv4Prefix)) & 0xFFFFFFFFL;
+      return IPV4_TAG | (long) ipv4Prefix << 32 | (bits & mask);
+    }
+
+    long bits = 0L;
+    for (int i = 0; i < 8; i++) {
+      bits = bits << 8 | (address[i] & 0xFFL);
+    }
+    if (ipv6Prefix >= 64) {
+      return bits;
+    }
+    final long mask = ipv6Prefix == 0 ? 0L : -1L << (64 - ipv6Prefix);
+    // Set the bit right after the prefix to tell different prefix lengths apart;
+    // all bits below it are masked, so this works for every prefix length below 64
+    return (bits & mask) | 1L << (63 - ipv6Prefix);
+  }
+
+  /**
+   * Formats a key created by {@link #prefixKey(byte[], int, int)} in CIDR notation.
+   * Only IPv6 keys with a prefix length below 64 can be formatted.
+   *
+   * @param key Key of the network prefix
+   * @return Network prefix in CIDR notation (e.g. 1.2.3.0/24)
+   */
+  public @NotNull String formatPrefixKey(final long key) {
+    if (isIpv4PrefixKey(key)) {
+      return formatIpv4((int) key) + "/" + prefixLength(key);
+    }
+    return formatIpv6Prefix(key & key - 1L, prefixLength(key));
+  }
+
+  /**
+   * Only IPv6 keys with a prefix length below 64 contain their prefix length.
+   *
+   * @param key Key of the network prefix
+   * @return Prefix length of the key
+   */
+  public int prefixLength(final long key) {
+    return isIpv4PrefixKey(key) ? (int) ((key >>> 32) & 0x3F) : 63 - Long.numberOfTrailingZeros(key);
+  }
+
+  /**
+   * @param key Key of the network prefix
+   * @return Whether the key belongs to an IPv4 prefix
+   */
+  public boolean isIpv4PrefixKey(final long key) {
+    return (key & 0xFL << 60) == IPV4_TAG;
+  }
+
+  /**
+   * @param address IPv4 address as int
+   * @return Dotted representation of the IPv4 address
+   */
+  public @NotNull String formatIpv4(final int address) {
+    return (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "." + (address & 0xFF);
+  }
+
+  /**
+   * @param upperBits Upper 64 bits of the IPv6 prefix
+   * @param prefix    Prefix length (0-64)
+   * @return IPv6 prefix in CIDR notation (e.g. 2001:db8:0:0::/64)
+   */
+  public @NotNull String formatIpv6Prefix(final long upperBits, final int prefix) {
+    return Long.toHexString(upperBits >>> 48) + ":" + Long.toHexString(upperBits >>> 32 & 0xFFFF) + ":"
+      + Long.toHexString(upperBits >>> 16 & 0xFFFF) + ":" + Long.toHexString(upperBits & 0xFFFF) + "::/" + prefix;
+  }
+}
@@ -50,8 +50,6 @@ public final class Verbose implements JVMProfiler {
 
   // Run action bar verbose
   public void update() {
-    // Clean up all blacklisted IPs
-    Sonar.get().getFallback().getBlacklisted().cleanUp(false);
     loginsPerSecond.cleanUp(false);
 
     // Don't prepare component if there are no subscribers
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import lombok.experimental.UtilityClass;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.SonarSupplier;
+import xyz.jonesdev.sonar.api.logger.LoggerWrapper;
+
+import java.lang.reflect.Proxy;
+
+/**
+ * Minimal Sonar instance for classes that log warnings and errors
+ */
+@UtilityClass
+class SonarStub {
+  private final LoggerWrapper LOGGER = new LoggerWrapper() {
+    @Override
+    public void info(final String message, final Object... args) {
+    }
+
+    @Override
+    public void warn(final String message, final Object... args) {
+    }
+
+    @Override
+    public void error(final String message, final Object... args) {
+    }
+  };
+
+  synchronized void install() {
+    if (SonarSupplier.get() != null) return;
+    SonarSupplier.set((Sonar) Proxy.newProxyInstance(Sonar.class.getClassLoader(), new Class<?>[]{Sonar.class},
+      (proxy, method, args) -> method.getName().equals("getLogger") ? LOGGER : null));
+  }
+}
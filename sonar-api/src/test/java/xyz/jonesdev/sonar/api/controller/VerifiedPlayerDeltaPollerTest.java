@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayerTombstone;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerifiedPlayerDeltaPollerTest {
+  private static final long SETTLE_TIME = 60_000L;
+
+  private ConnectionSource connectionSource;
+  private Dao<VerifiedPlayer, Integer> playerDao;
+  private Dao<VerifiedPlayerTombstone, Long> tombstoneDao;
+  private long now = 1_000_000L;
+  private final List<String> added = new ArrayList<>();
+  private final List<String> removed = new ArrayList<>();
+  private int cleared;
+  private VerifiedPlayerDeltaPoller poller;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    // Every test gets its own in-memory database
+    connectionSource = new JdbcConnectionSource("jdbc:h2:mem:" + UUID.randomUUID());
+    TableUtils.createTable(connectionSource, VerifiedPlayer.class);
+    TableUtils.createTable(connectionSource, VerifiedPlayerTombstone.class);
+    playerDao = DaoManager.createDao(connectionSource, VerifiedPlayer.class);
+    tombstoneDao = DaoManager.createDao(connectionSource, VerifiedPlayerTombstone.class);
+    poller = new VerifiedPlayerDeltaPoller(connectionSource, () -> now, SETTLE_TIME,
+      new VerifiedPlayerDeltaPoller.Listener() {
+        @Override
+        public void added(final @NotNull VerifiedPlayer player) {
+          added.add(player.getInetAddress().getHostAddress());
+        }
+
+        @Override
+        public void removed(final byte @NotNull [] address) {
+          try {
+            removed.add(InetAddress.getByAddress(address).getHostAddress());
+          } catch (UnknownHostException exception) {
+            throw new IllegalStateException(exception);
+          }
+        }
+
+        @Override
+        public void cleared() {
+          cleared++;
+        }
+      });
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    connectionSource.close();
+  }
+
+  @Test
+  void readsRowsWrittenAfterStart() throws Exception {
+    insert("10.0.0.1");
+    poller.start();
+    assertEquals(0, poller.poll());
+
+    insert("10.0.0.2");
+    insert("10.0.0.3");
+    assertEquals(2, poller.poll());
+    assertEquals(Arrays.asList("10.0.0.2", "10.0.0.3"), added);
+  }
+
+  @Test
+  void onlyReadsUnsettledRowsAgain() throws Exception {
+    poller.start();
+    insert("10.0.0.1");
+    assertEquals(1, poller.poll());
+
+    // The row might still be followed by rows with a lower id, so it is read again until it has settled
+    now += SETTLE_TIME / 2;
+    insert("10.0.0.2");
+    assertEquals(2, poller.poll());
+
+    now += SETTLE_TIME / 2;
+    assertEquals(1, poller.poll());
+    assertEquals(1, poller.getSettledId());
+
+    now += SETTLE_TIME;
+    assertEquals(0, poller.poll());
+    assertEquals(2, poller.getSettledId());
+    assertEquals(2, poller.getLastId());
+  }
+
+  @Test
+  void readsRowsCommittedOutOfOrder() throws Exception {
+    poller.start();
+    insert(5, "10.0.0.5");
+    assertEquals(1, poller.poll());
+
+    // A concurrent statement got a lower id, but committed after the last poll
+    insert(3, "10.0.0.3");
+    poller.poll();
+    assertTrue(added.contains("10.0.0.3"));
+    assertEquals(5, poller.getLastId());
+  }
+
+  @Test
+  void appliesTombstonesOnce() throws Exception {
+    tombstoneDao.create(new VerifiedPlayerTombstone(address("10.0.0.9"), now));
+    poller.start();
+
+    tombstoneDao.create(new VerifiedPlayerTombstone(address("10.0.0.1"), now));
+    tombstoneDao.create(new VerifiedPlayerTombstone(VerifiedPlayerTombstone.ALL, now));
+    assertEquals(2, poller.poll());
+    assertEquals(0, poller.poll());
+    assertEquals(1, removed.size());
+    assertEquals(1, cleared);
+  }
+
+  private void insert(final @NotNull String address) throws Exception {
+    playerDao.create(new VerifiedPlayer(InetAddress.getByName(address), UUID.randomUUID(), now));
+  }
+
+  private void insert(final int id, final @NotNull String address) throws Exception {
+    final VerifiedPlayer player = new VerifiedPlayer(InetAddress.getByName(address), UUID.randomUUID(), now);
+    playerDao.executeRaw("INSERT INTO " + playerDao.getTableName() + " (id, ip_address, player_uuid, timestamp)"
+      + " VALUES (" + id + ", X'" + hex(player.getAddress()) + "', X'"
+      + hex(VerifiedPlayer.toBytes(player.getPlayerUUID())) + "', CURRENT_TIMESTAMP)");
+  }
+
+  private static byte @NotNull [] address(final @NotNull String address) throws UnknownHostException {
+    return VerifiedPlayer.toBytes(InetAddress.getByName(address));
+  }
+
+  private static @NotNull String hex(final byte @NotNull [] bytes) {
+    final StringBuilder builder = new StringBuilder();
+    for (final byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerifiedPlayerIndexTest {
+  private static final long MINUTE = 60_000L;
+  private static final long NOW = 1_000_000L * MINUTE;
+
+  @Test
+  void addsAndRemovesPairs() throws UnknownHostException {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    final UUID first = new UUID(1L, 1L), second = new UUID(2L, 2L);
+    assertTrue(index.add(address("10.0.0.1"), first, NOW));
+    assertTrue(index.add(address("10.0.0.1"), second, NOW));
+    assertFalse(index.add(address("10.0.0.1"), first, NOW));
+    assertTrue(index.add(address("2001:db8::1"), first, NOW));
+    assertEquals(3, index.size());
+    assertEquals(2, index.addressCount());
+
+    assertTrue(index.has(InetAddress.getByName("10.0.0.1"), second));
+    assertTrue(index.has(InetAddress.getByName("2001:db8::1")));
+    assertFalse(index.has(InetAddress.getByName("2001:db8::1"), second));
+    assertFalse(index.has(InetAddress.getByName("10.0.0.2")));
+    assertEquals(2, index.getUUIDs(address("10.0.0.1")).size());
+
+    assertEquals(2, index.remove(address("10.0.0.1")));
+    assertEquals(0, index.remove(address("10.0.0.1")));
+    assertFalse(index.has(InetAddress.getByName("10.0.0.1")));
+    assertEquals(Collections.emptyList(), index.getUUIDs(address("10.0.0.1")));
+    assertEquals(1, index.size());
+    assertEquals(1, index.addressCount());
+  }
+
+  @Test
+  void keepsAddressesAfterResizingAndDeletingSlots() {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    for (int i = 0; i < 5000; i++) {
+      index.add(address(i), new UUID(i, i), NOW);
+    }
+    // Deleting slots shifts the following slots of the probe sequence back
+    for (int i = 0; i < 5000; i += 2) {
+      assertEquals(1, index.remove(address(i)));
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(i % 2 == 1, index.has(address(i)), "address " + i);
+      assertEquals(i % 2 == 1, index.has(address(i), new UUID(i, i)), "pair " + i);
+    }
+    assertEquals(2500, index.size());
+    assertEquals(2500, index.addressCount());
+
+    // Freed nodes are reused
+    for (int i = 0; i < 5000; i += 2) {
+      index.add(address(i), new UUID(i, i), NOW);
+    }
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(index.has(address(i), new UUID(i, i)), "pair " + i);
+    }
+  }
+
+  @Test
+  void evictsEntriesThatHaveNotBeenLookedUp() {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    for (int i = 0; i < 100; i++) {
+      index.add(address(i), new UUID(i, i), NOW);
+    }
+    for (int i = 0; i < 10; i++) {
+      assertTrue(index.has(address(i), new UUID(i, i)));
+    }
+
+    assertEquals(90, index.evict(10));
+    assertEquals(10, index.size());
+    for (int i = 0; i < 10; i++) {
+      assertTrue(index.has(address(i)), "address " + i);
+    }
+    assertEquals(0, index.evict(10));
+  }
+
+  @Test
+  void expiresOldEntries() {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    final UUID old = new UUID(1L, 1L), recent = new UUID(2L, 2L);
+    for (int i = 0; i < 100; i++) {
+      index.add(address(i), old, NOW - 60 * MINUTE);
+      if (i % 4 == 0) {
+        index.add(address(i), recent, NOW);
+      }
+    }
+
+    assertEquals(100, index.expire(NOW - 30 * MINUTE));
+    assertEquals(25, index.size());
+    assertEquals(25, index.addressCount());
+    for (int i = 0; i < 100; i++) {
+      assertFalse(index.has(address(i), old));
+      assertEquals(i % 4 == 0, index.has(address(i), recent));
+    }
+    // Nothing is old enough anymore
+    assertEquals(0, index.expire(NOW - 30 * MINUTE));
+  }
+
+  @Test
+  void savesAndLoadsSnapshots(final @TempDir Path directory) throws IOException {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    for (int i = 0; i < 1000; i++) {
+      index.add(address(i), new UUID(i, i), NOW);
+    }
+    index.add(address("2001:db8::1"), new UUID(7L, 7L), NOW);
+    // Leave some nodes on the free list
+    for (int i = 0; i < 1000; i += 3) {
+      index.remove(address(i));
+    }
+
+    final Path path = directory.resolve("verified.dat");
+    index.save(path);
+    final VerifiedPlayerIndex loaded = new VerifiedPlayerIndex();
+    assertTrue(loaded.load(path));
+    assertEquals(index.size(), loaded.size());
+    assertEquals(index.addressCount(), loaded.addressCount());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i % 3 != 0, loaded.has(address(i), new UUID(i, i)), "pair " + i);
+    }
+    assertTrue(loaded.has(address("2001:db8::1"), new UUID(7L, 7L)));
+
+    // The free list has been restored as well
+    for (int i = 0; i < 1000; i += 3) {
+      loaded.add(address(i), new UUID(i, i), NOW);
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(loaded.has(address(i), new UUID(i, i)), "pair " + i);
+    }
+  }
+
+  @Test
+  void rejectsTruncatedSnapshots(final @TempDir Path directory) throws IOException {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    index.add(address(1), new UUID(1L, 1L), NOW);
+    final Path path = directory.resolve("verified.dat");
+    index.save(path);
+
+    final byte[] bytes = Files.readAllBytes(path);
+    Files.write(path, Arrays.copyOf(bytes, bytes.length - 1), StandardOpenOption.TRUNCATE_EXISTING);
+    assertThrows(IOException.class, () -> new VerifiedPlayerIndex().load(path));
+    assertFalse(new VerifiedPlayerIndex().load(directory.resolve("missing.dat")));
+  }
+
+  static byte @NotNull [] address(final int i) {
+    return new byte[]{10, (byte) (i >>> 16), (byte) (i >>> 8), (byte) i};
+  }
+
+  static byte @NotNull [] address(final @NotNull String address) {
+    try {
+      return InetAddress.getByName(address).getAddress();
+    } catch (UnknownHostException exception) {
+      throw new IllegalStateException(exception);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.jonesdev.sonar.api.controller.VerifiedPlayerIndexTest.address;
+
+class VerifiedPlayerLogTest {
+  private static final long MINUTE = 60_000L;
+  private static final long NOW = 1_000_000L * MINUTE;
+
+  private Path snapshotPath, logPath;
+
+  @BeforeAll
+  static void setUpSonar() {
+    // Discarding a corrupted tail logs a warning
+    SonarStub.install();
+  }
+
+  @BeforeEach
+  void setUp(final @TempDir Path directory) {
+    snapshotPath = directory.resolve("verified-local.dat");
+    logPath = directory.resolve("verified-local.log");
+  }
+
+  @Test
+  void replaysRecordsInOrder() throws IOException {
+    try (final VerifiedPlayerLog log = open(new VerifiedPlayerIndex())) {
+      add(log, 1, NOW);
+      add(log, 2, NOW);
+      log.append(VerifiedPlayerLog.CLEAR, null, 0L, 0L, NOW);
+      add(log, 3, NOW);
+      add(log, 4, NOW);
+      log.append(VerifiedPlayerLog.REMOVE, address(3), 0L, 0L, NOW);
+    }
+
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog ignored = open(index)) {
+      assertEquals(1, index.size());
+      assertTrue(index.has(address(4), new UUID(4L, 4L)));
+    }
+  }
+
+  @Test
+  void cutsOffTornRecords() throws IOException {
+    try (final VerifiedPlayerLog log = open(new VerifiedPlayerIndex())) {
+      add(log, 1, NOW);
+      add(log, 2, NOW);
+    }
+    // A crash while appending the third record
+    Files.write(logPath, new byte[VerifiedPlayerLog.RECORD_SIZE / 2], StandardOpenOption.APPEND);
+
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog log = open(index)) {
+      assertEquals(2, index.size());
+      assertEquals(2L * VerifiedPlayerLog.RECORD_SIZE, Files.size(logPath));
+      // New records are appended right after the last valid one
+      add(log, 3, NOW);
+    }
+    final VerifiedPlayerIndex reopened = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog ignored = open(reopened)) {
+      assertEquals(3, reopened.size());
+    }
+  }
+
+  @Test
+  void cutsOffRecordsAfterChecksumMismatch() throws IOException {
+    try (final VerifiedPlayerLog log = open(new VerifiedPlayerIndex())) {
+      add(log, 1, NOW);
+      add(log, 2, NOW);
+      add(log, 3, NOW);
+    }
+    // Flip a bit of the address of the second record
+    try (final RandomAccessFile file = new RandomAccessFile(logPath.toFile(), "rw")) {
+      final long position = VerifiedPlayerLog.RECORD_SIZE + 10L;
+      file.seek(position);
+      final int value = file.read();
+      file.seek(position);
+      file.write(value ^ 1);
+    }
+
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog ignored = open(index)) {
+      assertEquals(1, index.size());
+      assertTrue(index.has(address(1)));
+      assertEquals(VerifiedPlayerLog.RECORD_SIZE, Files.size(logPath));
+    }
+  }
+
+  @Test
+  void appliesNewestExpiryAfterReplay() throws IOException {
+    try (final VerifiedPlayerLog log = open(new VerifiedPlayerIndex())) {
+      add(log, 1, NOW - 60 * MINUTE);
+      log.append(VerifiedPlayerLog.EXPIRE, null, 0L, 0L, NOW - 10 * MINUTE);
+      add(log, 2, NOW - 30 * MINUTE);
+      add(log, 3, NOW);
+      log.append(VerifiedPlayerLog.EXPIRE, null, 0L, 0L, NOW - 40 * MINUTE);
+    }
+
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog ignored = open(index)) {
+      assertFalse(index.has(address(1)));
+      assertFalse(index.has(address(2)));
+      assertTrue(index.has(address(3)));
+    }
+  }
+
+  @Test
+  void loadsCompactedSnapshot() throws IOException {
+    final VerifiedPlayerIndex index = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog log = open(index)) {
+      for (int i = 0; i < 10; i++) {
+        index.add(address(i), new UUID(i, i), NOW);
+        add(log, i, NOW);
+      }
+      log.compact(index);
+      assertEquals(0L, Files.size(logPath));
+      index.remove(address(0));
+      log.append(VerifiedPlayerLog.REMOVE, address(0), 0L, 0L, NOW);
+    }
+
+    final VerifiedPlayerIndex reopened = new VerifiedPlayerIndex();
+    try (final VerifiedPlayerLog ignored = open(reopened)) {
+      assertEquals(9, reopened.size());
+      assertFalse(reopened.has(address(0)));
+      assertTrue(reopened.has(address(9), new UUID(9L, 9L)));
+    }
+  }
+
+  private VerifiedPlayerLog open(final VerifiedPlayerIndex index) throws IOException {
+    final VerifiedPlayerLog log = new VerifiedPlayerLog(snapshotPath, logPath);
+    log.open(index);
+    return log;
+  }
+
+  private static void add(final VerifiedPlayerLog log, final int i, final long timestamp) throws IOException {
+    log.append(VerifiedPlayerLog.ADD, address(i), i, i, timestamp);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.controller;
+
+import com.j256.ormlite.dao.Dao;
+import com.j256.ormlite.dao.DaoManager;
+import com.j256.ormlite.jdbc.JdbcConnectionSource;
+import com.j256.ormlite.support.ConnectionSource;
+import com.j256.ormlite.table.TableUtils;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.model.VerifiedPlayerTombstone;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerifiedPlayerWriteBufferTest {
+  private ConnectionSource connectionSource;
+  private Dao<VerifiedPlayer, Integer> playerDao;
+  private Dao<VerifiedPlayerTombstone, Long> tombstoneDao;
+  private VerifiedPlayerWriteBuffer writeBuffer;
+
+  @BeforeAll
+  static void setUpSonar() {
+    // Rows that can't be written are logged
+    SonarStub.install();
+  }
+
+  @BeforeEach
+  void setUp() throws Exception {
+    // Every test gets its own in-memory database
+    connectionSource = new JdbcConnectionSource("jdbc:h2:mem:" + UUID.randomUUID());
+    TableUtils.createTable(connectionSource, VerifiedPlayer.class);
+    TableUtils.createTable(connectionSource, VerifiedPlayerTombstone.class);
+    playerDao = DaoManager.createDao(connectionSource, VerifiedPlayer.class);
+    tombstoneDao = DaoManager.createDao(connectionSource, VerifiedPlayerTombstone.class);
+    writeBuffer = new VerifiedPlayerWriteBuffer(playerDao, tombstoneDao, null);
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    connectionSource.close();
+  }
+
+  @Test
+  void coalescesOperations() throws Exception {
+    final UUID uuid = UUID.randomUUID();
+    assertEquals(1, writeBuffer.add(player("10.0.0.1", uuid)));
+    assertEquals(1, writeBuffer.add(player("10.0.0.1", uuid)));
+    assertEquals(2, writeBuffer.add(player("10.0.0.2", uuid)));
+    // The insert that has not been written yet is dropped
+    assertEquals(2, writeBuffer.remove(InetAddress.getByName("10.0.0.1")));
+    assertEquals(2, writeBuffer.remove(InetAddress.getByName("10.0.0.1")));
+    assertTrue(writeBuffer.isRemoved(InetAddress.getByName("10.0.0.1")));
+
+    writeBuffer.flush();
+    assertEquals(1L, playerDao.countOf());
+    assertEquals("10.0.0.2", playerDao.queryForAll().get(0).getInetAddress().getHostAddress());
+    assertEquals(1L, tombstoneDao.countOf());
+    assertFalse(writeBuffer.isRemoved(InetAddress.getByName("10.0.0.1")));
+  }
+
+  @Test
+  void keepsPlayersThatVerifyAgainAfterRemoval() throws Exception {
+    playerDao.create(player("10.0.0.1", UUID.randomUUID()));
+    writeBuffer.remove(InetAddress.getByName("10.0.0.1"));
+    final UUID uuid = UUID.randomUUID();
+    writeBuffer.add(player("10.0.0.1", uuid));
+
+    // Deletes are written before inserts
+    writeBuffer.flush();
+    assertEquals(1L, playerDao.countOf());
+    assertEquals(uuid, playerDao.queryForAll().get(0).getPlayerUUID());
+  }
+
+  @Test
+  void keepsValidRowsOfFailedBatch() throws Exception {
+    final UUID uuid = UUID.randomUUID();
+    playerDao.create(player("10.0.0.1", uuid));
+    // The duplicate rolls back the whole batch, so every row is retried on its own
+    writeBuffer.add(player("10.0.0.1", uuid));
+    writeBuffer.add(player("10.0.0.2", uuid));
+
+    writeBuffer.flush();
+    assertEquals(2L, playerDao.countOf());
+  }
+
+  @Test
+  void discardsClearedOperations() throws Exception {
+    writeBuffer.add(player("10.0.0.1", UUID.randomUUID()));
+    writeBuffer.remove(InetAddress.getByName("10.0.0.2"));
+    writeBuffer.clear();
+
+    writeBuffer.flush();
+    assertEquals(0L, playerDao.countOf());
+    assertEquals(0L, tombstoneDao.countOf());
+  }
+
+  private static @NotNull VerifiedPlayer player(final @NotNull String address,
+                                                final @NotNull UUID uuid) throws UnknownHostException {
+    return new VerifiedPlayer(InetAddress.getByName(address), uuid, System.currentTimeMillis());
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.blacklist;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FallbackBlacklistTest {
+  private static final long EXPIRE_AFTER = TimeUnit.MINUTES.toMillis(10L);
+
+  @Test
+  void persistsAddressesAndSubnets(final @TempDir Path directory) throws IOException {
+    final FallbackBlacklist blacklist = new FallbackBlacklist(EXPIRE_AFTER);
+    blacklist.put(InetAddress.getByName("10.0.0.1"));
+    blacklist.put(InetAddress.getByName("2001:db8::1"));
+    blacklist.putSubnet(InetAddress.getByName("192.168.1.1"), 24, EXPIRE_AFTER);
+    blacklist.putSubnet(InetAddress.getByName("2001:db9::1"), 48, EXPIRE_AFTER);
+
+    final Path path = directory.resolve("blacklist.dat");
+    blacklist.save(path);
+    final FallbackBlacklist loaded = new FallbackBlacklist(EXPIRE_AFTER);
+    assertTrue(loaded.load(path));
+
+    assertTrue(loaded.hasAddress(InetAddress.getByName("10.0.0.1")));
+    assertTrue(loaded.hasAddress(InetAddress.getByName("2001:db8::2")));
+    assertFalse(loaded.hasAddress(InetAddress.getByName("10.0.0.2")));
+    assertTrue(loaded.hasSubnet(InetAddress.getByName("192.168.1.200")));
+    assertFalse(loaded.hasSubnet(InetAddress.getByName("192.168.2.1")));
+    assertTrue(loaded.hasSubnet(InetAddress.getByName("2001:db9:0:ffff::1")));
+    assertFalse(loaded.hasSubnet(InetAddress.getByName("2001:db9:1::1")));
+  }
+
+  @Test
+  void skipsExpiredSubnets(final @TempDir Path directory) throws IOException {
+    final FallbackBlacklist blacklist = new FallbackBlacklist(EXPIRE_AFTER);
+    blacklist.putSubnet(InetAddress.getByName("192.168.1.1"), 24, -1L);
+
+    final Path path = directory.resolve("blacklist.dat");
+    blacklist.save(path);
+    final FallbackBlacklist loaded = new FallbackBlacklist(EXPIRE_AFTER);
+    assertTrue(loaded.load(path));
+    assertFalse(loaded.hasSubnet(InetAddress.getByName("192.168.1.1")));
+  }
+
+  @Test
+  void invalidatesSubnetsContainingTheAddress() throws IOException {
+    final FallbackBlacklist blacklist = new FallbackBlacklist(EXPIRE_AFTER);
+    final List<String> removed = new ArrayList<>();
+    blacklist.addListener(new FallbackBlacklist.Listener() {
+      @Override
+      public void added(final String cidr, final boolean ipv6, final long expiresAt) {
+      }
+
+      @Override
+      public void removed(final String cidr, final boolean ipv6) {
+        removed.add(cidr);
+      }
+
+      @Override
+      public void cleared() {
+      }
+    });
+    blacklist.putSubnet(InetAddress.getByName("192.168.1.1"), 24, EXPIRE_AFTER);
+    blacklist.put(InetAddress.getByName("10.0.0.1"));
+
+    assertTrue(blacklist.invalidate(InetAddress.getByName("192.168.1.7")));
+    assertFalse(blacklist.has(InetAddress.getByName("192.168.1.7")));
+    assertTrue(blacklist.invalidate(InetAddress.getByName("10.0.0.1")));
+    assertFalse(blacklist.has(InetAddress.getByName("10.0.0.1")));
+    assertFalse(blacklist.invalidate(InetAddress.getByName("10.0.0.2")));
+    assertEquals(2, removed.size());
+    assertEquals("192.168.1.0/24", removed.get(0));
+  }
+}
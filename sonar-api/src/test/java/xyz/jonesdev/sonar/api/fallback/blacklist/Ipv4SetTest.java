@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.blacklist;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Ipv4SetTest {
+  private static final int GROUP = 0x0A000000; // 10.0.0.0/16
+
+  @Test
+  void roundTripsArrayAndBitmapContainers() throws IOException {
+    final Ipv4Set set = new Ipv4Set();
+    final Set<Integer> expected = new HashSet<>();
+    final Random random = new Random(1L);
+    // One bitmap container, one array container
+    for (int i = 0; i < 10000; i++) {
+      final int address = GROUP | random.nextInt(1 << 16);
+      set.add(address);
+      expected.add(address);
+    }
+    for (int i = 0; i < 100; i++) {
+      final int address = 0xC0A80000 | random.nextInt(1 << 16);
+      set.add(address);
+      expected.add(address);
+    }
+    assertContainsExactly(roundTrip(set), expected);
+  }
+
+  @Test
+  void roundTripsShrunkBitmapContainers() throws IOException {
+    // Every size around the conversion threshold, followed by another group
+    for (final int remaining : new int[]{4095, 4096, 4097, 1}) {
+      final Ipv4Set set = new Ipv4Set();
+      final Set<Integer> expected = new HashSet<>();
+      for (int i = 0; i < 5000; i++) {
+        set.add(GROUP | i);
+      }
+      for (int i = 5000 - 1; i >= remaining; i--) {
+        assertTrue(set.remove(GROUP | i));
+      }
+      for (int i = 0; i < remaining; i++) {
+        expected.add(GROUP | i);
+      }
+      set.add(0x0B000001);
+      expected.add(0x0B000001);
+
+      final Ipv4Set read = roundTrip(set);
+      assertContainsExactly(read, expected);
+      // Containers that have been converted back to arrays still work
+      assertTrue(read.add(GROUP | 60000));
+      assertTrue(read.contains(GROUP | 60000));
+    }
+  }
+
+  @Test
+  void rejectsInvalidContainers() throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    output.writeInt(1);
+    output.writeChar(0x0A00);
+    output.writeInt(5000);
+    output.writeByte(0); // Arrays cannot hold this many entries
+    assertThrows(IOException.class, () -> Ipv4Set.read(new DataInputStream(
+      new ByteArrayInputStream(bytes.toByteArray()))));
+  }
+
+  private static Ipv4Set roundTrip(final Ipv4Set set) throws IOException {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    final DataOutputStream output = new DataOutputStream(bytes);
+    set.write(output);
+    // A marker after the set detects reads that are not aligned
+    output.writeInt(0xCAFEBABE);
+    final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    final Ipv4Set read = Ipv4Set.read(input);
+    assertEquals(0xCAFEBABE, input.readInt());
+    return read;
+  }
+
+  private static void assertContainsExactly(final Ipv4Set set, final Set<Integer> expected) {
+    assertEquals(expected.size(), set.size());
+    final Set<Integer> actual = new HashSet<>();
+    set.forEach(actual::add);
+    assertEquals(expected, actual);
+    for (final int address : expected) {
+      assertTrue(set.contains(address));
+    }
+  }
+}
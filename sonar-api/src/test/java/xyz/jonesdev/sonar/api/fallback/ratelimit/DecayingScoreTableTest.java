@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DecayingScoreTableTest {
+  // Scores don't decay noticeably while a test runs
+  private static final long HALF_LIFE = 3_600_000L;
+
+  @Test
+  void addsUpScores() {
+    final DecayingScoreTable table = new DecayingScoreTable(64);
+    assertEquals(1F, table.add(42L, 1F, HALF_LIFE), 0.01F);
+    assertEquals(3F, table.add(42L, 2F, HALF_LIFE), 0.01F);
+    assertEquals(1F, table.add(43L, 1F, HALF_LIFE), 0.01F);
+  }
+
+  @Test
+  void reusedSlotsStartWithoutScore() {
+    // Every key probes all slots of the table, so the ninth key has to reuse a slot
+    final DecayingScoreTable table = new DecayingScoreTable(8);
+    for (long key = 1L; key <= 8L; key++) {
+      table.add(key, 10F, HALF_LIFE);
+    }
+    assertEquals(1F, table.add(9L, 1F, HALF_LIFE), 0.01F);
+    // The key that has been pushed out starts over as well
+    int reset = 0;
+    for (long key = 1L; key <= 8L; key++) {
+      if (table.add(key, 1F, HALF_LIFE) < 5F) {
+        reset++;
+      }
+    }
+    assertTrue(reset >= 1);
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.fallback.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTableTest {
+  // Refilling one token takes longer than any test runs
+  private static final long REFILL = 60_000L;
+
+  @Test
+  void newKeysStartWithFullBucket() {
+    final TokenBucketTable table = new TokenBucketTable(64);
+    for (int i = 0; i < 5; i++) {
+      assertTrue(table.tryAcquire(42L, 5, REFILL));
+    }
+    assertFalse(table.tryAcquire(42L, 5, REFILL));
+  }
+
+  @Test
+  void reusedSlotsOnlyGetOneToken() {
+    // Every key probes all slots of the table, so the ninth key has to reuse a slot
+    final TokenBucketTable table = new TokenBucketTable(8);
+    for (long key = 1L; key <= 8L; key++) {
+      assertTrue(table.tryAcquire(key, 5, REFILL));
+    }
+    assertTrue(table.tryAcquire(9L, 5, REFILL));
+    assertFalse(table.tryAcquire(9L, 5, REFILL));
+  }
+
+  @Test
+  void penalizedBucketsAreEmpty() {
+    final TokenBucketTable table = new TokenBucketTable(64);
+    assertTrue(table.tryAcquire(42L, 5, REFILL));
+    table.penalize(42L, REFILL);
+    assertFalse(table.tryAcquire(42L, 5, 1L));
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.api.utility;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InetAddressUtilTest {
+  @Test
+  void ipv6PrefixKeysAreUniqueForEveryPrefixLength() throws UnknownHostException {
+    // Addresses that only differ in the last bits of the upper 64 bits
+    final Set<Long> keys = new HashSet<>();
+    int expected = 0;
+    // Prefixes of a single bit look like IPv4 keys
+    for (int prefix = 2; prefix < 64; prefix++) {
+      final Set<Long> networks = new HashSet<>();
+      for (int last = 0; last < 256; last++) {
+        final InetAddress address = InetAddress.getByName("2001:db8:0:" + Integer.toHexString(last) + "::1");
+        final long key = InetAddressUtil.prefixKey(address, 32, prefix);
+        assertEquals(prefix, InetAddressUtil.prefixLength(key));
+        assertFalse(InetAddressUtil.isIpv4PrefixKey(key));
+        networks.add(key);
+      }
+      // Only the bits within the prefix tell the networks apart
+      assertEquals(1 << Math.max(Math.min(prefix - 56, 8), 0), networks.size());
+      expected += networks.size();
+      keys.addAll(networks);
+    }
+    assertEquals(expected, keys.size());
+  }
+
+  @Test
+  void formatsPrefixKeys() throws UnknownHostException {
+    final InetAddress ipv4 = InetAddress.getByName("192.168.12.34");
+    assertEquals("192.168.12.0/24", InetAddressUtil.formatPrefixKey(InetAddressUtil.prefixKey(ipv4, 24, 48)));
+    assertTrue(InetAddressUtil.isIpv4PrefixKey(InetAddressUtil.prefixKey(ipv4, 24, 48)));
+
+    final InetAddress ipv6 = InetAddress.getByName("2001:db8:abcd:12ff::1");
+    assertEquals("2001:db8:abcd:0::/48", InetAddressUtil.formatPrefixKey(InetAddressUtil.prefixKey(ipv6, 24, 48)));
+    assertEquals("2001:db8:abcd:12fe::/63", InetAddressUtil.formatPrefixKey(InetAddressUtil.prefixKey(ipv6, 24, 63)));
+  }
+}
@@ -40,11 +40,14 @@
 import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.ReflectiveOperationException;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.event.impl.UserVerifyJoinEvent;
 import xyz.jonesdev.sonar.api.fallback.Fallback;
+import xyz.jonesdev.sonar.api.fallback.FallbackQueue;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.api.statistics.Statistics;
 import xyz.jonesdev.sonar.common.fallback.FallbackChannelHandler;
+import xyz.jonesdev.sonar.common.fallback.FallbackLoadMonitor;
 import xyz.jonesdev.sonar.common.fallback.FallbackTimeoutHandler;
 import xyz.jonesdev.sonar.common.fallback.FallbackVerificationHandler;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketDecoder;
@@ -127,9 +130,17 @@ public void handle(final LoginRequest loginRequest) throws Exception {
     final int protocolId = getHandshake().getProtocolVersion();
     protocolVersion = ProtocolVersion.fromId(protocolId);
     final Channel channel = channelWrapper.getHandle();
+    final InetAddress inetAddress = getAddress().getAddress();
+    val uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + loginRequest.getData()).getBytes(StandardCharsets.UTF_8));
+    // Players that are not cached might have to be looked up in the database first
+    final CompletableFuture<Boolean> verified = Sonar.get().getVerifiedPlayerController()
+      .isVerified(inetAddress, uuid, channel.eventLoop());
 
     // Run in the channel's event loop
-    channel.eventLoop().execute(() -> {
+    verified.thenAccept(alreadyVerified -> channel.eventLoop().execute(() -> {
+      // Do not continue if the connection has been closed during the lookup
+      if (channelWrapper.isClosed() || channelWrapper.isClosing()) return;
+
       try {
         final ChannelPipeline pipeline = channel.pipeline();
         TrafficChannelHooker.hook(pipeline, PACKET_DECODER, PACKET_ENCODER);
@@ -137,9 +148,8 @@ public void handle(final LoginRequest loginRequest) throws Exception {
         // Increase total traffic statistic
         Statistics.TOTAL_TRAFFIC.increment();
 
-        final InetAddress inetAddress = getAddress().getAddress();
         // Check the blacklist here since we cannot let the player "ghost join"
-        if (FALLBACK.getBlacklisted().has(inetAddress)) {
+        if (FALLBACK.getBlacklisted().has(inetAddress, alreadyVerified)) {
           closeWith(getKickPacket(Sonar.get().getConfig().getVerification().getBlacklisted()));
           return;
         }
@@ -164,9 +174,8 @@ public void handle(final LoginRequest loginRequest) throws Exception {
           return;
         }
 
-        val uuid = UUID.nameUUIDFromBytes(("OfflinePlayer:" + loginRequest.getData()).getBytes(StandardCharsets.UTF_8));
         // Check if the player is already verified
-        if (Sonar.get().getVerifiedPlayerController().has(inetAddress, uuid)) {
+        if (alreadyVerified) {
           super.handle(loginRequest);
           return;
         }
@@ -177,6 +186,16 @@ public void handle(final LoginRequest loginRequest) throws Exception {
           return;
         }
 
+        // Shed new players while the network threads are overloaded
+        if (FallbackLoadMonitor.INSTANCE.shouldShed(channel)) {
+          if (Sonar.get().getConfig().getOverload().getAction() == SonarConfiguration.Overload.Action.CLOSE) {
+            channel.close();
+          } else {
+            closeWith(getKickPacket(Sonar.get().getConfig().getOverload().getServerBusy()));
+          }
+          return;
+        }
+
         // Create wrapped Fallback user
         user = new FallbackUserWrapper(
           FALLBACK, channelWrapper, this,
@@ -227,7 +246,8 @@ public void handle(final LoginRequest loginRequest) throws Exception {
         pipeline.addFirst(FALLBACK_HANDLER, new FallbackChannelHandler(loginRequest.getData(), inetAddress));
 
         // Queue the connection for further processing
-        FALLBACK.getQueue().queue(inetAddress, () -> channel.eventLoop().execute(() -> {
+        // The queued action runs on the event loop of this channel
+        final FallbackQueue.Result result = FALLBACK.getQueue().queue(channel, inetAddress, () -> {
 
           // Do not continue if the connection is closed or marked as disconnected
           if (channelWrapper.isClosed() || channelWrapper.isClosing()) return;
@@ -304,11 +324,18 @@ public void handle(final LoginRequest loginRequest) throws Exception {
           // Replace normal decoder to allow custom packets
           user.getPipeline().replace(PACKET_DECODER, FALLBACK_PACKET_DECODER,
             new FallbackPacketDecoder(user, new FallbackVerificationHandler(user, loginRequest.getData(), uuid)));
-        }));
+        }, () -> closeWith(getKickPacket(Sonar.get().getConfig().getVerification().getTooManyPlayers())));
+
+        // Disconnect the player if the queue is full
+        if (result == FallbackQueue.Result.ALREADY_QUEUED) {
+          closeWith(getKickPacket(Sonar.get().getConfig().getVerification().getAlreadyQueued()));
+        } else if (result == FallbackQueue.Result.FULL) {
+          closeWith(getKickPacket(Sonar.get().getConfig().getVerification().getTooManyPlayers()));
+        }
       } catch (Throwable throwable) {
         throw new ReflectiveOperationException(throwable);
       }
-    });
+    }));
   }
 
   private static final Map<Component, Kick> CACHED_KICK_PACKETS = new ConcurrentHashMap<>(10);
@@ -29,11 +29,15 @@
 import net.md_5.bungee.protocol.*;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.ReflectiveOperationException;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.fallback.blacklist.FallbackBlacklist;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.bungee.fallback.FallbackHandlerBoss;
 import xyz.jonesdev.sonar.bungee.fallback.FallbackInitialHandler;
 
 import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 
 import static net.md_5.bungee.netty.PipelineUtils.*;
@@ -62,12 +66,21 @@ public final class ChildChannelInitializer extends ChannelInitializer<Channel> {
   protected void initChannel(final @NotNull Channel channel) throws Exception {
     final SocketAddress remoteAddress = channel.remoteAddress() == null ? channel.parent().localAddress()
       : channel.remoteAddress();
+    final ListenerInfo listener = channel.attr(PipelineUtils.LISTENER).get();
+
+    // Drop blacklisted IP addresses and excess connections before building the pipeline;
+    // the real IP address is not known yet if the PROXY protocol is used
+    final InetAddress inetAddress = !listener.isProxyProtocol() && remoteAddress instanceof InetSocketAddress
+      ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+    if ((inetAddress != null && isBlacklisted(inetAddress))
+      || !Sonar.get().getFallback().getConnectionLimiter().attempt(inetAddress)) {
+      channel.close();
+      return;
+    }
 
     if (BUNGEE.getConnectionThrottle() != null && BUNGEE.getConnectionThrottle().throttle(remoteAddress)) {
       channel.close();
     } else {
-      final ListenerInfo listener = channel.attr(PipelineUtils.LISTENER).get();
-
       if (BungeeCord.getInstance().getPluginManager().callEvent(new ClientConnectEvent(remoteAddress, listener)).isCancelled()) {
         channel.close();
       } else {
@@ -93,4 +106,14 @@ protected void initChannel(final @NotNull Channel channel) throws Exception {
       }
     }
   }
+
+  /**
+   * Subnet entries don't apply to IP addresses of verified players;
+   * the UUID is only known once the player logs in, where the subnet is checked again.
+   */
+  private static boolean isBlacklisted(final @NotNull InetAddress inetAddress) {
+    final FallbackBlacklist blacklist = Sonar.get().getFallback().getBlacklisted();
+    return blacklist.hasAddress(inetAddress)
+      || blacklist.hasSubnet(inetAddress) && !Sonar.get().getVerifiedPlayerController().has(inetAddress);
+  }
 }
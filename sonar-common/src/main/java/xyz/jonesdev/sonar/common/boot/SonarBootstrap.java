@@ -21,25 +21,22 @@
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
-import xyz.jonesdev.cappuccino.Cappuccino;
-import xyz.jonesdev.cappuccino.ExpiringCache;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.SonarPlatform;
 import xyz.jonesdev.sonar.api.SonarSupplier;
 import xyz.jonesdev.sonar.api.command.subcommand.SubcommandRegistry;
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.controller.VerifiedPlayerController;
-import xyz.jonesdev.sonar.api.fallback.FallbackRatelimiter;
 import xyz.jonesdev.sonar.api.timer.SystemTimer;
 import xyz.jonesdev.sonar.api.verbose.Verbose;
+import xyz.jonesdev.sonar.common.fallback.FallbackBlacklistExporter;
+import xyz.jonesdev.sonar.common.fallback.FallbackBlacklistSnapshot;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPreparer;
 import xyz.jonesdev.sonar.common.service.ServiceRepository;
 import xyz.jonesdev.sonar.common.subcommand.SubcommandRegistryHolder;
 import xyz.jonesdev.sonar.common.update.UpdateChecker;
 
 import java.io.File;
-import java.net.InetAddress;
-import java.util.concurrent.TimeUnit;
 
 @Getter
 @RequiredArgsConstructor
@@ -86,6 +83,11 @@ public final void initialize() {
     getLogger().info("Successfully initialized components in {}s!", launchTimer);
     getLogger().info("Enabling all tasks and features...");
 
+    // Restore the blacklist from the last snapshot
+    FallbackBlacklistSnapshot.load();
+    // Keep the firewall export of the blacklist up to date
+    getFallback().getBlacklisted().addListener(FallbackBlacklistExporter.INSTANCE);
+
     // Start all service threads
     ServiceRepository.register();
 
@@ -122,12 +124,10 @@ && getVerifiedPlayerController().getCachedDatabaseType() != getConfig().getDatab
     // Prepare cached packets
     FallbackPreparer.prepare();
 
-    // Update ratelimiter
-    final ExpiringCache<InetAddress> expiringCache = Cappuccino.buildExpiring(
-      getConfig().getVerification().getReconnectDelay(), TimeUnit.MILLISECONDS, 250L);
-    FallbackRatelimiter.INSTANCE.setExpiringCache(expiringCache);
-
     // Reinitialize database controller
+    if (verifiedPlayerController != null) {
+      verifiedPlayerController.shutdown();
+    }
     verifiedPlayerController = new VerifiedPlayerController();
   }
 
@@ -137,6 +137,16 @@ public void shutdown() {
     // Shut down service threads
     ServiceRepository.shutdown();
 
+    // Write all pending changes of verified players to the database
+    if (verifiedPlayerController != null) {
+      verifiedPlayerController.shutdown();
+      // Keep the cache of verified players across restarts
+      verifiedPlayerController.saveSnapshot();
+    }
+
+    // Keep the blacklist across restarts
+    FallbackBlacklistSnapshot.save();
+
     getLogger().info("Successfully shut down. Goodbye!");
   }
 }
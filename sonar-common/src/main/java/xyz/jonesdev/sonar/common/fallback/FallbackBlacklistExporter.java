@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+import xyz.jonesdev.sonar.api.fallback.blacklist.FallbackBlacklist;
+import xyz.jonesdev.sonar.api.timer.SystemTimer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Exports the blacklist in ipset and nftables syntax (and as plain list of subnets),
+ * so operators can drop blacklisted IP addresses in the kernel.
+ * All changes are appended to a delta log right away, and the full export
+ * is rewritten (using an atomic rename) once the configured interval has passed.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class FallbackBlacklistExporter implements FallbackBlacklist.Listener {
+  public static final FallbackBlacklistExporter INSTANCE = new FallbackBlacklistExporter();
+
+  private final Queue<String> deltas = new ConcurrentLinkedQueue<>();
+  private final SystemTimer lastExport = new SystemTimer();
+  private volatile boolean dirty = true;
+  // Time at which a subnet expires that hides a longer blacklisted entry from the nftables export
+  private volatile long nextExport = Long.MAX_VALUE;
+
+  @Override
+  public void added(final @NotNull String cidr, final boolean ipv6, final long expiresAt) {
+    if (!Sonar.get().getConfig().getBlacklistExport().isEnabled()) return;
+    deltas.add("add " + getSetName(ipv6) + " " + cidr + " timeout " + getTimeout(expiresAt) + " -exist");
+    dirty = true;
+  }
+
+  @Override
+  public void removed(final @NotNull String cidr, final boolean ipv6) {
+    if (!Sonar.get().getConfig().getBlacklistExport().isEnabled()) return;
+    deltas.add("del " + getSetName(ipv6) + " " + cidr + " -exist");
+    dirty = true;
+  }
+
+  @Override
+  public void cleared() {
+    if (!Sonar.get().getConfig().getBlacklistExport().isEnabled()) return;
+    deltas.add("flush " + getSetName(false));
+    deltas.add("flush " + getSetName(true));
+    dirty = true;
+  }
+
+  /**
+   * Appends all pending changes to the delta log and
+   * writes the full export if the blacklist has changed
+   */
+  public synchronized void update() {
+    final SonarConfiguration.BlacklistExport config = Sonar.get().getConfig().getBlacklistExport();
+    if (!config.isEnabled()) return;
+
+    final File folder = new File(Sonar.get().getDataDirectory(), "export");
+    try {
+      if (!folder.exists() && !folder.mkdirs()) {
+        throw new IOException("Could not create " + folder);
+      }
+
+      // Append all changes to the delta log
+      final List<String> lines = new ArrayList<>();
+      String line;
+      while ((line = deltas.poll()) != null) {
+        lines.add(line);
+      }
+      final Path deltaLog = new File(folder, "blacklist.delta").toPath();
+      if (!lines.isEmpty()) {
+        Files.write(deltaLog, lines, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+
+      if ((dirty || System.currentTimeMillis() >= nextExport) && lastExport.elapsed(config.getInterval() * 1000L)) {
+        dirty = false;
+        lastExport.reset();
+        export(folder, config.getSetName());
+        // The full export contains all previous changes
+        Files.write(deltaLog, new byte[0]);
+      }
+    } catch (IOException exception) {
+      Sonar.get().getLogger().error("Could not export blacklist: {}", exception);
+    }
+  }
+
+  private void export(final @NotNull File folder, final @NotNull String setName) throws IOException {
+    final List<String[]> ipv4 = new ArrayList<>(), ipv6 = new ArrayList<>();
+    final NftSet nftIpv4 = new NftSet(32), nftIpv6 = new NftSet(64);
+    Sonar.get().getFallback().getBlacklisted().forEach((cidr, isIpv6, expiresAt) -> {
+      final String[] entry = {cidr, String.valueOf(getTimeout(expiresAt))};
+      (isIpv6 ? ipv6 : ipv4).add(entry);
+      (isIpv6 ? nftIpv6 : nftIpv4).add(cidr, expiresAt);
+    });
+
+    // ipset: fill temporary sets and swap them with the live ones
+    writeAtomically(new File(folder, "blacklist.ipset").toPath(), writer -> {
+      writeIpset(writer, setName + "-v4", "inet", ipv4);
+      writeIpset(writer, setName + "-v6", "inet6", ipv6);
+    });
+
+    // nftables: the whole file is applied as one transaction
+    writeAtomically(new File(folder, "blacklist.nft").toPath(), writer -> {
+      writer.write("table inet sonar {\n");
+      writer.write("  set " + setName + "-v4 { type ipv4_addr; flags interval, timeout; }\n");
+      writer.write("  set " + setName + "-v6 { type ipv6_addr; flags interval, timeout; }\n");
+      writer.write("}\n");
+      final List<String[]> nftIpv4Entries = new ArrayList<>(), nftIpv6Entries = new ArrayList<>();
+      nextExport = Math.min(nftIpv4.collapse(nftIpv4Entries), nftIpv6.collapse(nftIpv6Entries));
+      writeNft(writer, setName + "-v4", nftIpv4Entries);
+      writeNft(writer, setName + "-v6", nftIpv6Entries);
+    });
+
+    writeAtomically(new File(folder, "blacklist.txt").toPath(), writer -> {
+      for (final String[] entry : ipv4) {
+        writer.write(entry[0]);
+        writer.newLine();
+      }
+      for (final String[] entry : ipv6) {
+        writer.write(entry[0]);
+        writer.newLine();
+      }
+    });
+  }
+
+  private static void writeIpset(final @NotNull BufferedWriter writer,
+                                 final @NotNull String name,
+                                 final @NotNull String family,
+                                 final @NotNull List<String[]> entries) throws IOException {
+    final String options = " hash:net family " + family + " timeout 0 maxelem " + Math.max(entries.size() * 2, 65536);
+    writer.write("create " + name + options + " -exist\n");
+    writer.write("create " + name + "-tmp" + options + " -exist\n");
+    writer.write("flush " + name + "-tmp\n");
+    for (final String[] entry : entries) {
+      writer.write("add " + name + "-tmp " + entry[0] + " timeout " + entry[1] + " -exist\n");
+    }
+    writer.write("swap " + name + "-tmp " + name + "\n");
+    writer.write("destroy " + name + "-tmp\n");
+  }
+
+  private static void writeNft(final @NotNull BufferedWriter writer,
+                               final @NotNull String name,
+                               final @NotNull List<String[]> entries) throws IOException {
+    writer.write("flush set inet sonar " + name + "\n");
+    if (entries.isEmpty()) return;
+    writer.write("add element inet sonar " + name + " {");
+    for (int i = 0; i < entries.size(); i++) {
+      final String[] entry = entries.get(i);
+      writer.write((i == 0 ? " " : ", ") + entry[0] + " timeout " + entry[1] + "s");
+    }
+    writer.write(" }\n");
+  }
+
+  private static void writeAtomically(final @NotNull Path path, final @NotNull Writer writer) throws IOException {
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (final BufferedWriter bufferedWriter = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+      writer.write(bufferedWriter);
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static @NotNull String getSetName(final boolean ipv6) {
+    return Sonar.get().getConfig().getBlacklistExport().getSetName() + (ipv6 ? "-v6" : "-v4");
+  }
+
+  // Remaining time (in seconds) until the entry expires, so the firewall uses the same clock
+  private static long getTimeout(final long expiresAt) {
+    return Math.max((expiresAt - System.currentTimeMillis() + 999L) / 1000L, 1L);
+  }
+
+  /**
+   * nftables rejects overlapping intervals, so the same network can't be added twice,
+   * and entries within a blacklisted subnet have to be left out.
+   */
+  @RequiredArgsConstructor
+  private static final class NftSet {
+    // Network address (upper 64 bits for IPv6) and expiry time of all entries, by prefix length
+    private final Map<Integer, Map<Long, Entry>> networks = new TreeMap<>();
+    private final int width;
+
+    void add(final @NotNull String cidr, final long expiresAt) {
+      final int slash = cidr.indexOf('/');
+      final byte[] address;
+      try {
+        // The blacklist only contains IP literals, so this never resolves a host name
+        address = InetAddress.getByName(slash == -1 ? cidr : cidr.substring(0, slash)).getAddress();
+      } catch (UnknownHostException exception) {
+        throw new IllegalStateException(exception);
+      }
+      long bits = 0L;
+      for (int i = 0; i < width >> 3; i++) {
+        bits = bits << 8 | (address[i] & 0xFFL);
+      }
+      final int prefix = slash == -1 ? width : Integer.parseInt(cidr.substring(slash + 1));
+      // Older generations might still contain the same entry
+      networks.computeIfAbsent(prefix, k -> new HashMap<>()).merge(bits, new Entry(cidr, expiresAt),
+        (previous, entry) -> previous.expiresAt >= entry.expiresAt ? previous : entry);
+    }
+
+    /**
+     * @param entries List to which all entries that don't overlap are added
+     * @return Time at which a subnet expires that hides an entry which is blacklisted for longer
+     */
+    long collapse(final @NotNull List<String[]> entries) {
+      long nextExport = Long.MAX_VALUE;
+      for (final Map.Entry<Integer, Map<Long, Entry>> networksByPrefix : networks.entrySet()) {
+        final int prefix = networksByPrefix.getKey();
+        for (final Map.Entry<Long, Entry> network : networksByPrefix.getValue().entrySet()) {
+          final Entry entry = network.getValue();
+          final long covered = getCoveredUntil(network.getKey(), prefix);
+          if (covered == Long.MIN_VALUE) {
+            entries.add(new String[]{entry.cidr, String.valueOf(getTimeout(entry.expiresAt))});
+          } else if (covered < entry.expiresAt) {
+            // Export the entry again once the subnet is no longer blacklisted
+            nextExport = Math.min(nextExport, covered);
+          }
+        }
+      }
+      return nextExport;
+    }
+
+    // Latest expiry time of all shorter prefixes that contain the network
+    private long getCoveredUntil(final long bits, final int prefix) {
+      long covered = Long.MIN_VALUE;
+      for (final Map.Entry<Integer, Map<Long, Entry>> networksByPrefix : networks.entrySet()) {
+        final int shorterPrefix = networksByPrefix.getKey();
+        if (shorterPrefix >= prefix) break;
+        final long mask = shorterPrefix == 0 ? 0L : -1L << (width - shorterPrefix);
+        final Entry subnet = networksByPrefix.getValue().get(bits & mask);
+        if (subnet != null) {
+          covered = Math.max(covered, subnet.expiresAt);
+        }
+      }
+      return covered;
+    }
+  }
+
+  @RequiredArgsConstructor
+  private static final class Entry {
+    private final String cidr;
+    private final long expiresAt;
+  }
+
+  @FunctionalInterface
+  private interface Writer {
+    void write(final @NotNull BufferedWriter writer) throws IOException;
+  }
+}
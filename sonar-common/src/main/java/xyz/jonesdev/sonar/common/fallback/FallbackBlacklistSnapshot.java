@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback;
+
+import lombok.experimental.UtilityClass;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.fallback.blacklist.FallbackBlacklist;
+import xyz.jonesdev.sonar.api.timer.SystemTimer;
+
+import java.io.File;
+import java.nio.file.Path;
+
+@UtilityClass
+public class FallbackBlacklistSnapshot {
+  private long savedModifications = -1L;
+
+  private Path getPath() {
+    return new File(Sonar.get().getDataDirectory(), "blacklist.dat").toPath();
+  }
+
+  public void load() {
+    final FallbackBlacklist blacklist = Sonar.get().getFallback().getBlacklisted();
+    final SystemTimer timer = new SystemTimer();
+    try {
+      if (blacklist.load(getPath())) {
+        savedModifications = blacklist.getModifications();
+        Sonar.get().getLogger().info("Loaded {} blacklisted IP addresses in {}s",
+          Sonar.DECIMAL_FORMAT.format(blacklist.estimatedSize()), timer);
+      }
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Could not load blacklist snapshot: {}", exception);
+    }
+  }
+
+  public synchronized void save() {
+    final FallbackBlacklist blacklist = Sonar.get().getFallback().getBlacklisted();
+    // Don't write the snapshot again if nothing has changed
+    final long modifications = blacklist.getModifications();
+    if (modifications == savedModifications) return;
+
+    try {
+      blacklist.save(getPath());
+      savedModifications = modifications;
+    } catch (Exception exception) {
+      Sonar.get().getLogger().error("Could not save blacklist snapshot: {}", exception);
+    }
+  }
+}
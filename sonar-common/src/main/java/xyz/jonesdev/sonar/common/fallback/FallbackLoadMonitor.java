@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback;
+
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures how far the network threads of the proxy fall behind
+ * (scheduling delay of a probe task and number of pending tasks),
+ * so new unverified connections can be shed while the proxy is overloaded.
+ */
+@Getter
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class FallbackLoadMonitor {
+  public static final FallbackLoadMonitor INSTANCE = new FallbackLoadMonitor();
+
+  private volatile EventExecutor[] executors;
+  // Time the pending probe of every executor has been submitted at (0 if there is none)
+  private AtomicLongArray submittedAt, lags;
+  private volatile long eventLoopLag;
+  private volatile int pendingTasks;
+  private volatile boolean overloaded;
+
+  /**
+   * Starts monitoring the worker group of the channel (only once)
+   */
+  private void watch(final @NotNull Channel channel) {
+    if (executors != null) return;
+    synchronized (this) {
+      if (executors != null) return;
+      final EventLoopGroup group = channel.eventLoop().parent();
+      final List<EventExecutor> list = new ArrayList<>();
+      group.forEach(list::add);
+      submittedAt = new AtomicLongArray(list.size());
+      lags = new AtomicLongArray(list.size());
+      executors = list.toArray(new EventExecutor[0]);
+    }
+  }
+
+  /**
+   * Sends a new probe to every network thread and updates the load; called every 100 milliseconds
+   */
+  public void sample() {
+    final EventExecutor[] executors = this.executors;
+    if (executors == null) return;
+
+    final long now = System.nanoTime();
+    long maxLag = 0L;
+    int pending = 0;
+    for (int i = 0; i < executors.length; i++) {
+      final long submitted = submittedAt.get(i);
+      if (submitted != 0L) {
+        // The previous probe has not run yet
+        maxLag = Math.max(maxLag, now - submitted);
+      } else {
+        maxLag = Math.max(maxLag, lags.get(i));
+        submittedAt.set(i, now);
+        final int index = i;
+        executors[i].execute(() -> {
+          lags.set(index, System.nanoTime() - submittedAt.get(index));
+          submittedAt.set(index, 0L);
+        });
+      }
+      if (executors[i] instanceof SingleThreadEventExecutor) {
+        pending += ((SingleThreadEventExecutor) executors[i]).pendingTasks();
+      }
+    }
+    eventLoopLag = TimeUnit.NANOSECONDS.toMillis(maxLag);
+    pendingTasks = pending;
+
+    final SonarConfiguration.Overload config = Sonar.get().getConfig().getOverload();
+    if (overloaded) {
+      // Only stop shedding once the load is well below the limits
+      overloaded = eventLoopLag > config.getMaxEventLoopLag() / 2 || pendingTasks > config.getMaxPendingTasks() / 2;
+    } else {
+      overloaded = eventLoopLag > config.getMaxEventLoopLag() || pendingTasks > config.getMaxPendingTasks();
+    }
+  }
+
+  /**
+   * @param channel Channel of the new connection
+   * @return Whether the connection should be shed because the proxy is overloaded
+   */
+  public boolean shouldShed(final @NotNull Channel channel) {
+    if (!Sonar.get().getConfig().getOverload().isEnabled()) {
+      return false;
+    }
+    watch(channel);
+    return overloaded;
+  }
+}
@@ -26,6 +26,9 @@
 import java.util.concurrent.TimeUnit;
 
 public final class FallbackTimeoutHandler extends IdleStateHandler {
+  // Fired through the pipeline before the channel is closed, so the verification can fail the player
+  public static final Object READ_TIMED_OUT = new Object();
+
   private boolean knownDisconnect;
 
   public FallbackTimeoutHandler(final long timeout, final TimeUnit timeUnit) {
@@ -46,6 +49,7 @@ private void readTimedOut(final ChannelHandlerContext ctx) {
       // The default ReadTimeoutHandler does only check for the boolean 'closed' and
       // still throws the Exception even if the channel is closed
       if (ctx.channel().isActive()) {
+        ctx.fireUserEventTriggered(READ_TIMED_OUT);
         ctx.close();
       }
 
@@ -26,8 +26,10 @@
 import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.event.impl.UserVerifySuccessEvent;
+import xyz.jonesdev.sonar.api.fallback.FailureType;
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
 import xyz.jonesdev.sonar.api.model.VerifiedPlayer;
+import xyz.jonesdev.sonar.api.statistics.Statistics;
 import xyz.jonesdev.sonar.api.timer.SystemTimer;
 import xyz.jonesdev.sonar.common.fallback.protocol.*;
 import xyz.jonesdev.sonar.common.fallback.protocol.map.ItemMapType;
@@ -242,6 +244,37 @@ private static boolean validateClientBrand(final @NotNull FallbackUser<?, ?> use
     }
   }
 
+  @Override
+  public boolean handleRaw(final @NotNull FallbackPacket packet, final @NotNull ByteBuf byteBuf) {
+    // We only need the raw frame for chat messages while we're expecting a captcha code
+    if (state != State.MAP_CAPTCHA || !(packet instanceof Chat)) {
+      return false;
+    }
+    // Check if the player took too long to enter the captcha
+    final int maxDuration = Sonar.get().getConfig().getVerification().getMap().getMaxDuration();
+    checkFrame(!login.elapsed(maxDuration), "took too long to enter captcha", FailureType.TIMEOUT);
+
+    Objects.requireNonNull(captcha);
+    final boolean correct;
+    try {
+      // Compare the message to the pre-encoded answer without decoding the packet
+      correct = Chat.matchesMessage(byteBuf, user.getProtocolVersion(), captcha.getEncodedAnswer());
+    } catch (Throwable throwable) {
+      user.fail("failed to decode packet (" + byteBuf.readableBytes() + " bytes)");
+      throw new CorruptedFrameException("Failed to decode packet");
+    }
+
+    if (!correct) {
+      // Captcha is incorrect
+      checkFrame(captchaTriesLeft-- > 0, "failed captcha too often", FailureType.CAPTCHA);
+      user.write(incorrectCaptcha);
+      return true;
+    }
+    // Captcha is correct
+    finish();
+    return true;
+  }
+
   @Override
   public void handle(final @NotNull FallbackPacket packet) {
     // The player has already been verified, drop all other packets
@@ -252,22 +285,9 @@ public void handle(final @NotNull FallbackPacket packet) {
     if (state == State.MAP_CAPTCHA) {
       // Check if the player took too long to enter the captcha
       final int maxDuration = Sonar.get().getConfig().getVerification().getMap().getMaxDuration();
-      checkFrame(!login.elapsed(maxDuration), "took too long to enter captcha");
-
-      // Handle incoming chat messages
-      if (packet instanceof Chat) {
-        final Chat chat = (Chat) packet;
-        Objects.requireNonNull(captcha);
-        if (!chat.getMessage().equals(captcha.getInfo().getAnswer())) {
-          // Captcha is incorrect
-          checkFrame(captchaTriesLeft-- > 0, "failed captcha too often");
-          user.write(incorrectCaptcha);
-          return;
-        }
-        // Captcha is correct
-        finish();
-        return;
-      }
+      checkFrame(!login.elapsed(maxDuration), "took too long to enter captcha", FailureType.TIMEOUT);
+
+      // Incoming chat messages are handled before they are decoded (see #handleRaw)
 
       // Every second
       if (actionBar.elapsed(1000L)) {
@@ -468,8 +488,8 @@ private void handlePositionUpdate(final double x, final double y, final double z
 
     // The player is not allowed to move away from the collision platform.
     // This should not happen unless the max movement tick is configured to a high number.
-    checkFrame(Math.abs(x - BLOCKS_PER_ROW) < BLOCKS_PER_ROW, "moved too far (x)");
-    checkFrame(Math.abs(z - BLOCKS_PER_ROW) < BLOCKS_PER_ROW, "moved too far (z)");
+    checkFrame(Math.abs(x - BLOCKS_PER_ROW) < BLOCKS_PER_ROW, "moved too far (x)", FailureType.MOVEMENT);
+    checkFrame(Math.abs(z - BLOCKS_PER_ROW) < BLOCKS_PER_ROW, "moved too far (z)", FailureType.MOVEMENT);
 
     // Check if the client hasn't moved before sending the first movement packet
     if (!listenForMovements) {
@@ -488,7 +508,7 @@ private void handlePositionUpdate(final double x, final double y, final double z
     if (deltaY == 0) {
       // Check for too many ignored Y ticks
       final int maxIgnoredTicks = Sonar.get().getConfig().getVerification().getGravity().getMaxIgnoredTicks();
-      checkFrame(++ignoredMovementTicks < maxIgnoredTicks, "too many ignored ticks");
+      checkFrame(++ignoredMovementTicks < maxIgnoredTicks, "too many ignored ticks", FailureType.MOVEMENT);
       return;
     }
 
@@ -497,7 +517,7 @@ private void handlePositionUpdate(final double x, final double y, final double z
 
     // Check if the player is colliding by performing a basic Y offset check.
     // The offset cannot be greater than 0 since the blocks will not let the player fall through them.
-    checkFrame(collisionOffsetY <= 0, "fell through blocks: " + collisionOffsetY);
+    checkFrame(collisionOffsetY <= 0, "fell through blocks: " + collisionOffsetY, FailureType.MOVEMENT);
 
     if (tick > maxMovementTick) {
       // Log/debug position if enabled in the configuration
@@ -513,11 +533,11 @@ private void handlePositionUpdate(final double x, final double y, final double z
       }
     } else {
       // Check if the player is spoofing the ground state
-      checkFrame(!ground, "spoofed ground state");
+      checkFrame(!ground, "spoofed ground state", FailureType.MOVEMENT);
     }
 
     // Make sure we don't run out of predicted Y motions
-    checkFrame(tick < preparedCachedYMotions.length, "too many movements");
+    checkFrame(tick < preparedCachedYMotions.length, "too many movements", FailureType.MOVEMENT);
 
     if (!ground) {
       final double predictedY = preparedCachedYMotions[tick];
@@ -531,7 +551,7 @@ private void handlePositionUpdate(final double x, final double y, final double z
 
       // Check if the y motion is roughly equal to the predicted value
       checkFrame(offsetY < 0.005, String.format("invalid gravity: %d, %.7f, %.10f, %.10f != %.10f",
-        tick, y, offsetY, deltaY, predictedY));
+        tick, y, offsetY, deltaY, predictedY), FailureType.MOVEMENT);
     }
     tick++;
   }
@@ -584,10 +604,13 @@ private void finish() {
     user.getFallback().getConnected().remove(username);
 
     // Add verified player to the database
-    final VerifiedPlayer verifiedPlayer = new VerifiedPlayer(user.getInetAddress().toString(), playerUuid,
+    final VerifiedPlayer verifiedPlayer = new VerifiedPlayer(user.getInetAddress(), playerUuid,
       login.getStart());
     Sonar.get().getVerifiedPlayerController().add(verifiedPlayer);
 
+    // Increment the successful verifications statistic
+    Statistics.SUCCESSFUL_VERIFICATIONS.increment();
+
     // Call the VerifySuccessEvent for external API usage
     Sonar.get().getEventManager().publish(new UserVerifySuccessEvent(username, playerUuid, user, login.delay()));
 
@@ -615,8 +638,19 @@ private void assertState(final @NotNull State expectedState) {
    * @param message   Messages displayed in the stacktrace
    */
   private void checkFrame(final boolean condition, final String message) {
+    checkFrame(condition, message, FailureType.PROTOCOL);
+  }
+
+  /**
+   * Checks if a certain condition is met, fails the verification if not.
+   *
+   * @param condition Condition to fail if it's false
+   * @param message   Messages displayed in the stacktrace
+   * @param type      Type of the check (used for the failure score)
+   */
+  private void checkFrame(final boolean condition, final String message, final FailureType type) {
     if (!condition) {
-      user.fail(message);
+      user.fail(message, type);
       throw new CorruptedFrameException(message);
     }
   }
@@ -22,7 +22,9 @@
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.handler.codec.CorruptedFrameException;
 import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.fallback.FailureType;
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
+import xyz.jonesdev.sonar.common.fallback.FallbackTimeoutHandler;
 
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_20_2;
 import static xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketRegistry.Direction.SERVERBOUND;
@@ -46,6 +48,17 @@ public void updateRegistry(final @NotNull FallbackPacketRegistry registry) {
     this.registry = registry.getProtocolRegistry(SERVERBOUND, user.getProtocolVersion());
   }
 
+  @Override
+  public void userEventTriggered(final @NotNull ChannelHandlerContext ctx,
+                                 final @NotNull Object evt) throws Exception {
+    // Players that stop responding during the verification fail it
+    if (evt == FallbackTimeoutHandler.READ_TIMED_OUT) {
+      user.fail("read timed out", FailureType.TIMEOUT);
+      return;
+    }
+    super.userEventTriggered(ctx, evt);
+  }
+
   @Override
   public void channelRead(final @NotNull ChannelHandlerContext ctx,
                           final @NotNull Object msg) throws Exception {
@@ -75,6 +88,11 @@ public void channelRead(final @NotNull ChannelHandlerContext ctx,
         // Ensure that the packet isn't too large or too small
         doLengthSanityChecks(byteBuf, packet);
 
+        // Let our verification handler process the raw frame if it doesn't need the decoded packet
+        if (listener.handleRaw(packet, byteBuf)) {
+          return;
+        }
+
         try {
           // Try to decode the packet for the given protocol version
           packet.decode(byteBuf, user.getProtocolVersion());
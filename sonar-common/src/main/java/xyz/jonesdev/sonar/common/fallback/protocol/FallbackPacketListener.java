@@ -17,6 +17,7 @@
 
 package xyz.jonesdev.sonar.common.fallback.protocol;
 
+import io.netty.buffer.ByteBuf;
 import org.jetbrains.annotations.NotNull;
 
 @FunctionalInterface
@@ -28,4 +29,15 @@ public interface FallbackPacketListener {
    * @param packet Packet to handle
    */
   void handle(final @NotNull FallbackPacket packet);
+
+  /**
+   * Handles the incoming packet before it is decoded
+   *
+   * @param packet  Packet that has not been decoded yet
+   * @param byteBuf Frame of the packet (positioned after the packet id)
+   * @return Whether the frame has been handled and should not be decoded
+   */
+  default boolean handleRaw(final @NotNull FallbackPacket packet, final @NotNull ByteBuf byteBuf) {
+    return false;
+  }
 }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback.protocol.map;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+import static xyz.jonesdev.sonar.common.fallback.protocol.map.PreparedMapInfo.SCALE;
+
+/**
+ * Single contiguous buffer that holds the (row-major) pixels of all prepared captchas.
+ * Captchas only store their offset into this buffer, and packets read from it directly.
+ */
+@Getter
+public final class MapCaptchaStorage {
+  private final ByteBuf buffer;
+  private final boolean offHeap;
+
+  public MapCaptchaStorage(final int amount, final boolean offHeap) {
+    this.offHeap = offHeap;
+    // The wrapped buffers are never released manually, so we let the GC free them
+    // once the storage is no longer used by any captcha (e.g. after a reload).
+    this.buffer = offHeap
+      ? Unpooled.wrappedBuffer(ByteBuffer.allocateDirect(amount * SCALE))
+      : Unpooled.wrappedBuffer(new byte[amount * SCALE]);
+  }
+
+  /**
+   * Copies the pixels of a captcha into the storage.
+   * This method is not thread-safe and must only be called by the preparing thread.
+   *
+   * @param index  Index of the captcha
+   * @param pixels Map color ids of the captcha
+   * @return Offset of the captcha in the storage
+   */
+  public int write(final int index, final byte @NotNull [] pixels) {
+    final int offset = index * SCALE;
+    buffer.setBytes(offset, pixels, 0, SCALE);
+    return offset;
+  }
+
+  /**
+   * @return Number of bytes used by the storage
+   */
+  public long getMemoryUsage() {
+    return buffer.capacity();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.common.fallback.protocol.map;
+
+import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Converts RGB colors to Minecraft map color ids using a precomputed
+ * lookup table, so that every pixel costs a single array access.
+ */
+@UtilityClass
+public class MapColorPalette {
+  // Base colors 1-13; the same captcha is sent to every version, but the other
+  // base colors (14 and above) only exist since 1.8, so 1.7 clients can't display them.
+  // https://minecraft.wiki/w/Map_item_format#Base_colors
+  private final int[] BASE_COLORS = new int[]{
+    0x7FB238, 0xF7E9A3, 0xC7C7C7, 0xFF0000, 0xA0A0FF, 0xA7A7A7, 0x007C00,
+    0xFFFFFF, 0xA4A8B8, 0x976D4D, 0x707070, 0x4040FF, 0x8F7748
+  };
+  // Shades of every base color; the shade is the lowest two bits of the color id.
+  // The fourth shade (multiplier 135) is left out for the same reason, since it only exists since 1.8.
+  private final int[] SHADE_MULTIPLIERS = new int[]{180, 220, 255};
+
+  // 4x4 Bayer matrix used for ordered dithering (values 0-15)
+  private final int[] BAYER_MATRIX = new int[]{
+    0, 8, 2, 10,
+    12, 4, 14, 6,
+    3, 11, 1, 9,
+    15, 7, 13, 5
+  };
+  // Maximum offset (per channel) that the ordered dithering adds to a pixel
+  private final int DITHER_SPREAD = 24;
+
+  private final int[] PALETTE_RGB = new int[BASE_COLORS.length * SHADE_MULTIPLIERS.length];
+  private final byte[] PALETTE_IDS = new byte[PALETTE_RGB.length];
+  // 15-bit RGB (5 bits per channel) -> map color id
+  private final byte[] LOOKUP_TABLE = new byte[1 << 15];
+  // Bayer matrix already scaled to the per-channel offset
+  private final int[] DITHER_OFFSETS = new int[BAYER_MATRIX.length];
+
+  static {
+    for (int i = 0; i < BASE_COLORS.length; i++) {
+      final int base = BASE_COLORS[i];
+      for (int shade = 0; shade < SHADE_MULTIPLIERS.length; shade++) {
+        final int multiplier = SHADE_MULTIPLIERS[shade];
+        final int index = i * SHADE_MULTIPLIERS.length + shade;
+        PALETTE_RGB[index] = (((base >> 16) & 0xFF) * multiplier / 255) << 16
+          | (((base >> 8) & 0xFF) * multiplier / 255) << 8
+          | ((base & 0xFF) * multiplier / 255);
+        // Color id 0 (NONE) is transparent, so the base colors start at 1
+        PALETTE_IDS[index] = (byte) ((i + 1) << 2 | shade);
+      }
+    }
+
+    for (int rgb15 = 0; rgb15 < LOOKUP_TABLE.length; rgb15++) {
+      // Use the center of the 5-bit bucket to get a more accurate match
+      final int red = (rgb15 >> 10 & 0x1F) << 3 | 4;
+      final int green = (rgb15 >> 5 & 0x1F) << 3 | 4;
+      final int blue = (rgb15 & 0x1F) << 3 | 4;
+      LOOKUP_TABLE[rgb15] = PALETTE_IDS[nearest(red, green, blue)];
+    }
+
+    for (int i = 0; i < BAYER_MATRIX.length; i++) {
+      DITHER_OFFSETS[i] = (BAYER_MATRIX[i] * 2 - 15) * DITHER_SPREAD / 30;
+    }
+  }
+
+  private int nearest(final int red, final int green, final int blue) {
+    int closest = 0;
+    long closestDistance = Long.MAX_VALUE;
+    for (int i = 0; i < PALETTE_RGB.length; i++) {
+      final int color = PALETTE_RGB[i];
+      final int deltaRed = red - (color >> 16 & 0xFF);
+      final int deltaGreen = green - (color >> 8 & 0xFF);
+      final int deltaBlue = blue - (color & 0xFF);
+      // "Redmean" approximation of the perceived color difference
+      final int meanRed = (red + (color >> 16 & 0xFF)) >> 1;
+      final long distance = (((512L + meanRed) * deltaRed * deltaRed) >> 8)
+        + 4L * deltaGreen * deltaGreen
+        + (((767L - meanRed) * deltaBlue * deltaBlue) >> 8);
+      if (distance < closestDistance) {
+        closestDistance = distance;
+        closest = i;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * @param rgb 24-bit RGB color
+   * @return Closest map color id for the given color
+   */
+  public byte toMapColor(final int rgb) {
+    return LOOKUP_TABLE[(rgb >> 9 & 0x7C00) | (rgb >> 6 & 0x3E0) | (rgb >> 3 & 0x1F)];
+  }
+
+  /**
+   * Converts an entire image (row-major, 24-bit RGB) to map color ids
+   *
+   * @param pixels RGB pixels of the image
+   * @param width  Width of the image
+   * @param buffer Buffer that the map color ids will be written to
+   * @param dither Whether ordered dithering should be applied
+   */
+  public void toMapColors(final int @NotNull [] pixels, final int width,
+                          final byte @NotNull [] buffer, final boolean dither) {
+    if (!dither) {
+      for (int i = 0; i < pixels.length; i++) {
+        buffer[i] = toMapColor(pixels[i]);
+      }
+      return;
+    }
+
+    for (int i = 0; i < pixels.length; i++) {
+      final int pixel = pixels[i];
+      final int offset = DITHER_OFFSETS[((i / width) & 3) << 2 | (i % width) & 3];
+      final int red = clampChannel((pixel >> 16 & 0xFF) + offset);
+      final int green = clampChannel((pixel >> 8 & 0xFF) + offset);
+      final int blue = clampChannel((pixel & 0xFF) + offset);
+      buffer[i] = LOOKUP_TABLE[(red >> 3) << 10 | (green >> 3) << 5 | (blue >> 3)];
+    }
+  }
+
+  private int clampChannel(final int value) {
+    return value < 0 ? 0 : Math.min(value, 0xFF);
+  }
+}
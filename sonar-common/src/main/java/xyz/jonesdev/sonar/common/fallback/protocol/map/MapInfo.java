@@ -17,14 +17,16 @@
 
 package xyz.jonesdev.sonar.common.fallback.protocol.map;
 
+import io.netty.buffer.ByteBuf;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 
 @Getter
 @RequiredArgsConstructor
 public final class MapInfo {
-  private final String answer;
   private final int columns, rows;
   private final int x, y;
-  private final byte[] buffer;
+  // Shared storage of the (row-major) pixels; only ever read using absolute indices
+  private final ByteBuf buffer;
+  private final int offset;
 }
@@ -19,6 +19,7 @@
 
 import lombok.Getter;
 import lombok.experimental.UtilityClass;
+import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.timer.SystemTimer;
@@ -28,18 +29,20 @@
 import java.awt.font.GlyphVector;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
-import java.util.Arrays;
+import java.awt.image.DataBufferInt;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.awt.Font.*;
 import static xyz.jonesdev.sonar.common.fallback.protocol.map.PreparedMapInfo.DIMENSIONS;
 
 @UtilityClass
 public class MapInfoPreparer {
-  private final Random RANDOM = new Random();
+  // Only used on the preparing thread to split off one generator per captcha
+  private final SplittableRandom RANDOM = new SplittableRandom();
 
   private final ExecutorService PREPARATION_SERVICE = Executors.newSingleThreadExecutor();
 
@@ -50,46 +53,15 @@ public class MapInfoPreparer {
     ITALIC | BOLD
   };
 
-  private final int[][] COLOR_PALETTE = new int[][]{
-    new int[]{ // Blue
-      48,
-      49,
-      50,
-      51
-    },
-    new int[]{ // Orange
-      60,
-      61,
-      62,
-      63,
-    },
-    new int[]{ // Green
-      4,
-      28,
-      29,
-      30,
-    },
-    new int[]{ // Black
-      27,
-      45,
-      46,
-      47,
-    },
-    new int[]{ // Red
-      16,
-      17,
-      18,
-      19
-    }
-  };
-
   private PreparedMapInfo[] cached;
   @Getter
+  private MapCaptchaStorage storage;
+  @Getter
   private int preparedCAPTCHAs;
   private boolean currentlyPreparing;
 
   public PreparedMapInfo getRandomCaptcha() {
-    return cached[RANDOM.nextInt(preparedCAPTCHAs)];
+    return cached[ThreadLocalRandom.current().nextInt(preparedCAPTCHAs)];
   }
 
   public void prepare() {
@@ -108,6 +80,8 @@ public void prepare() {
     final SonarConfiguration.Verification.Map config = Sonar.get().getConfig().getVerification().getMap();
     cached = null;
     cached = new PreparedMapInfo[config.getPrecomputeAmount()];
+    final MapCaptchaStorage storage = new MapCaptchaStorage(cached.length, config.isOffHeap());
+    MapInfoPreparer.storage = storage;
 
     // Prepare fonts from config
     final String dictionary = config.getDictionary();
@@ -123,35 +97,49 @@ public void prepare() {
     final double distortionsFactorY = config.getDistortionsFactorY();
     final double halfDistortionsFactorX = distortionsFactorX / 2D;
     final double halfDistortionsFactorY = distortionsFactorY / 2D;
+    final int backgroundNoise = config.getBackgroundNoise();
+    final boolean dithering = config.isDithering();
+
+    // All captchas are prepared on the same thread, so they can share one temporary buffer
+    final byte[] buffer = new byte[PreparedMapInfo.SCALE];
 
     for (int _i = 0; _i < cached.length; _i++) {
       final int currentIndex = _i;
-      final byte[] buffer = new byte[PreparedMapInfo.SCALE];
+      // Every captcha gets its own generator, so no state is shared between tasks
+      final SplittableRandom random = RANDOM.split();
       PREPARATION_SERVICE.execute(() -> {
         // Create image
-        final BufferedImage image = new BufferedImage(DIMENSIONS, DIMENSIONS, BufferedImage.TYPE_3BYTE_BGR);
+        final BufferedImage image = new BufferedImage(DIMENSIONS, DIMENSIONS, BufferedImage.TYPE_INT_RGB);
         final Graphics2D graphics = (Graphics2D) image.getGraphics();
         try {
+          final int halfWidth = image.getWidth() / 2;
+          final int halfHeight = image.getHeight() / 2;
+
+          // Draw a random gradient as the background
+          graphics.setPaint(new GradientPaint(
+            random.nextInt(halfWidth), random.nextInt(halfHeight), randomColor(random, 150, 256),
+            halfWidth + random.nextInt(halfWidth), halfHeight + random.nextInt(halfHeight), randomColor(random, 150, 256)));
+          graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+          graphics.setColor(randomColor(random, 0, 100));
+
           // Create random font
-          final String fontType = fontTypes[RANDOM.nextInt(fontTypes.length)];
-          final int fontStyle = FONT_STYLES[RANDOM.nextInt(FONT_STYLES.length)];
+          final String fontType = fontTypes[random.nextInt(fontTypes.length)];
+          final int fontStyle = FONT_STYLES[random.nextInt(FONT_STYLES.length)];
           final int fontSize = 27
             + (config.isRandomizeFontSize()
-            ? RANDOM.nextInt(6) - 2 : 5);
+            ? random.nextInt(6) - 2 : 5);
           @SuppressWarnings("all") final Font answerFont = new Font(fontType, fontStyle, fontSize);
           graphics.setFont(answerFont);
 
           // Build answer to the captcha
           final StringBuilder answerBuilder = new StringBuilder();
           for (int _j = 0; _j < 5; _j++) {
-            answerBuilder.append(dictionary.charAt(RANDOM.nextInt(dictionary.length())));
+            answerBuilder.append(dictionary.charAt(random.nextInt(dictionary.length())));
           }
           final String answer = answerBuilder.toString();
 
           // Calculate text position
           final int stringWidth = graphics.getFontMetrics().stringWidth(answer);
-          final int halfWidth = image.getWidth() / 2;
-          final int halfHeight = image.getHeight() / 2;
           final int spacing = 5;
           double _x = halfWidth - stringWidth / 2f - spacing;
           double _y = halfHeight + fontSize / 3f;
@@ -161,12 +149,12 @@ public void prepare() {
           for (final char c : answer.toCharArray()) {
             // Randomize x and y
             if (config.isRandomizePositions()) {
-              _y += RANDOM.nextInt(8) - 4;
+              _y += random.nextInt(8) - 4;
             }
 
             // Apply random distortion
-            final double distortionFactorX = RANDOM.nextDouble() * distortionsFactorX - halfDistortionsFactorX;
-            final double distortionFactorY = RANDOM.nextDouble() * distortionsFactorY - halfDistortionsFactorY;
+            final double distortionFactorX = random.nextDouble() * distortionsFactorX - halfDistortionsFactorX;
+            final double distortionFactorY = random.nextDouble() * distortionsFactorY - halfDistortionsFactorY;
 
             // Create a GlyphVector for the character
             final String character = String.valueOf(c);
@@ -185,52 +173,40 @@ public void prepare() {
             _x += glyphVector.getVisualBounds().getWidth() + spacing;
           }
 
-          // TODO: Color converter
-          graphics.setColor(Color.RED);
+          graphics.setColor(randomColor(random, 50, 200));
 
           // Draw random lines
           for (int i = 0; i < config.getRandomLinesAmount(); i++) {
-            final int startX = RANDOM.nextInt(halfWidth);
-            final int startY = RANDOM.nextInt(halfHeight);
-            final int endX = halfWidth + RANDOM.nextInt(halfWidth);
-            final int endY = halfHeight + RANDOM.nextInt(halfHeight);
+            final int startX = random.nextInt(halfWidth);
+            final int startY = random.nextInt(halfHeight);
+            final int endX = halfWidth + random.nextInt(halfWidth);
+            final int endY = halfHeight + random.nextInt(halfHeight);
 
             graphics.drawLine(startX, startY, endX, endY);
           }
 
           // Draw random ovals
           for (int i = 0; i < config.getRandomOvalsAmount(); i++) {
-            final int startX = RANDOM.nextInt(halfWidth);
-            final int startY = RANDOM.nextInt(halfHeight);
-            final int endX = halfWidth + RANDOM.nextInt(halfWidth);
-            final int endY = halfHeight + RANDOM.nextInt(halfHeight);
+            final int startX = random.nextInt(halfWidth);
+            final int startY = random.nextInt(halfHeight);
+            final int endX = halfWidth + random.nextInt(halfWidth);
+            final int endY = halfHeight + random.nextInt(halfHeight);
 
             graphics.drawOval(startX, startY, endX, endY);
           }
 
-          // Select random color palette
-          final int[] colorPalette = COLOR_PALETTE[currentIndex % COLOR_PALETTE.length];
-          // Select the next color palette for geometry
-          final int[] nextColorPalette = COLOR_PALETTE[(currentIndex + 1) % COLOR_PALETTE.length];
-          // Clear background
-          Arrays.fill(buffer, (byte) 57);
-          // Color every pixel individually
-          final int spacingY = halfHeight - fontSize;
-          for (int x = spacing; x < image.getWidth() - spacing; x++) {
-            for (int y = spacingY; y < image.getHeight() - spacingY; y++) {
-              final int pixel = image.getRGB(x, y);
-              final int index = y * image.getWidth() + x;
-              if (pixel == -16777216 && RANDOM.nextInt(100) < 97) continue;
-              // Set color of pixel to random color from the palette
-              final byte color = (byte) (pixel == -16777216 ? RANDOM.nextInt(100) < 75 ? 14 : RANDOM.nextInt(Byte.MAX_VALUE)
-                : pixel != -65536 ? colorPalette[RANDOM.nextInt(colorPalette.length)]
-                : nextColorPalette[RANDOM.nextInt(nextColorPalette.length)]);
-              // Write pixel color to buffer
-              buffer[index] = color;
+          // Add random noise and convert every pixel to the closest map color
+          final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+          if (backgroundNoise > 0) {
+            for (int i = 0; i < pixels.length; i++) {
+              if (random.nextInt(100) >= backgroundNoise) continue;
+              pixels[i] = shade(pixels[i], random.nextInt(97) - 48);
             }
           }
+          MapColorPalette.toMapColors(pixels, image.getWidth(), buffer, dithering);
           // Cache buffer to map
-          cached[currentIndex] = new PreparedMapInfo(answer, image.getWidth(), image.getHeight(), buffer);
+          final int offset = storage.write(currentIndex, buffer);
+          cached[currentIndex] = new PreparedMapInfo(answer, image.getWidth(), image.getHeight(), storage, offset);
         } finally {
           // Dispose graphics
           graphics.dispose();
@@ -244,4 +220,15 @@ public void prepare() {
       });
     }
   }
+
+  private @NotNull Color randomColor(final @NotNull SplittableRandom random, final int min, final int max) {
+    return new Color(random.nextInt(min, max), random.nextInt(min, max), random.nextInt(min, max));
+  }
+
+  private int shade(final int rgb, final int offset) {
+    final int red = Math.max(0, Math.min(0xFF, (rgb >> 16 & 0xFF) + offset));
+    final int green = Math.max(0, Math.min(0xFF, (rgb >> 8 & 0xFF) + offset));
+    final int blue = Math.max(0, Math.min(0xFF, (rgb & 0xFF) + offset));
+    return red << 16 | green << 8 | blue;
+  }
 }
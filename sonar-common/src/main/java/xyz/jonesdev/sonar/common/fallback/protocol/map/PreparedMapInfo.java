@@ -17,11 +17,14 @@
 
 package xyz.jonesdev.sonar.common.fallback.protocol.map;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.fallback.FallbackUser;
 import xyz.jonesdev.sonar.common.fallback.protocol.packets.play.MapData;
 
+import java.nio.charset.StandardCharsets;
+
 import static xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion.MINECRAFT_1_8;
 
 @Getter
@@ -29,37 +32,47 @@ public final class PreparedMapInfo {
   public static final int DIMENSIONS = (int) Math.pow(2, 7);
   public static final int SCALE = DIMENSIONS * DIMENSIONS;
 
+  private final String answer;
+  // UTF-8 encoded answer, so we can compare it to incoming chat frames directly
+  private final byte[] encodedAnswer;
   private final MapInfo info;
-  private final MapData[] legacy;
-  private final MapData modern;
+  @Getter(AccessLevel.NONE)
+  private final MapData packet;
+  // 1.7 clients receive the map column by column; the packets are only built once a 1.7 client needs them,
+  // since there can be up to 100000 prepared maps
+  @Getter(AccessLevel.NONE)
+  private volatile MapData[] legacyPackets;
 
   public PreparedMapInfo(final String answer,
                          final int columns, final int rows,
-                         final byte @NotNull [] buffer) {
-    this.info = new MapInfo(answer, columns, rows, 0, 0, buffer);
-
-    // Prepare 1.7 map data using a grid
-    final byte[][] grid = new byte[DIMENSIONS][DIMENSIONS];
-    for (int i = 0; i < buffer.length; i++) {
-      final byte buf = buffer[i];
-      grid[i & Byte.MAX_VALUE][i >> 7] = buf;
-    }
-    this.legacy = new MapData[grid.length];
-    for (int i = 0; i < grid.length; i++) {
-      this.legacy[i] = new MapData(new MapInfo(answer, DIMENSIONS, DIMENSIONS, i, 0, grid[i]));
-    }
-
-    // Prepare 1.8+ map data
-    this.modern = new MapData(info);
+                         final @NotNull MapCaptchaStorage storage, final int offset) {
+    this.answer = answer;
+    this.encodedAnswer = answer.getBytes(StandardCharsets.UTF_8);
+    this.info = new MapInfo(columns, rows, 0, 0, storage.getBuffer(), offset);
+    this.packet = new MapData(info);
   }
 
   public void write(final @NotNull FallbackUser<?, ?> user) {
     if (user.getProtocolVersion().compareTo(MINECRAFT_1_8) < 0) {
-      for (final MapData data : legacy) {
-        user.delayedWrite(data);
+      for (final MapData legacyPacket : getLegacyPackets()) {
+        user.delayedWrite(legacyPacket);
       }
     } else {
-      user.delayedWrite(modern);
+      user.delayedWrite(packet);
+    }
+  }
+
+  private MapData @NotNull [] getLegacyPackets() {
+    MapData[] packets = legacyPackets;
+    if (packets == null) {
+      // Every column is just a view of the same pixels; building them twice in a race is harmless
+      packets = new MapData[info.getColumns()];
+      for (int column = 0; column < packets.length; column++) {
+        packets[column] = new MapData(new MapInfo(info.getColumns(), info.getRows(),
+          column, 0, info.getBuffer(), info.getOffset()));
+      }
+      legacyPackets = packets;
     }
+    return packets;
   }
 }
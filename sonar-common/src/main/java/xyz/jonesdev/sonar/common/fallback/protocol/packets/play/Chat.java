@@ -164,4 +164,81 @@ public void decode(final ByteBuf byteBuf, final @NotNull ProtocolVersion protoco
       }
     }
   }
+
+  /**
+   * Compares the message of a serverbound chat frame to the expected message
+   * without decoding the message or materializing any of the signature fields.
+   *
+   * @param byteBuf         Frame of the packet (positioned after the packet id)
+   * @param protocolVersion Protocol version of the client
+   * @param expected        UTF-8 encoded message that is expected
+   * @return Whether the message of the frame is the expected message
+   * @throws CorruptedFrameException if the frame is not a valid chat packet
+   */
+  public static boolean matchesMessage(final @NotNull ByteBuf byteBuf,
+                                       final @NotNull ProtocolVersion protocolVersion,
+                                       final byte @NotNull [] expected) throws CorruptedFrameException {
+    final int length = readVarInt(byteBuf);
+    if (length < 0 || length > 256 * 3 || !byteBuf.isReadable(length)) {
+      throw new CorruptedFrameException("Bad string size");
+    }
+
+    boolean matches = length == expected.length;
+    for (int i = 0; matches && i < length; i++) {
+      matches = byteBuf.getByte(byteBuf.readerIndex() + i) == expected[i];
+    }
+    byteBuf.skipBytes(length);
+
+    if (protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_19) >= 0) {
+      if (protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_19_1) <= 0) {
+        byteBuf.skipBytes(Long.BYTES); // expiry
+        final long saltLong = byteBuf.readLong();
+        final int signatureLength = skipByteArray(byteBuf, Short.MAX_VALUE);
+
+        final boolean unsigned;
+        if (saltLong != 0L && signatureLength > 0) {
+          unsigned = false;
+        } else if ((protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_19_1) >= 0
+          || saltLong == 0L) && signatureLength == 0) {
+          unsigned = true;
+        } else {
+          throw new CorruptedFrameException("Invalid signature");
+        }
+
+        if (byteBuf.readBoolean() && unsigned) {
+          throw new CorruptedFrameException("Signature missing");
+        }
+
+        if (protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_19_1) >= 0) {
+          final int size = readVarInt(byteBuf);
+          if (size < 0 || size > 5) {
+            throw new CorruptedFrameException("Invalid previous messages");
+          }
+
+          for (int i = 0; i < size; i++) {
+            byteBuf.skipBytes(Long.BYTES * 2); // sender
+            skipByteArray(byteBuf, Short.MAX_VALUE);
+          }
+
+          if (byteBuf.readBoolean()) {
+            byteBuf.skipBytes(Long.BYTES * 2); // sender
+            skipByteArray(byteBuf, Short.MAX_VALUE);
+          }
+        }
+      } else {
+        byteBuf.skipBytes(Long.BYTES * 2); // timestamp and salt
+        if (byteBuf.readBoolean()) {
+          byteBuf.skipBytes(256); // signature
+        }
+
+        readVarInt(byteBuf);
+        byteBuf.skipBytes(DIV_FLOOR);
+      }
+    }
+
+    if (byteBuf.isReadable()) {
+      throw new CorruptedFrameException("Could not read packet to end");
+    }
+    return matches;
+  }
 }
@@ -41,12 +41,16 @@ public void encode(final @NotNull ByteBuf byteBuf, final @NotNull ProtocolVersio
     writeVarInt(byteBuf, 0);
 
     if (protocolVersion.compareTo(ProtocolVersion.MINECRAFT_1_8) < 0) {
-      byteBuf.writeShort(mapInfo.getBuffer().length + 3);
+      byteBuf.writeShort(mapInfo.getRows() + 3);
       byteBuf.writeByte(0); // scaling
       byteBuf.writeByte(mapInfo.getX());
       byteBuf.writeByte(mapInfo.getY());
 
-      byteBuf.writeBytes(mapInfo.getBuffer());
+      // 1.7 maps are sent column by column, so we need to read the column from the buffer
+      final ByteBuf buffer = mapInfo.getBuffer();
+      for (int row = 0; row < mapInfo.getRows(); row++) {
+        byteBuf.writeByte(buffer.getByte(mapInfo.getOffset() + row * mapInfo.getColumns() + mapInfo.getX()));
+      }
     } else {
       byteBuf.writeByte(0); // scaling
 
@@ -70,8 +74,9 @@ public void encode(final @NotNull ByteBuf byteBuf, final @NotNull ProtocolVersio
       byteBuf.writeByte(mapInfo.getX());
       byteBuf.writeByte(mapInfo.getY());
 
-      writeVarInt(byteBuf, mapInfo.getBuffer().length);
-      byteBuf.writeBytes(mapInfo.getBuffer());
+      final int length = mapInfo.getColumns() * mapInfo.getRows();
+      writeVarInt(byteBuf, length);
+      byteBuf.writeBytes(mapInfo.getBuffer(), mapInfo.getOffset(), length);
     }
   }
 
@@ -20,6 +20,9 @@
 import lombok.experimental.UtilityClass;
 import xyz.jonesdev.sonar.api.Sonar;
 import xyz.jonesdev.sonar.api.fallback.traffic.TrafficCounter;
+import xyz.jonesdev.sonar.common.fallback.FallbackBlacklistExporter;
+import xyz.jonesdev.sonar.common.fallback.FallbackBlacklistSnapshot;
+import xyz.jonesdev.sonar.common.fallback.FallbackLoadMonitor;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -30,6 +33,7 @@ public class ServiceRepository {
   private final ScheduledExecutorService QUEUE_SERVICE = Executors.newSingleThreadScheduledExecutor();
   private final ScheduledExecutorService TRAFFIC_SERVICE = Executors.newSingleThreadScheduledExecutor();
   private final ScheduledExecutorService VERBOSE_SERVICE = Executors.newSingleThreadScheduledExecutor();
+  private final ScheduledExecutorService BLACKLIST_SERVICE = Executors.newSingleThreadScheduledExecutor();
   private boolean registered;
 
   public void register() {
@@ -42,8 +46,16 @@ public void register() {
       1L, 1L, TimeUnit.SECONDS);
     QUEUE_SERVICE.scheduleAtFixedRate(Sonar.get().getFallback().getQueue()::poll,
       500L, 500L, TimeUnit.MILLISECONDS);
+    QUEUE_SERVICE.scheduleAtFixedRate(FallbackLoadMonitor.INSTANCE::sample,
+      100L, 100L, TimeUnit.MILLISECONDS);
     VERBOSE_SERVICE.scheduleAtFixedRate(Sonar.get().getVerboseHandler()::update,
       200L, 200L, TimeUnit.MILLISECONDS);
+    BLACKLIST_SERVICE.scheduleAtFixedRate(Sonar.get().getFallback().getBlacklisted()::cleanUp,
+      5L, 5L, TimeUnit.SECONDS);
+    BLACKLIST_SERVICE.scheduleAtFixedRate(FallbackBlacklistSnapshot::save,
+      5L, 5L, TimeUnit.MINUTES);
+    BLACKLIST_SERVICE.scheduleAtFixedRate(FallbackBlacklistExporter.INSTANCE::update,
+      5L, 5L, TimeUnit.SECONDS);
   }
 
   public synchronized void shutdown() {
@@ -53,7 +65,9 @@ public synchronized void shutdown() {
     registered = false;
 
     QUEUE_SERVICE.shutdown();
+    Sonar.get().getFallback().getQueue().shutdown();
     TRAFFIC_SERVICE.shutdown();
     VERBOSE_SERVICE.shutdown();
+    BLACKLIST_SERVICE.shutdown();
   }
 }
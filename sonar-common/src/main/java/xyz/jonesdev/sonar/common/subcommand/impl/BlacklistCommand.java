@@ -84,14 +84,11 @@ protected void execute(final @NotNull CommandInvocation invocation) {
         // Make sure the given IP address is valid
         if (inetAddress == null) return;
 
-        // Make sure the IP is blacklisted
-        if (!SONAR.getFallback().getBlacklisted().has(inetAddress)) {
+        // Invalidate the cache entry of the blacklisted IP address and the subnets that contain it
+        if (!SONAR.getFallback().getBlacklisted().invalidate(inetAddress)) {
           invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getBlacklistNotFound());
           return;
         }
-
-        // Invalidate the cache entry of the blacklisted IP address
-        SONAR.getFallback().getBlacklisted().invalidate(inetAddress);
         invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getBlacklistRemove()
           .replace("%ip%", rawInetAddress));
         break;
@@ -25,6 +25,8 @@
 import xyz.jonesdev.sonar.api.fallback.traffic.TrafficCounter;
 import xyz.jonesdev.sonar.api.profiler.JVMProfiler;
 import xyz.jonesdev.sonar.api.statistics.Statistics;
+import xyz.jonesdev.sonar.common.fallback.protocol.map.MapCaptchaStorage;
+import xyz.jonesdev.sonar.common.fallback.protocol.map.MapInfoPreparer;
 
 import static xyz.jonesdev.sonar.api.Sonar.DECIMAL_FORMAT;
 
@@ -93,7 +95,8 @@ protected void execute(final @NotNull CommandInvocation invocation) {
           .replace("%free_memory%", formatMemory(getFreeMemory()))
           .replace("%used_memory%", formatMemory(getUsedMemory()))
           .replace("%max_memory%", formatMemory(getMaxMemory()))
-          .replace("%total_memory%", formatMemory(getTotalMemory())));
+          .replace("%total_memory%", formatMemory(getTotalMemory()))
+          .replace("%captcha_memory%", formatMemory(getCaptchaMemory())));
         break;
       }
 
@@ -107,4 +110,9 @@ protected void execute(final @NotNull CommandInvocation invocation) {
       }
     }
   }
+
+  private static long getCaptchaMemory() {
+    final MapCaptchaStorage storage = MapInfoPreparer.getStorage();
+    return storage == null ? 0L : storage.getMemoryUsage();
+  }
 }
@@ -57,16 +57,19 @@ protected void execute(final @NotNull CommandInvocation invocation) {
         // Make sure the given IP address is valid
         if (inetAddress == null) return;
 
-        // Make sure the IP is verified already
-        if (!SONAR.getVerifiedPlayerController().has(inetAddress.toString())) {
-          invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedNotFound());
-          return;
-        }
-
-        invocation.getSender().sendMessage("<yellow>Previous UUIDs for " + rawInetAddress + ":");
-        for (final UUID uuid : SONAR.getVerifiedPlayerController().getUUIDs(inetAddress.toString())) {
-          invocation.getSender().sendMessage(" <gray>▪ <white>" + uuid.toString());
-        }
+        // The IP address might only be stored in the database if not all verified players are cached
+        SONAR.getVerifiedPlayerController().queryUUIDs(inetAddress).thenAccept(uuids -> {
+          // Make sure the IP is verified already
+          if (uuids.isEmpty()) {
+            invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedNotFound());
+            return;
+          }
+
+          invocation.getSender().sendMessage("<yellow>Previous UUIDs for " + rawInetAddress + ":");
+          for (final UUID uuid : uuids) {
+            invocation.getSender().sendMessage(" <gray>▪ <white>" + uuid.toString());
+          }
+        });
         break;
       }
 
@@ -89,21 +92,28 @@ protected void execute(final @NotNull CommandInvocation invocation) {
         // Make sure the given IP address is valid
         if (inetAddress == null) return;
 
-        // Make sure the player is verified already
-        if (!SONAR.getVerifiedPlayerController().has(inetAddress.toString())) {
-          invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedNotFound());
-          return;
-        }
-
         // Lock the IP address
         // Make sure we don't accidentally run 2 operations at the same time
-        LOCK.add(rawInetAddress);
-        SONAR.getVerifiedPlayerController().remove(inetAddress.toString());
+        if (!LOCK.offer(rawInetAddress)) {
+          invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedBlocked());
+          return;
+        }
 
-        invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedRemove()
-          .replace("%ip%", rawInetAddress));
-        // Unlock the IP address
-        LOCK.remove(rawInetAddress);
+        // The IP address might only be stored in the database if not all verified players are cached
+        SONAR.getVerifiedPlayerController().queryUUIDs(inetAddress).thenAccept(uuids -> {
+          // Make sure the player is verified already
+          if (uuids.isEmpty()) {
+            invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedNotFound());
+            return;
+          }
+
+          SONAR.getVerifiedPlayerController().remove(inetAddress);
+          invocation.getSender().sendMessage(SONAR.getConfig().getCommands().getVerifiedRemove()
+            .replace("%ip%", rawInetAddress));
+        }).whenComplete((result, throwable) -> {
+          // Unlock the IP address
+          LOCK.remove(rawInetAddress);
+        });
         break;
       }
 
@@ -67,6 +67,15 @@ public class ProtocolUtil {
     return array;
   }
 
+  public static int skipByteArray(final ByteBuf byteBuf, final int cap) {
+    final int length = readVarInt(byteBuf);
+    checkFrame(length >= 0, "Got a negative-length array");
+    checkFrame(length <= cap, "Bad array size");
+    checkFrame(byteBuf.isReadable(length), "Trying to read an array that is too long");
+    byteBuf.skipBytes(length);
+    return length;
+  }
+
   public static @NotNull String readBrandMessage(final @NotNull ByteBuf content) throws DecoderException {
     final ByteBuf slice = content.slice();
     try {
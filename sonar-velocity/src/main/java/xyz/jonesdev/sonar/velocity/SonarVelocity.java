@@ -17,6 +17,7 @@
 
 package xyz.jonesdev.sonar.velocity;
 
+import com.velocitypowered.proxy.VelocityServer;
 import lombok.Getter;
 import org.jetbrains.annotations.NotNull;
 import xyz.jonesdev.sonar.api.SonarPlatform;
@@ -25,6 +26,7 @@
 import xyz.jonesdev.sonar.velocity.audience.AudienceListener;
 import xyz.jonesdev.sonar.velocity.command.VelocitySonarCommand;
 import xyz.jonesdev.sonar.velocity.fallback.FallbackListener;
+import xyz.jonesdev.sonar.velocity.fallback.injection.AcceptChannelInitializer;
 
 @Getter
 public final class SonarVelocity extends SonarBootstrap<SonarVelocityPlugin> {
@@ -73,5 +75,8 @@ public void enable() {
 
     // Register audience register listener
     getPlugin().getServer().getEventManager().register(getPlugin(), new AudienceListener());
+
+    // Drop blacklisted IP addresses as soon as their connection is accepted
+    AcceptChannelInitializer.inject((VelocityServer) getPlugin().getServer());
   }
 }
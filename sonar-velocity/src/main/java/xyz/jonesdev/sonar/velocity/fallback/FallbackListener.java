@@ -17,6 +17,7 @@
 
 package xyz.jonesdev.sonar.velocity.fallback;
 
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.PostOrder;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.LoginEvent;
@@ -35,14 +36,19 @@
 import io.netty.channel.ChannelPipeline;
 import lombok.RequiredArgsConstructor;
 import lombok.val;
+import net.kyori.adventure.text.Component;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.jonesdev.sonar.api.ReflectiveOperationException;
 import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.config.SonarConfiguration;
 import xyz.jonesdev.sonar.api.event.impl.UserVerifyJoinEvent;
 import xyz.jonesdev.sonar.api.fallback.Fallback;
+import xyz.jonesdev.sonar.api.fallback.FallbackQueue;
 import xyz.jonesdev.sonar.api.fallback.protocol.ProtocolVersion;
 import xyz.jonesdev.sonar.api.statistics.Statistics;
 import xyz.jonesdev.sonar.common.fallback.FallbackChannelHandler;
+import xyz.jonesdev.sonar.common.fallback.FallbackLoadMonitor;
 import xyz.jonesdev.sonar.common.fallback.FallbackTimeoutHandler;
 import xyz.jonesdev.sonar.common.fallback.FallbackVerificationHandler;
 import xyz.jonesdev.sonar.common.fallback.protocol.FallbackPacketDecoder;
@@ -59,7 +65,10 @@
 import java.lang.reflect.Field;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.velocitypowered.proxy.network.Connections.*;
@@ -114,6 +123,21 @@ public final class FallbackListener {
     }
   }
 
+  // Packets of kick messages that are sent a lot during attacks, by protocol version
+  private static final Map<Component, Disconnect[]> CACHED_DISCONNECT_PACKETS = new ConcurrentHashMap<>(10);
+
+  private static @NotNull Disconnect getDisconnectPacket(final @NotNull Component component,
+                                                        final com.velocitypowered.api.network.ProtocolVersion version) {
+    final Disconnect[] cachedDisconnectPackets = CACHED_DISCONNECT_PACKETS.computeIfAbsent(component,
+      k -> new Disconnect[com.velocitypowered.api.network.ProtocolVersion.values().length]);
+    Disconnect cachedDisconnectPacket = cachedDisconnectPackets[version.ordinal()];
+    if (cachedDisconnectPacket == null) {
+      cachedDisconnectPacket = Disconnect.create(component, version);
+      cachedDisconnectPackets[version.ordinal()] = cachedDisconnectPacket;
+    }
+    return cachedDisconnectPacket;
+  }
+
   private static void markConnectionAsDead(final MinecraftSessionHandler sessionHandler) throws Throwable {
     // The AuthSessionHandler isn't supposed to continue the connection process,
     // which is why we override the field value for the MinecraftConnection with
@@ -122,7 +146,7 @@ private static void markConnectionAsDead(final MinecraftSessionHandler sessionHa
   }
 
   @Subscribe(order = PostOrder.LAST)
-  public void handle(final @NotNull PreLoginEvent event) throws Throwable {
+  public @Nullable EventTask handle(final @NotNull PreLoginEvent event) throws Throwable {
     // Increase joins per second for the action bar verbose
     Sonar.get().getVerboseHandler().getLoginsPerSecond().put(System.nanoTime());
 
@@ -131,9 +155,14 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
 
     final MinecraftConnection mcConnection = initialConnection.getConnection();
     final Channel channel = mcConnection.getChannel();
+    final InetAddress inetAddress = event.getConnection().getRemoteAddress().getAddress();
+    final GameProfile gameProfile = GameProfile.forOfflinePlayer(event.getUsername());
+    // Players that are not cached might have to be looked up in the database first
+    final CompletableFuture<Boolean> verified = Sonar.get().getVerifiedPlayerController()
+      .isVerified(inetAddress, gameProfile.getId(), channel.eventLoop());
 
     // Run in the channel's event loop
-    channel.eventLoop().execute(() -> {
+    final CompletableFuture<Void> scheduled = verified.thenAccept(alreadyVerified -> channel.eventLoop().execute(() -> {
 
       // Do not continue if the connection is closed or marked as disconnected
       if (mcConnection.isClosed() || mcConnection.isKnownDisconnect()) return;
@@ -142,8 +171,6 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
       final ChannelPipeline pipeline = channel.pipeline();
       TrafficChannelHooker.hook(pipeline, MINECRAFT_DECODER, MINECRAFT_ENCODER);
 
-      final InetAddress inetAddress = event.getConnection().getRemoteAddress().getAddress();
-
       // Increase total traffic statistic
       Statistics.TOTAL_TRAFFIC.increment();
 
@@ -152,10 +179,10 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
         val activeSessionHandler = (MinecraftSessionHandler) SESSION_HANDLER_FIELD.get(mcConnection);
 
         // Check the blacklist here since we cannot let the player "ghost join"
-        if (fallback.getBlacklisted().has(inetAddress)) {
+        if (fallback.getBlacklisted().has(inetAddress, alreadyVerified)) {
           // Mark the connection as dead to avoid unnecessary console logs
           markConnectionAsDead(activeSessionHandler);
-          initialConnection.getConnection().closeWith(Disconnect.create(
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
             Sonar.get().getConfig().getVerification().getBlacklisted(),
             inboundConnection.getProtocolVersion()
           ));
@@ -177,7 +204,7 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
         if (Sonar.get().getConfig().getVerification().getBlacklistedProtocols().contains(protocolId)) {
           // Mark the connection as dead to avoid unnecessary console logs
           markConnectionAsDead(activeSessionHandler);
-          initialConnection.getConnection().closeWith(Disconnect.create(
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
             Sonar.get().getConfig().getVerification().getProtocolBlacklisted(),
             inboundConnection.getProtocolVersion()
           ));
@@ -186,8 +213,7 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
 
         // Check if the player is already verified.
         // No one wants to be verified over and over again.
-        final GameProfile gameProfile = GameProfile.forOfflinePlayer(event.getUsername());
-        if (Sonar.get().getVerifiedPlayerController().has(inetAddress, gameProfile.getId())) return;
+        if (alreadyVerified) return;
 
         // Check if the protocol ID of the player is allowed to bypass verification
         if (Sonar.get().getConfig().getVerification().getWhitelistedProtocols().contains(protocolId)) return;
@@ -197,9 +223,22 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
         // Don't allow exceptions or disconnect messages
         mcConnection.setAssociation(null);
 
+        // Shed new players while the network threads are overloaded
+        if (FallbackLoadMonitor.INSTANCE.shouldShed(channel)) {
+          if (Sonar.get().getConfig().getOverload().getAction() == SonarConfiguration.Overload.Action.CLOSE) {
+            channel.close();
+          } else {
+            initialConnection.getConnection().closeWith(getDisconnectPacket(
+              Sonar.get().getConfig().getOverload().getServerBusy(),
+              inboundConnection.getProtocolVersion()
+            ));
+          }
+          return;
+        }
+
         // Check if the player is already queued since we don't want bots to flood the queue
         if (fallback.getQueue().getQueuedPlayers().containsKey(inetAddress)) {
-          initialConnection.getConnection().closeWith(Disconnect.create(
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
             Sonar.get().getConfig().getVerification().getAlreadyQueued(),
             inboundConnection.getProtocolVersion()
           ));
@@ -210,7 +249,7 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
         // → is another player with the same IP address connected to Fallback?
         if (fallback.getConnected().containsKey(event.getUsername())
           || fallback.getConnected().containsValue(inetAddress)) {
-          initialConnection.getConnection().closeWith(Disconnect.create(
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
             Sonar.get().getConfig().getVerification().getAlreadyVerifying(),
             inboundConnection.getProtocolVersion()
           ));
@@ -219,7 +258,7 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
 
         // Check if the IP address is currently being rate-limited
         if (!fallback.getRatelimiter().attempt(inetAddress)) {
-          initialConnection.getConnection().closeWith(Disconnect.create(
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
             Sonar.get().getConfig().getVerification().getTooFastReconnect(),
             inboundConnection.getProtocolVersion()
           ));
@@ -231,7 +270,8 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
         pipeline.addFirst(FALLBACK_HANDLER, new FallbackChannelHandler(event.getUsername(), inetAddress));
 
         // Queue the connection for further processing
-        fallback.getQueue().queue(inetAddress, () -> channel.eventLoop().execute(() -> {
+        // The queued action runs on the event loop of this channel
+        final FallbackQueue.Result result = fallback.getQueue().queue(channel, inetAddress, () -> {
 
           // Do not continue if the connection is closed or marked as disconnected
           if (mcConnection.isClosed() || mcConnection.isKnownDisconnect()) return;
@@ -239,7 +279,7 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
           // Check if the username matches the valid name regex to prevent
           // UTF-16 names or other types of exploits
           if (!Sonar.get().getConfig().getVerification().getValidNameRegex().matcher(event.getUsername()).matches()) {
-            mcConnection.closeWith(Disconnect.create(Sonar.get().getConfig().getVerification().getInvalidUsername(),
+            mcConnection.closeWith(getDisconnectPacket(Sonar.get().getConfig().getVerification().getInvalidUsername(),
               mcConnection.getProtocolVersion()));
             return;
           }
@@ -334,11 +374,31 @@ public void handle(final @NotNull PreLoginEvent event) throws Throwable {
           // Replace normal decoder to allow custom packets
           user.getPipeline().replace(MINECRAFT_DECODER, FALLBACK_PACKET_DECODER, new FallbackPacketDecoder(user,
             new FallbackVerificationHandler(user, gameProfile.getName(), connectedPlayer.getUniqueId())));
-        }));
+        }, () -> initialConnection.getConnection().closeWith(getDisconnectPacket(
+          Sonar.get().getConfig().getVerification().getTooManyPlayers(),
+          inboundConnection.getProtocolVersion()
+        )));
+
+        // Disconnect the player if the queue is full
+        if (result == FallbackQueue.Result.ALREADY_QUEUED) {
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
+            Sonar.get().getConfig().getVerification().getAlreadyQueued(),
+            inboundConnection.getProtocolVersion()
+          ));
+        } else if (result == FallbackQueue.Result.FULL) {
+          initialConnection.getConnection().closeWith(getDisconnectPacket(
+            Sonar.get().getConfig().getVerification().getTooManyPlayers(),
+            inboundConnection.getProtocolVersion()
+          ));
+        }
       } catch (Throwable throwable) {
         throw new ReflectiveOperationException(throwable);
       }
-    });
+    }));
+
+    // Velocity continues the login in the event loop once this event is done,
+    // so the event has to wait until our task has been scheduled before that
+    return scheduled.isDone() ? null : EventTask.resumeWhenComplete(scheduled);
   }
 
   @Subscribe(order = PostOrder.LAST)
@@ -358,7 +418,7 @@ public void handle(final @NotNull LoginEvent event) {
 
       // We use '>=' because the player connecting to the server hasn't joined yet
       if (onlinePerIp >= maxOnlinePerIp) {
-        connectedPlayer.getConnection().closeWith(Disconnect.create(
+        connectedPlayer.getConnection().closeWith(getDisconnectPacket(
           Sonar.get().getConfig().getTooManyOnlinePerIp(), connectedPlayer.getProtocolVersion()
         ));
       }
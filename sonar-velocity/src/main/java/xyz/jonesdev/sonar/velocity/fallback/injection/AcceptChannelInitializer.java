@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2023 Sonar Contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package xyz.jonesdev.sonar.velocity.fallback.injection;
+
+import com.velocitypowered.proxy.VelocityServer;
+import com.velocitypowered.proxy.network.ConnectionManager;
+import com.velocitypowered.proxy.network.ServerChannelInitializerHolder;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import lombok.RequiredArgsConstructor;
+import org.jetbrains.annotations.NotNull;
+import xyz.jonesdev.sonar.api.ReflectiveOperationException;
+import xyz.jonesdev.sonar.api.Sonar;
+import xyz.jonesdev.sonar.api.fallback.blacklist.FallbackBlacklist;
+
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Runs before Velocity's own server channel initializer, so blacklisted IP addresses
+ * and excess connections are dropped before any handler or connection object is created.
+ */
+@RequiredArgsConstructor
+public final class AcceptChannelInitializer extends ChannelInitializer<Channel> {
+  private final VelocityServer server;
+  private final ChannelInitializer<Channel> original;
+
+  public static void inject(final @NotNull VelocityServer server) {
+    try {
+      final Field connectionManagerField = VelocityServer.class.getDeclaredField("cm");
+      connectionManagerField.setAccessible(true);
+
+      final ConnectionManager connectionManager = (ConnectionManager) connectionManagerField.get(server);
+      final ServerChannelInitializerHolder holder = connectionManager.getServerChannelInitializer();
+      holder.set(new AcceptChannelInitializer(server, holder.get()));
+    } catch (Exception exception) {
+      throw new ReflectiveOperationException(exception);
+    }
+  }
+
+  @Override
+  protected void initChannel(final @NotNull Channel channel) throws Exception {
+    final SocketAddress remoteAddress = channel.remoteAddress();
+    // The real IP address is not known yet if the PROXY protocol is used
+    final InetAddress inetAddress = !server.getConfiguration().isProxyProtocol()
+      && remoteAddress instanceof InetSocketAddress ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+    if ((inetAddress != null && isBlacklisted(inetAddress))
+      || !Sonar.get().getFallback().getConnectionLimiter().attempt(inetAddress)) {
+      channel.close();
+      return;
+    }
+    // Let Velocity build the pipeline as usual
+    channel.pipeline().addLast(original);
+  }
+
+  /**
+   * Subnet entries don't apply to IP addresses of verified players;
+   * the UUID is only known once the player logs in, where the subnet is checked again.
+   */
+  private static boolean isBlacklisted(final @NotNull InetAddress inetAddress) {
+    final FallbackBlacklist blacklist = Sonar.get().getFallback().getBlacklisted();
+    return blacklist.hasAddress(inetAddress)
+      || blacklist.hasSubnet(inetAddress) && !Sonar.get().getVerifiedPlayerController().has(inetAddress);
+  }
+}